@@ -0,0 +1,82 @@
+package benchmarks;
+
+import java.awt.image.BufferedImage;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+import java.util.function.UnaryOperator;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures how much a steady stream of images allocates when each is
+ * smoothed into a new image, and when each is smoothed into an image from
+ * an ImagePool that is released straight after, as the server does. Run
+ * with -prof gc (as make runbench does) and compare gc.alloc.rate.norm,
+ * the bytes allocated per image; the kernels themselves work in per-thread
+ * scratch buffers either way.
+ *
+ * @author Jordy Kafwe
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "--add-modules=jdk.incubator.vector")
+public class AllocationBenchmark {
+
+    @Param({"MeanFilterParallel", "MedianFilterParallel"})
+    private String filterName;
+
+    @Param({"5"})
+    private int windowWidth;
+
+    @Param({"1024", "2048"})
+    private int imageSize;
+
+    @Param({"TYPE_INT_RGB", "TYPE_3BYTE_BGR"})
+    private String imageType;
+
+    private BufferedImage image;
+    private ForkJoinPool pool;
+    private UnaryOperator<BufferedImage> fresh;
+    private UnaryOperator<BufferedImage> pooled;
+
+    @Setup
+    public void setUp() throws ReflectiveOperationException {
+        int type = BufferedImage.class.getField(imageType).getInt(null);
+        image = Filters.randomImage(imageSize, imageSize, type);
+        pool = new ForkJoinPool(Runtime.getRuntime().availableProcessors());
+        fresh = Filters.parallel(filterName, windowWidth, 0, null, pool);
+        pooled = Filters.pooled(filterName, windowWidth, 0, null, pool);
+    }
+
+    @TearDown
+    public void tearDown() {
+        pool.shutdown();
+    }
+
+    @Benchmark
+    public BufferedImage fresh(Megapixels counter) {
+        BufferedImage filteredImage = fresh.apply(image);
+        counter.add(imageSize, imageSize);
+        return filteredImage;
+    }
+
+    @Benchmark
+    public BufferedImage pooled(Megapixels counter) {
+        BufferedImage filteredImage = pooled.apply(image);
+        counter.add(imageSize, imageSize);
+        return filteredImage;
+    }
+}
@@ -0,0 +1,170 @@
+package benchmarks;
+
+import java.awt.image.BufferedImage;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.UnaryOperator;
+
+/**
+ * Access to the filters for the benchmarks. JMH requires benchmarks to
+ * live in a named package, and a named package cannot refer to the
+ * filters in the unnamed package, so they are looked up by name once
+ * during setup and called through method handles.
+ *
+ * @author Jordy Kafwe
+ */
+final class Filters {
+
+    private static final MethodHandles.Lookup LOOKUP = MethodHandles.publicLookup();
+
+    private Filters() {
+    }
+
+    /**
+     * Returns the apply method of a new serial filter with the specified
+     * window width and engine.
+     *
+     * @param filterName the name of the filter class, e.g. MedianFilterSerial
+     * @param windowWidth the width of the window to use for the filter
+     * @param engine the name of the engine constant, or null for the default engine
+     * @return a function that applies the filter to an image
+     */
+    static UnaryOperator<BufferedImage> serial(String filterName, int windowWidth, String engine) {
+        try {
+            Class<?> filterClass = Class.forName(filterName);
+            Class<?> engineClass = engineClass(filterName);
+            Object filter = LOOKUP.findConstructor(filterClass,
+                MethodType.methodType(void.class, int.class, engineClass))
+                .invoke(windowWidth, engine(filterName, engine));
+            MethodHandle apply = LOOKUP.findVirtual(filterClass, "apply",
+                MethodType.methodType(BufferedImage.class, BufferedImage.class)).bindTo(filter);
+
+            return image -> invoke(apply, image);
+        } catch (Throwable e) {
+            throw new IllegalStateException("Could not create " + filterName, e);
+        }
+    }
+
+    /**
+     * Returns the smooth method of a parallel filter bound to the specified
+     * settings and pool.
+     *
+     * @param filterName the name of the filter class, e.g. MeanFilterParallel
+     * @param windowWidth the width of the window to use for the filter
+     * @param sequentialCutoff the largest tile side to process sequentially, or 0 to calibrate one
+     * @param engine the name of the engine constant, or null for the default engine
+     * @param pool the pool to run the filter on
+     * @return a function that applies the filter to an image
+     */
+    static UnaryOperator<BufferedImage> parallel(String filterName, int windowWidth,
+            int sequentialCutoff, String engine, ForkJoinPool pool) {
+        try {
+            Class<?> filterClass = Class.forName(filterName);
+            Class<?> engineClass = engineClass(filterName);
+            MethodHandle smooth = LOOKUP.findStatic(filterClass, "smooth",
+                MethodType.methodType(BufferedImage.class, BufferedImage.class, int.class,
+                int.class, engineClass, ForkJoinPool.class));
+            MethodHandle bound = MethodHandles.insertArguments(smooth, 1, windowWidth,
+                sequentialCutoff, engine(filterName, engine), pool);
+
+            return image -> invoke(bound, image);
+        } catch (Throwable e) {
+            throw new IllegalStateException("Could not create " + filterName, e);
+        }
+    }
+
+    /**
+     * Returns the pooled smooth method of a parallel filter bound to the
+     * specified settings, pool and a new image pool. Each smoothed image is
+     * released back to the image pool as soon as it is returned, as a server
+     * would once the image is sent, so it must only be consumed, not kept.
+     *
+     * @param filterName the name of the filter class, e.g. MeanFilterParallel
+     * @param windowWidth the width of the window to use for the filter
+     * @param sequentialCutoff the largest tile side to process sequentially, or 0 to calibrate one
+     * @param engine the name of the engine constant, or null for the default engine
+     * @param pool the pool to run the filter on
+     * @return a function that applies the filter to an image
+     */
+    static UnaryOperator<BufferedImage> pooled(String filterName, int windowWidth,
+            int sequentialCutoff, String engine, ForkJoinPool pool) {
+        try {
+            Class<?> filterClass = Class.forName(filterName);
+            Class<?> engineClass = engineClass(filterName);
+            Class<?> poolClass = Class.forName("ImagePool");
+            Class<?> borderClass = Class.forName("BorderMode");
+            Object images = LOOKUP.findConstructor(poolClass,
+                MethodType.methodType(void.class, int.class)).invoke(2);
+            Object crop = LOOKUP.findStatic(borderClass, "fromName",
+                MethodType.methodType(borderClass, String.class)).invoke("crop");
+            MethodHandle smooth = LOOKUP.findStatic(filterClass, "smooth",
+                MethodType.methodType(BufferedImage.class, BufferedImage.class, int.class,
+                int.class, engineClass, borderClass, ForkJoinPool.class, poolClass));
+            MethodHandle bound = MethodHandles.insertArguments(smooth, 1, windowWidth,
+                sequentialCutoff, engine(filterName, engine), crop, pool, images);
+            MethodHandle release = LOOKUP.findVirtual(poolClass, "release",
+                MethodType.methodType(void.class, BufferedImage.class)).bindTo(images);
+
+            return image -> {
+                BufferedImage filteredImage = invoke(bound, image);
+                invoke(release, filteredImage);
+                return filteredImage;
+            };
+        } catch (Throwable e) {
+            throw new IllegalStateException("Could not create " + filterName, e);
+        }
+    }
+
+    /**
+     * Returns an image of the specified size filled with random colours.
+     *
+     * @param width the width of the image
+     * @param height the height of the image
+     * @param type the BufferedImage type of the image
+     * @return the random image
+     */
+    static BufferedImage randomImage(int width, int height, int type) {
+        Random random = new Random(width * 31L + height);
+        BufferedImage image = new BufferedImage(width, height, type);
+
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                image.setRGB(x, y, random.nextInt(1 << 24));
+            }
+        }
+        return image;
+    }
+
+    private static BufferedImage invoke(MethodHandle filter, BufferedImage image) {
+        try {
+            return (BufferedImage) filter.invoke(image);
+        } catch (Throwable e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Returns the engine enum of the filter: MedianEngine for the median
+     * filters and MeanEngine for the mean filters.
+     */
+    private static Class<?> engineClass(String filterName) throws ClassNotFoundException {
+        return Class.forName(filterName.startsWith("Median") ? "MedianEngine" : "MeanEngine");
+    }
+
+    /**
+     * Returns the named engine of the filter, or the engine it uses by
+     * default when the name is null.
+     */
+    private static Object engine(String filterName, String engine) throws Throwable {
+        if (engine == null) {
+            engine = filterName.startsWith("Median") ? "SELECT" : "SLIDING";
+        }
+
+        Class<?> engineClass = engineClass(filterName);
+        return LOOKUP.findStatic(engineClass, "fromName",
+            MethodType.methodType(engineClass, String.class)).invoke(engine);
+    }
+}
@@ -0,0 +1,55 @@
+package benchmarks;
+
+import java.awt.image.BufferedImage;
+import java.util.concurrent.TimeUnit;
+import java.util.function.UnaryOperator;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Compares the scalar sliding mean with the Vector API kernel of
+ * MeanFilterSerial. The forked JVM is started with the Vector API module,
+ * so the VECTOR engine runs the vector kernel rather than its fallback.
+ *
+ * @author Jordy Kafwe
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "--add-modules=jdk.incubator.vector")
+public class MeanEngineBenchmark {
+
+    @Param({"3", "5", "15", "31"})
+    private int windowWidth;
+
+    @Param({"SLIDING", "VECTOR"})
+    private String engine;
+
+    @Param({"2048"})
+    private int imageSize;
+
+    private BufferedImage image;
+    private UnaryOperator<BufferedImage> filter;
+
+    @Setup
+    public void setUp() {
+        image = Filters.randomImage(imageSize, imageSize, BufferedImage.TYPE_INT_RGB);
+        filter = Filters.serial("MeanFilterSerial", windowWidth, engine);
+    }
+
+    @Benchmark
+    public BufferedImage meanFilter() {
+        return filter.apply(image);
+    }
+}
@@ -0,0 +1,55 @@
+package benchmarks;
+
+import java.awt.image.BufferedImage;
+import java.util.concurrent.TimeUnit;
+import java.util.function.UnaryOperator;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Compares the median engines of MedianFilterSerial on the small windows
+ * that make up most of our traffic, to check that the median networks and
+ * quickselect beat sorting every window.
+ *
+ * @author Jordy Kafwe
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class MedianEngineBenchmark {
+
+    @Param({"3", "5", "7", "11"})
+    private int windowWidth;
+
+    @Param({"SORT", "SELECT"})
+    private String engine;
+
+    @Param({"512"})
+    private int imageSize;
+
+    private BufferedImage image;
+    private UnaryOperator<BufferedImage> filter;
+
+    @Setup
+    public void setUp() {
+        image = Filters.randomImage(imageSize, imageSize, BufferedImage.TYPE_INT_RGB);
+        filter = Filters.serial("MedianFilterSerial", windowWidth, engine);
+    }
+
+    @Benchmark
+    public BufferedImage medianFilter() {
+        return filter.apply(image);
+    }
+}
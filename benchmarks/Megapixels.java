@@ -0,0 +1,36 @@
+package benchmarks;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Counts the megapixels filtered by a benchmark thread, which JMH reports
+ * as a rate alongside the primary result, giving throughput in
+ * megapixels per second regardless of the image size.
+ *
+ * @author Jordy Kafwe
+ */
+@State(Scope.Thread)
+@AuxCounters(AuxCounters.Type.OPERATIONS)
+public class Megapixels {
+
+    public double megapixels;
+
+    @Setup(Level.Iteration)
+    public void reset() {
+        megapixels = 0;
+    }
+
+    /**
+     * Records that an image of the specified size has been filtered.
+     *
+     * @param width the width of the image
+     * @param height the height of the image
+     */
+    void add(int width, int height) {
+        megapixels += (double) width * height / 1_000_000;
+    }
+}
@@ -0,0 +1,58 @@
+package benchmarks;
+
+import java.awt.image.BufferedImage;
+import java.util.concurrent.TimeUnit;
+import java.util.function.UnaryOperator;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures MeanFilterSerial and MedianFilterSerial with their default
+ * engines across window widths and synthetic image sizes. The megapixels
+ * counter gives the throughput in megapixels per second, and running with
+ * -prof gc adds the allocation rate.
+ *
+ * @author Jordy Kafwe
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SerialFilterBenchmark {
+
+    @Param({"MeanFilterSerial", "MedianFilterSerial"})
+    private String filterName;
+
+    @Param({"3", "5", "11", "15"})
+    private int windowWidth;
+
+    @Param({"256", "1024", "2048"})
+    private int imageSize;
+
+    private BufferedImage image;
+    private UnaryOperator<BufferedImage> filter;
+
+    @Setup
+    public void setUp() {
+        image = Filters.randomImage(imageSize, imageSize, BufferedImage.TYPE_3BYTE_BGR);
+        filter = Filters.serial(filterName, windowWidth, null);
+    }
+
+    @Benchmark
+    public BufferedImage filter(Megapixels counter) {
+        BufferedImage filteredImage = filter.apply(image);
+        counter.add(imageSize, imageSize);
+        return filteredImage;
+    }
+}
@@ -12,6 +12,7 @@ for x in range(1, 6):
         input_image = f"images/input/{file_name}.jpg"
         output_image = f"images/{filter}/{file_name}-{filter}.jpg"
         result_file = f"results/{filter}/{file_name}.txt"
+        metrics_file = f"results/{filter}/{file_name}.jsonl"
 
         for window_width in window_widths:
             print(f"Benchmarking {filter} with window width {window_width} on {file_name}.jpg ")
@@ -20,8 +21,8 @@ for x in range(1, 6):
                 file.write(f"{file_name}, window width={window_width}\n")
 
             for i in range(5):
-                os.system(f"java -cp bin {filter} {input_image} {output_image} \
-                {window_width} >> {result_file}")
+                os.system(f"java -Dsmoother.metrics={metrics_file} -cp bin {filter} \
+                {input_image} {output_image} {window_width} >> {result_file}")
 
     print("{:-^70}".format(str(20*x) + "% done"))
 
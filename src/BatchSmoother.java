@@ -0,0 +1,284 @@
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.System.Logger;
+import java.lang.System.Logger.Level;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.UnaryOperator;
+
+/**
+ * Smooths a whole batch of images in one JVM as a pipeline. I/O threads
+ * decode upcoming images while the current image is filtered on the
+ * Fork/Join pool and earlier results are encoded, so neither JVM startup
+ * nor ImageIO.read and write hold up the filtering.
+ *
+ * Images are filtered one at a time, each using the whole pool. At most
+ * maxInFlight images are decoded, filtered or waiting to be encoded at
+ * any moment, which caps the memory the batch uses. The stages of every
+ * image are recorded and published to the listeners registered with
+ * {@link Metrics}.
+ *
+ * @author Jordy Kafwe
+ */
+public class BatchSmoother {
+
+    private static final Logger LOGGER = System.getLogger(BatchSmoother.class.getName());
+
+    private final UnaryOperator<BufferedImage> filter;
+    private final String suffix;
+    private final String extension;
+    private final int windowWidth;
+    private final ForkJoinPool pool;
+    private final int ioThreads;
+    private final int maxInFlight;
+
+    /**
+     * Constructs a new BatchSmoother that applies the specified filter to
+     * every image and writes the results as JPEGs.
+     *
+     * @param filter the filter to apply, e.g. a call to MeanFilterParallel.smooth
+     * @param suffix the suffix added to the name of each output image, which
+     * also names the filter in the metrics
+     * @param windowWidth the width of the window of the filter, for the metrics
+     * @param pool the pool the filter runs on, or null for a serial filter
+     * @param ioThreads the number of threads to decode with, and to encode with
+     * @param maxInFlight the largest number of images held in memory at once
+     * @throws IllegalArgumentException if ioThreads or maxInFlight is less than 1
+     */
+    public BatchSmoother(UnaryOperator<BufferedImage> filter, String suffix,
+    int windowWidth, ForkJoinPool pool, int ioThreads, int maxInFlight) {
+        this(filter, suffix, "jpg", windowWidth, pool, ioThreads, maxInFlight);
+    }
+
+    /**
+     * Constructs a new BatchSmoother that applies the specified filter to
+     * every image and writes the results in the format of the specified
+     * extension, e.g. png, or rgbp to chain another pass without a codec.
+     *
+     * @param filter the filter to apply, e.g. a call to MeanFilterParallel.smooth
+     * @param suffix the suffix added to the name of each output image, which
+     * also names the filter in the metrics
+     * @param extension the extension of the output images, which chooses their format
+     * @param windowWidth the width of the window of the filter, for the metrics
+     * @param pool the pool the filter runs on, or null for a serial filter
+     * @param ioThreads the number of threads to decode with, and to encode with
+     * @param maxInFlight the largest number of images held in memory at once
+     * @throws IllegalArgumentException if ioThreads or maxInFlight is less than 1,
+     * or if no format can be written with the extension
+     */
+    public BatchSmoother(UnaryOperator<BufferedImage> filter, String suffix,
+    String extension, int windowWidth, ForkJoinPool pool, int ioThreads, int maxInFlight) {
+        if (ioThreads < 1 || maxInFlight < 1) {
+            throw new IllegalArgumentException(
+                "I/O threads and images in flight must be at least 1");
+        }
+        if (!ImageFiles.isWritable(new File(suffix + "." + extension))) {
+            throw new IllegalArgumentException("No writer for ." + extension + " images");
+        }
+
+        this.filter = filter;
+        this.suffix = suffix;
+        this.extension = extension;
+        this.windowWidth = windowWidth;
+        this.pool = pool;
+        this.ioThreads = ioThreads;
+        this.maxInFlight = maxInFlight;
+    }
+
+    /**
+     * Smooths every input image and writes each result named after the
+     * input with the suffix and extension added, e.g.
+     * galactic1-MeanFilterParallel.jpg, in the format of the extension.
+     * An image that cannot be read or written is logged as a warning and
+     * skipped.
+     *
+     * @param inputs the images to smooth
+     * @param outputDirectory the directory to write the smoothed images to
+     * @return the number of images smoothed and written
+     * @throws InterruptedException if interrupted while waiting for the batch
+     */
+    public int process(List<File> inputs, File outputDirectory) throws InterruptedException {
+        ExecutorService decoders = Executors.newFixedThreadPool(ioThreads);
+        ExecutorService filterer = Executors.newSingleThreadExecutor();
+        ExecutorService encoders = Executors.newFixedThreadPool(ioThreads);
+        Semaphore inFlight = new Semaphore(maxInFlight);
+        AtomicInteger written = new AtomicInteger();
+        List<CompletableFuture<Void>> images = new ArrayList<>();
+        outputDirectory.mkdirs();
+
+        try {
+            for (File input : inputs) {
+                // wait for an earlier image to be written before decoding another
+                inFlight.acquire();
+                File output = new File(outputDirectory, baseName(input) + "-" + suffix + "." 
+                    + extension);
+
+                // timed from here, so each stage includes any wait for its threads
+                FilterMetrics.Recorder recorder = 
+                    new FilterMetrics.Recorder(suffix, windowWidth, pool);
+
+                images.add(CompletableFuture.supplyAsync(() -> read(input), decoders)
+                    .thenApplyAsync(image -> {
+                        recorder.decoded(image.getWidth(), image.getHeight());
+                        BufferedImage filteredImage = filter.apply(image);
+                        recorder.filtered();
+                        return filteredImage;
+                    }, filterer)
+                    .thenAcceptAsync(image -> {
+                        write(image, output);
+                        recorder.encoded();
+                    }, encoders)
+                    .whenComplete((result, e) -> {
+                        inFlight.release();
+
+                        if (e == null) {
+                            written.incrementAndGet();
+                        } else {
+                            Throwable cause = e.getCause() != null ? e.getCause() : e;
+                            LOGGER.log(Level.WARNING, "Could not smooth {0}: {1}", input, 
+                                cause.getMessage());
+                        }
+                    }));
+            }
+
+            CompletableFuture.allOf(images.toArray(new CompletableFuture<?>[0]))
+                .exceptionally(e -> null).join();
+        } finally {
+            decoders.shutdown();
+            filterer.shutdown();
+            encoders.shutdown();
+        }
+        return written.get();
+    }
+
+    private static BufferedImage read(File input) {
+        try {
+            return ImageFiles.read(input);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static void write(BufferedImage image, File output) {
+        try {
+            ImageFiles.write(image, output);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static String baseName(File file) {
+        String name = file.getName();
+        int dot = name.lastIndexOf('.');
+        return dot > 0 ? name.substring(0, dot) : name;
+    }
+
+    /**
+     * Returns the images to smooth: every image ImageFiles can read in the
+     * specified directory, or every path listed, one per line, in the
+     * specified file.
+     *
+     * @param input a directory of images or a text file listing images
+     * @return the images to smooth, in name or listed order
+     * @throws IOException if the directory or list cannot be read
+     */
+    public static List<File> listInputs(File input) throws IOException {
+        List<File> inputs = new ArrayList<>();
+
+        if (input.isDirectory()) {
+            File[] files = input.listFiles();
+
+            if (files == null) {
+                throw new IOException("Could not list " + input);
+            }
+
+            Arrays.sort(files);
+            for (File file : files) {
+                if (file.isFile() && ImageFiles.isReadable(file)) {
+                    inputs.add(file);
+                }
+            }
+            return inputs;
+        }
+
+        for (String line : Files.readAllLines(input.toPath(), StandardCharsets.UTF_8)) {
+            if (!line.isBlank()) {
+                inputs.add(new File(line.trim()));
+            }
+        }
+        return inputs;
+    }
+
+    public static void main(String[] args) {
+        try {
+            String filterName = args[0].toLowerCase(Locale.ROOT);
+            File input = new File(args[1]);
+            File outputDirectory = new File(args[2]);
+            int windowWidth = Integer.parseInt(args[3]);
+            ForkJoinPool pool = ForkJoinPool.commonPool();
+            UnaryOperator<BufferedImage> filter;
+            String suffix;
+
+            if (filterName.equals("mean")) {
+                MeanEngine engine = args.length > 4
+                    ? MeanEngine.fromName(args[4]) : MeanEngine.SLIDING;
+                filter = image -> ResultCache.shared().apply(image, "mean", windowWidth, 
+                    BorderMode.CROP, 
+                    source -> MeanFilterParallel.smooth(source, windowWidth, 0, engine, pool));
+                suffix = "MeanFilterParallel";
+            } else if (filterName.equals("median")) {
+                MedianEngine engine = args.length > 4
+                    ? MedianEngine.fromName(args[4]) : MedianEngine.SELECT;
+                filter = image -> ResultCache.shared().apply(image, "median", windowWidth, 
+                    BorderMode.CROP, 
+                    source -> MedianFilterParallel.smooth(source, windowWidth, 0, engine, pool));
+                suffix = "MedianFilterParallel";
+            } else {
+                throw new IllegalArgumentException("Filter must be mean or median");
+            }
+
+            // check the window width before starting the batch
+            if (windowWidth % 2 == 0 || windowWidth < 3) {
+                throw new IllegalArgumentException(
+                    "Window width must be odd and greater than 2");
+            }
+
+            String extension = args.length > 5 ? args[5] : "jpg";
+            List<File> inputs = listInputs(input);
+            BatchSmoother batch = new BatchSmoother(filter, suffix, extension, windowWidth, 
+                pool, 2, 4);
+
+            // time the execution of the whole batch
+            long startTime = System.currentTimeMillis();
+            int written = batch.process(inputs, outputDirectory);
+            long endTime = System.currentTimeMillis();
+
+            System.out.println(written + " of " + inputs.size() + " images smoothed in "
+                + (endTime - startTime) + " ms");
+
+        } catch (IOException e) {
+            System.out.println("Input images could not be listed: " + e.getMessage());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            System.out.println("Interrupted");
+        } catch (IllegalArgumentException e) {
+            System.out.println(e.getMessage());
+        } catch (ArrayIndexOutOfBoundsException e) {
+            System.out.println("Missing arguments\n" +
+            "Usage: java BatchSmoother <mean|median> <inputDirectory|listFile> " +
+            "<outputDirectory> <windowWidth> [engine] [extension]");
+        }
+    }
+}
@@ -0,0 +1,56 @@
+/**
+ * How the filters treat the pixels near the edges of the image, whose
+ * windows reach past the edges. The interior of the image is filtered
+ * the same way whatever the mode.
+ *
+ * @author Jordy Kafwe
+ */
+public enum BorderMode {
+
+    /**
+     * Leaves the pixels whose window reaches past the edges at zero (black),
+     * as the filters always have.
+     */
+    CROP,
+
+    /**
+     * Copies the pixels whose window reaches past the edges unfiltered from
+     * the source image.
+     */
+    SOURCE,
+
+    /**
+     * Fills the window past the edges by repeating the edge pixels,
+     * e.g. aaa|abcd|ddd.
+     */
+    CLAMP,
+
+    /**
+     * Fills the window past the edges by mirroring the image about the edge
+     * pixels without repeating them, e.g. dcb|abcd|cba.
+     */
+    REFLECT,
+
+    /**
+     * Fills the window past the edges with the pixels from the opposite edge,
+     * as if the image were tiled, e.g. bcd|abcd|abc.
+     */
+    WRAP;
+
+    /**
+     * Returns the border mode with the specified name, ignoring case.
+     *
+     * @param name the name of the border mode
+     * @return the matching border mode
+     * @throws IllegalArgumentException if no border mode has the specified name
+     */
+    public static BorderMode fromName(String name) {
+        for (BorderMode mode : values()) {
+            if (mode.name().equalsIgnoreCase(name)) {
+                return mode;
+            }
+        }
+
+        throw new IllegalArgumentException("Unknown border mode: " + name);
+    }
+}
@@ -0,0 +1,192 @@
+/**
+ * Filters the pixels near the edges of the image, whose windows reach
+ * past the edges, according to a BorderMode.
+ *
+ * The filters run their kernels only on the interior, where every window
+ * lies inside the image, so those loops need no bounds checks. This class
+ * then fills in the ring of (windowWidth - 1) / 2 pixels around it. The
+ * rows and columns each window covers are looked up in tables built once
+ * per tile, which map coordinates past the edges back into the image, so
+ * gathering a window needs no branches either.
+ *
+ * @author Jordy Kafwe
+ */
+final class Borders {
+
+    /**
+     * Combines the packed RGB pixels of a whole window into the filtered pixel.
+     */
+    interface Window {
+
+        /**
+         * Returns the filtered pixel of the window.
+         *
+         * @param pixels the packed RGB pixels of the window, which may be reordered
+         * @param values a scratch array as long as the window
+         * @return the filtered packed RGB pixel
+         */
+        int combine(int[] pixels, int[] values);
+    }
+
+    /** The mean of each channel of the window. */
+    static final Window MEAN = (pixels, values) -> {
+        int red = 0;
+        int green = 0;
+        int blue = 0;
+
+        for (int pixel : pixels) {
+            red += pixel >> 16 & 0xFF;
+            green += pixel >> 8 & 0xFF;
+            blue += pixel & 0xFF;
+        }
+
+        int windowSize = pixels.length;
+        return (red / windowSize) << 16 | (green / windowSize) << 8 | blue / windowSize;
+    };
+
+    /** The median of each channel of the window. */
+    static final Window MEDIAN = (pixels, values) -> {
+        int result = 0;
+
+        for (int shift = 16; shift >= 0; shift -= 8) {
+            for (int p = 0; p < pixels.length; p++) {
+                values[p] = pixels[p] >> shift & 0xFF;
+            }
+            result |= SelectionMedian.median(values) << shift;
+        }
+        return result;
+    };
+
+    private Borders() {
+    }
+
+    /**
+     * Filters the pixels of the specified tile that lie within
+     * (windowWidth - 1) / 2 pixels of the edges of the image, and writes the
+     * results to the destination. Pixels of the tile further from the edges
+     * are not touched.
+     *
+     * @param source the row-major packed RGB pixels to read from
+     * @param destination the row-major packed RGB pixels to write to
+     * @param width the width of the image
+     * @param height the height of the image
+     * @param windowWidth the width of the window of the filter
+     * @param mode how to fill the parts of each window past the edges
+     * @param window combines the pixels of each window
+     * @param tileX the left column of the tile
+     * @param tileY the top row of the tile
+     * @param tileWidth the width of the tile
+     * @param tileHeight the height of the tile
+     */
+    static void filter(int[] source, int[] destination, int width, int height, 
+            int windowWidth, BorderMode mode, Window window, 
+            int tileX, int tileY, int tileWidth, int tileHeight) {
+        int neighbouringPixels = (windowWidth - 1) / 2;
+        int tileRight = tileX + tileWidth;
+        int tileBottom = tileY + tileHeight;
+
+        // nothing to do for CROP, or for tiles clear of the edges
+        if (mode == BorderMode.CROP
+                || tileX >= neighbouringPixels && tileRight <= width - neighbouringPixels
+                && tileY >= neighbouringPixels && tileBottom <= height - neighbouringPixels) {
+            return;
+        }
+
+        // the rows and columns of the image that the tile's windows cover
+        Scratch scratch = Scratch.get();
+        int[] rows = mode == BorderMode.SOURCE ? null : coordinates(mode, 
+            tileY - neighbouringPixels, tileHeight + windowWidth - 1, height, scratch.ints(4, 
+            tileHeight + windowWidth - 1));
+        int[] columns = mode == BorderMode.SOURCE ? null : coordinates(mode, 
+            tileX - neighbouringPixels, tileWidth + windowWidth - 1, width, scratch.ints(5, 
+            tileWidth + windowWidth - 1));
+        int[] pixels = scratch.window(3, windowWidth * windowWidth);
+        int[] values = scratch.window(4, pixels.length);
+
+        for (int y = tileY; y < tileBottom; y++) {
+            boolean wholeRow = y < neighbouringPixels || y >= height - neighbouringPixels;
+
+            // the columns of the row left of the interior, then right of it
+            int leftEnd = wholeRow ? tileRight : Math.min(tileRight, neighbouringPixels);
+            int rightStart = wholeRow ? tileRight 
+                : Math.max(Math.max(tileX, leftEnd), width - neighbouringPixels);
+
+            filterSpan(source, destination, width, windowWidth, mode, window, rows, columns, 
+                pixels, values, tileX, tileY, y, tileX, leftEnd);
+            filterSpan(source, destination, width, windowWidth, mode, window, rows, columns, 
+                pixels, values, tileX, tileY, y, rightStart, tileRight);
+        }
+    }
+
+    /**
+     * Filters the pixels of row y from xStart inclusive to xEnd exclusive.
+     */
+    private static void filterSpan(int[] source, int[] destination, int width, 
+            int windowWidth, BorderMode mode, Window window, int[] rows, int[] columns, 
+            int[] pixels, int[] values, int tileX, int tileY, int y, int xStart, int xEnd) {
+        for (int x = xStart; x < xEnd; x++) {
+            int index = y * width + x;
+
+            if (mode == BorderMode.SOURCE) {
+                destination[index] = source[index];
+                continue;
+            }
+
+            // rows[y - tileY] is the top row of the window, as the table starts a window above
+            int p = 0;
+
+            for (int j = y - tileY; j < y - tileY + windowWidth; j++) {
+                int row = rows[j] * width;
+
+                for (int i = x - tileX; i < x - tileX + windowWidth; i++) {
+                    pixels[p++] = source[row + columns[i]];
+                }
+            }
+
+            destination[index] = window.combine(pixels, values);
+        }
+    }
+
+    /**
+     * Returns the coordinates inside the image of count consecutive
+     * coordinates from first, mapped back into the image by the mode, in
+     * the specified array.
+     */
+    private static int[] coordinates(BorderMode mode, int first, int count, int size, 
+            int[] coordinates) {
+        for (int c = 0; c < count; c++) {
+            coordinates[c] = map(mode, first + c, size);
+        }
+        return coordinates;
+    }
+
+    /**
+     * Maps a coordinate that may lie past either edge of a dimension of the
+     * specified size back into it.
+     *
+     * @param mode CLAMP, REFLECT or WRAP
+     * @param coordinate the coordinate to map, which may be negative
+     * @param size the size of the dimension
+     * @return the coordinate inside the dimension that the mode fills it from
+     * @throws IllegalArgumentException for CROP and SOURCE, which fill nothing
+     */
+    static int map(BorderMode mode, int coordinate, int size) {
+        switch (mode) {
+            case CLAMP:
+                return Math.min(Math.max(coordinate, 0), size - 1);
+            case REFLECT: {
+                if (size == 1) {
+                    return 0;
+                }
+                // mirroring repeats with a period of two widths minus the two edges
+                int period = 2 * (size - 1);
+                int folded = Math.floorMod(coordinate, period);
+                return folded < size ? folded : period - folded;
+            }
+            case WRAP:
+                return Math.floorMod(coordinate, size);
+            default:
+                throw new IllegalArgumentException("No coordinates to map for " + mode);
+        }
+    }
+}
@@ -0,0 +1,195 @@
+/**
+ * A median filter for large windows that searches the rank of the median
+ * one nibble at a time, as in the full method of Perreault and Hebert.
+ *
+ * Every column of the window keeps a coarse 16-bin histogram of the high
+ * nibble of each channel and a fine 256-bin histogram of the whole value.
+ * Moving across a row only slides the coarse window histogram, 16 bins
+ * instead of 256, and the coarse bins say which 16 fine bins hold the
+ * median. The fine window histogram of that group alone is then brought up
+ * to date, either by sliding it from the column it was last used at or by
+ * summing it afresh when it was last used more than a window ago. Since
+ * the median of a large window moves slowly, the same group is usually
+ * found pixel after pixel and the catch-up costs a single slide, so the
+ * cost per pixel stays about 3 * 16 operations per channel whatever the
+ * window width, against 2 * 256 for HistogramMedian.
+ *
+ * The median is the value at index windowSize / 2 of the sorted window,
+ * exactly as the sorting filters pick it.
+ *
+ * @author Jordy Kafwe
+ */
+final class CoarseFineMedian {
+
+    private static final int BINS = 256;
+    private static final int GROUPS = 16; // coarse bins, each covering 16 fine bins
+
+    private CoarseFineMedian() {
+    }
+
+    /**
+     * Applies the median filter to the region from (xStart, yStart) inclusive
+     * to (xEnd, yEnd) exclusive of the source pixels and writes the results
+     * to the destination pixels. The region must lie at least
+     * (windowWidth - 1) / 2 pixels away from the edges of the image.
+     *
+     * @param source the row-major packed RGB pixels to read from
+     * @param destination the row-major packed RGB pixels to write to
+     * @param width the width of the image
+     * @param windowWidth the width of the window to use for the filter
+     * @param xStart the first column to filter
+     * @param yStart the first row to filter
+     * @param xEnd the column after the last column to filter
+     * @param yEnd the row after the last row to filter
+     */
+    static void filter(int[] source, int[] destination, int width, int windowWidth, 
+            int xStart, int yStart, int xEnd, int yEnd) {
+        int neighbouringPixels = (windowWidth - 1) / 2;
+        // the number of values that come before the median in the sorted window
+        int rank = windowWidth * windowWidth / 2;
+
+        if (xStart >= xEnd || yStart >= yEnd) {
+            return;
+        }
+
+        // the histograms of each column of the window, offset by left, for the 
+        // red, green and blue channels one after another
+        int left = xStart - neighbouringPixels;
+        int columns = xEnd - xStart + windowWidth - 1;
+        Scratch scratch = Scratch.get();
+        int[] fineColumns = scratch.ints(0, 3 * columns * BINS);
+        int[] coarseColumns = scratch.ints(1, 3 * columns * GROUPS);
+
+        // the window histograms of each channel, and the column offset of the 
+        // window each group of fine bins was last brought up to date for
+        int[] fine = scratch.ints(2, 3 * BINS);
+        int[] coarse = scratch.ints(3, 3 * GROUPS);
+        int[] updatedAt = scratch.ints(4, 3 * GROUPS);
+
+        // count the rows of the first window of every column
+        for (int j = yStart - neighbouringPixels; j <= yStart + neighbouringPixels; j++) {
+            count(source, j * width + left, columns, 1, fineColumns, coarseColumns);
+        }
+
+        for (int y = yStart; y < yEnd; y++) {
+            // slide the column histograms down by one row
+            if (y > yStart) {
+                count(source, (y - neighbouringPixels - 1) * width + left, columns, -1, 
+                    fineColumns, coarseColumns);
+                count(source, (y + neighbouringPixels) * width + left, columns, 1, 
+                    fineColumns, coarseColumns);
+            }
+
+            int row = y * width;
+
+            for (int channel = 0; channel < 3; channel++) {
+                int fineChannel = channel * columns * BINS;
+                int coarseChannel = channel * columns * GROUPS;
+                int window = channel * BINS;
+                int groups = channel * GROUPS;
+                int shift = 16 - 8 * channel;
+
+                // combine the coarse columns of the first window in the row, and 
+                // mark every fine group as never summed
+                for (int g = 0; g < GROUPS; g++) {
+                    coarse[groups + g] = 0;
+                    updatedAt[groups + g] = Integer.MIN_VALUE / 2;
+                }
+                for (int c = 0; c < windowWidth; c++) {
+                    add(coarse, groups, coarseColumns, coarseChannel + c * GROUPS, GROUPS);
+                }
+
+                // slide the window across the row
+                for (int x = xStart; x < xEnd; x++) {
+                    int offset = x - xStart; // the first column of the window
+                    if (offset > 0) {
+                        slide(coarse, groups, coarseColumns, 
+                            coarseChannel + (offset - 1 + windowWidth) * GROUPS, 
+                            coarseChannel + (offset - 1) * GROUPS, GROUPS);
+                    }
+
+                    // find the group of fine bins that holds the median
+                    int group = 0;
+                    int before = 0;
+                    while (before + coarse[groups + group] <= rank) {
+                        before += coarse[groups + group];
+                        group++;
+                    }
+
+                    int bins = window + group * GROUPS;
+                    int last = updatedAt[groups + group];
+                    int fineGroup = fineChannel + group * GROUPS;
+
+                    if (offset - last >= windowWidth) {
+                        // too far behind to slide, so sum the group afresh
+                        for (int bin = 0; bin < GROUPS; bin++) {
+                            fine[bins + bin] = 0;
+                        }
+                        for (int c = offset; c < offset + windowWidth; c++) {
+                            add(fine, bins, fineColumns, fineGroup + c * BINS, GROUPS);
+                        }
+                    } else {
+                        for (int c = last; c < offset; c++) {
+                            slide(fine, bins, fineColumns, fineGroup + (c + windowWidth) * BINS, 
+                                fineGroup + c * BINS, GROUPS);
+                        }
+                    }
+                    updatedAt[groups + group] = offset;
+
+                    // find the median within the group
+                    int bin = 0;
+                    while (before + fine[bins + bin] <= rank) {
+                        before += fine[bins + bin];
+                        bin++;
+                    }
+
+                    int value = group * GROUPS + bin;
+                    if (channel == 0) {
+                        destination[row + x] = value << shift;
+                    } else {
+                        destination[row + x] |= value << shift;
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Adds a row of pixels to the column histograms of every channel, or 
+     * takes it away when sign is -1.
+     */
+    private static void count(int[] source, int row, int columns, int sign, 
+            int[] fineColumns, int[] coarseColumns) {
+        for (int channel = 0; channel < 3; channel++) {
+            int shift = 16 - 8 * channel;
+            int fineChannel = channel * columns * BINS;
+            int coarseChannel = channel * columns * GROUPS;
+
+            for (int c = 0; c < columns; c++) {
+                int value = source[row + c] >> shift & 0xFF;
+                fineColumns[fineChannel + c * BINS + value] += sign;
+                coarseColumns[coarseChannel + c * GROUPS + (value >> 4)] += sign;
+            }
+        }
+    }
+
+    /**
+     * Adds count bins of a column histogram to the window histogram.
+     */
+    private static void add(int[] window, int to, int[] columns, int from, int count) {
+        for (int bin = 0; bin < count; bin++) {
+            window[to + bin] += columns[from + bin];
+        }
+    }
+
+    /**
+     * Adds count bins of the entering column histogram to the window 
+     * histogram and subtracts those of the leaving one.
+     */
+    private static void slide(int[] window, int to, int[] columns, int entering, int leaving, 
+            int count) {
+        for (int bin = 0; bin < count; bin++) {
+            window[to + bin] += columns[entering + bin] - columns[leaving + bin];
+        }
+    }
+}
@@ -0,0 +1,200 @@
+/**
+ * Applies a kernel to a region of an image. Box kernels keep the running
+ * sums of the mean filter. Separable kernels are applied as a horizontal
+ * and then a vertical 1D pass, costing width + height multiplications per
+ * pixel instead of width * height. Other kernels are applied directly,
+ * one kernel weight at a time across a whole row, so the inner loop is a
+ * plain multiply-add over float arrays that the JIT can vectorise.
+ *
+ * Each source row is split into float channels once and kept in a ring of
+ * as many rows as the kernel is high, after the horizontal pass when the
+ * kernel is separable, so only a few rows are held whatever the size of
+ * the region. The rows live in the scratch buffers of the thread.
+ *
+ * @author Jordy Kafwe
+ */
+final class Convolution {
+
+    private Convolution() {
+    }
+
+    /**
+     * Applies the kernel to the region from (xStart, yStart) inclusive to
+     * (xEnd, yEnd) exclusive of the source pixels and writes the results to
+     * the destination pixels. The region must lie at least
+     * (kernel width - 1) / 2 columns and (kernel height - 1) / 2 rows away
+     * from the edges of the image.
+     *
+     * @param source the row-major packed RGB pixels to read from
+     * @param destination the row-major packed RGB pixels to write to
+     * @param width the width of the image
+     * @param kernel the kernel to apply
+     * @param xStart the first column to filter
+     * @param yStart the first row to filter
+     * @param xEnd the column after the last column to filter
+     * @param yEnd the row after the last row to filter
+     */
+    static void filter(int[] source, int[] destination, int width, Kernel kernel, 
+            int xStart, int yStart, int xEnd, int yEnd) {
+        if (xStart >= xEnd || yStart >= yEnd) {
+            return;
+        }
+
+        if (kernel.isBox()) {
+            SlidingMean.filter(source, destination, width, kernel.getWidth(), 
+                kernel.getHeight(), xStart, yStart, xEnd, yEnd);
+            return;
+        }
+
+        int kernelHeight = kernel.getHeight();
+        int radiusX = (kernel.getWidth() - 1) / 2;
+        int radiusY = (kernelHeight - 1) / 2;
+        int regionWidth = xEnd - xStart;
+        int inputWidth = regionWidth + 2 * radiusX;
+        boolean separable = kernel.isSeparable();
+        int ringWidth = separable ? regionWidth : inputWidth;
+
+        // one source row split into channels, the ring of the last kernelHeight 
+        // rows (filtered horizontally if separable) and the sums of an output row, 
+        // each holding the red, green and blue channels one after another
+        Scratch scratch = Scratch.get();
+        float[] input = scratch.floats(0, 3 * inputWidth);
+        float[] ring = scratch.floats(1, kernelHeight * 3 * ringWidth);
+        float[] sums = scratch.floats(2, 3 * regionWidth);
+
+        for (int j = yStart - radiusY; j < yEnd + radiusY; j++) {
+            int ringRow = Math.floorMod(j, kernelHeight) * 3 * ringWidth;
+
+            if (separable) {
+                unpack(source, j * width + xStart - radiusX, inputWidth, input, 0);
+                for (int c = 0; c < 3; c++) {
+                    horizontalPass(input, c * inputWidth, regionWidth, kernel.horizontal(), 
+                        ring, ringRow + c * ringWidth);
+                }
+            } else {
+                unpack(source, j * width + xStart - radiusX, inputWidth, ring, ringRow);
+            }
+
+            // once the ring holds every row of a window, the output row below its centre
+            int y = j - radiusY;
+            if (y < yStart) {
+                continue;
+            }
+
+            for (int c = 0; c < 3; c++) {
+                if (separable) {
+                    verticalPass(ring, kernelHeight, ringWidth, c, y - radiusY, regionWidth, 
+                        kernel.vertical(), sums, c * regionWidth);
+                } else {
+                    directPass(ring, kernelHeight, ringWidth, c, y - radiusY, regionWidth, 
+                        kernel, sums, c * regionWidth);
+                }
+            }
+
+            pack(sums, destination, y * width + xStart, regionWidth);
+        }
+    }
+
+    /**
+     * Splits the packed pixels of a row into the red, green and blue 
+     * channels, stored one after another from the specified offset.
+     */
+    private static void unpack(int[] source, int offset, int columns, float[] channels, 
+            int start) {
+        int red = start;
+        int green = red + columns;
+        int blue = green + columns;
+
+        for (int i = 0; i < columns; i++) {
+            int pixel = source[offset + i];
+            channels[red + i] = pixel >> 16 & 0xFF;
+            channels[green + i] = pixel >> 8 & 0xFF;
+            channels[blue + i] = pixel & 0xFF;
+        }
+    }
+
+    /**
+     * Applies the horizontal weights to one channel of a row, leaving
+     * regionWidth columns.
+     */
+    private static void horizontalPass(float[] in, int from, int regionWidth, float[] weights, 
+            float[] out, int to) {
+        for (int x = 0; x < regionWidth; x++) {
+            out[to + x] = 0;
+        }
+        for (int k = 0; k < weights.length; k++) {
+            float weight = weights[k];
+            int offset = from + k;
+
+            for (int x = 0; x < regionWidth; x++) {
+                out[to + x] += weight * in[offset + x];
+            }
+        }
+    }
+
+    /**
+     * Applies the vertical weights to one channel of the horizontally
+     * filtered rows from row top down, giving one output row.
+     */
+    private static void verticalPass(float[] ring, int ringRows, int ringWidth, int channel, 
+            int top, int regionWidth, float[] weights, float[] sums, int to) {
+        for (int x = 0; x < regionWidth; x++) {
+            sums[to + x] = 0;
+        }
+        for (int k = 0; k < weights.length; k++) {
+            float weight = weights[k];
+            int from = (Math.floorMod(top + k, ringRows) * 3 + channel) * ringWidth;
+
+            for (int x = 0; x < regionWidth; x++) {
+                sums[to + x] += weight * ring[from + x];
+            }
+        }
+    }
+
+    /**
+     * Applies every weight of the kernel to one channel of the rows from
+     * row top down, giving one output row.
+     */
+    private static void directPass(float[] ring, int ringRows, int ringWidth, int channel, 
+            int top, int regionWidth, Kernel kernel, float[] sums, int to) {
+        float[] weights = kernel.weights();
+        int kernelWidth = kernel.getWidth();
+
+        for (int x = 0; x < regionWidth; x++) {
+            sums[to + x] = 0;
+        }
+        for (int k = 0; k < weights.length; k++) {
+            float weight = weights[k];
+
+            // zero weights, e.g. the corners of a disc, cost nothing
+            if (weight == 0) {
+                continue;
+            }
+
+            int from = (Math.floorMod(top + k / kernelWidth, ringRows) * 3 + channel) * ringWidth 
+                + k % kernelWidth;
+
+            for (int x = 0; x < regionWidth; x++) {
+                sums[to + x] += weight * ring[from + x];
+            }
+        }
+    }
+
+    /**
+     * Rounds the sums of each channel to the nearest value from 0 to 255
+     * and packs them into the destination row.
+     */
+    private static void pack(float[] sums, int[] destination, int offset, int regionWidth) {
+        int green = regionWidth;
+        int blue = 2 * regionWidth;
+
+        for (int x = 0; x < regionWidth; x++) {
+            destination[offset + x] = clamp(sums[x]) << 16 | clamp(sums[green + x]) << 8 
+                | clamp(sums[blue + x]);
+        }
+    }
+
+    private static int clamp(float value) {
+        return Math.max(0, Math.min(255, (int) (value + 0.5f)));
+    }
+}
@@ -0,0 +1,263 @@
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.util.Locale;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * A convolution filter that applies any kernel to 2D RGB images, either
+ * sequentially or in parallel tiles. Rectangular box kernels give the mean
+ * filter with a window that need not be square, and Gaussian or custom
+ * separable kernels are applied as two 1D passes.
+ * 
+ * Pixels closer than the radius of the kernel to the edges are left at
+ * zero, as the mean filter does with the CROP border mode.
+ * 
+ * @author Jordy Kafwe
+ */
+public class ConvolutionFilter {
+
+    private final Kernel kernel;
+
+    /**
+     * Constructs a new ConvolutionFilter that applies the specified kernel.
+     * 
+     * @param kernel the kernel to apply
+     * @throws IllegalArgumentException if kernel is null
+     */
+    public ConvolutionFilter(Kernel kernel) {
+        if (kernel == null) {
+            throw new IllegalArgumentException("Kernel must not be null");
+        }
+
+        this.kernel = kernel;
+    }
+
+    /**
+     * Returns the kernel of the filter.
+     * 
+     * @return the kernel applied by the filter
+     */
+    public Kernel getKernel() {
+        return kernel;
+    }
+
+    /**
+     * Applies the kernel to the specified image in the calling thread.
+     * 
+     * @param image the image to apply the filter to
+     * @return the filtered image
+     */
+    public BufferedImage apply(BufferedImage image) {
+        int width = image.getWidth();
+        int height = image.getHeight();
+        BufferedImage filteredImage = new BufferedImage(width, height, image.getType());
+        int[] source = RasterAccess.readPixels(image);
+        int[] destination = RasterAccess.pixelsForWriting(filteredImage);
+
+        filterTile(source, destination, width, height, 0, 0, width, height);
+
+        RasterAccess.writePixels(filteredImage, destination);
+        return filteredImage;
+    }
+
+    /**
+     * Applies the kernel to the specified image, running tiles of it in 
+     * parallel on the specified pool.
+     * 
+     * @param image the image to apply the filter to
+     * @param pool the pool to run the tasks on, which is not shut down
+     * @return the filtered image
+     * @throws IllegalArgumentException if pool is null
+     */
+    public BufferedImage apply(BufferedImage image, ForkJoinPool pool) {
+        int width = image.getWidth();
+        int height = image.getHeight();
+        BufferedImage filteredImage = new BufferedImage(width, height, image.getType());
+        int[] source = RasterAccess.readPixels(image);
+        int[] destination = RasterAccess.pixelsForWriting(filteredImage);
+
+        apply(source, width, height, destination, pool);
+
+        RasterAccess.writePixels(filteredImage, destination);
+        return filteredImage;
+    }
+
+    /**
+     * Applies the kernel to the specified row-major packed RGB pixels, running 
+     * tiles of them in parallel on the specified pool. Pixels closer than the 
+     * radius of the kernel to the edges are left as they are in the destination.
+     * 
+     * @param source the row-major packed RGB pixels to filter
+     * @param width the width of the image
+     * @param height the height of the image
+     * @param destination the row-major packed RGB pixels to write the results to
+     * @param pool the pool to run the tasks on, which is not shut down
+     * @throws IllegalArgumentException if pool is null
+     */
+    public void apply(int[] source, int width, int height, int[] destination, ForkJoinPool pool) {
+        if (pool == null) {
+            throw new IllegalArgumentException("Pool must not be null");
+        }
+
+        int tileSize = Tiling.defaultTileSize(width, height, 
+            Math.max(kernel.getWidth(), kernel.getHeight()), pool.getParallelism());
+        pool.invoke(new TileTask(source, destination, width, height, tileSize, 
+            0, 0, width, height));
+    }
+
+    /**
+     * Applies the kernel to the pixels of the tile whose window lies inside 
+     * the image.
+     */
+    private void filterTile(int[] source, int[] destination, int width, int height, 
+            int tileX, int tileY, int tileWidth, int tileHeight) {
+        int radiusX = (kernel.getWidth() - 1) / 2;
+        int radiusY = (kernel.getHeight() - 1) / 2;
+
+        // keep in bounds of image
+        int xStart = Math.max(tileX, radiusX);
+        int yStart = Math.max(tileY, radiusY);
+        int xEnd = Math.min(tileX + tileWidth, width - radiusX);
+        int yEnd = Math.min(tileY + tileHeight, height - radiusY);
+
+        Convolution.filter(source, destination, width, kernel, xStart, yStart, xEnd, yEnd);
+    }
+
+    /**
+     * Filters a tile of the image, splitting it in half across its longer 
+     * side until it is no larger than the tile size.
+     */
+    private final class TileTask extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        private final int[] source;
+        private final int[] destination;
+        private final int width;
+        private final int height;
+        private final int tileSize;
+        private final int tileX;
+        private final int tileY;
+        private final int tileWidth;
+        private final int tileHeight;
+
+        TileTask(int[] source, int[] destination, int width, int height, int tileSize, 
+                int tileX, int tileY, int tileWidth, int tileHeight) {
+            this.source = source;
+            this.destination = destination;
+            this.width = width;
+            this.height = height;
+            this.tileSize = tileSize;
+            this.tileX = tileX;
+            this.tileY = tileY;
+            this.tileWidth = tileWidth;
+            this.tileHeight = tileHeight;
+        }
+
+        @Override
+        protected void compute() {
+            if (tileWidth <= tileSize && tileHeight <= tileSize) {
+                filterTile(source, destination, width, height, 
+                    tileX, tileY, tileWidth, tileHeight);
+                return;
+            }
+
+            TileTask first;
+            TileTask second;
+
+            // split the tile into two smaller tiles
+            if (tileWidth >= tileHeight) {
+                int mid = tileWidth / 2;
+                first = tile(tileX, tileY, mid, tileHeight);
+                second = tile(tileX + mid, tileY, tileWidth - mid, tileHeight);
+            } else {
+                int mid = tileHeight / 2;
+                first = tile(tileX, tileY, tileWidth, mid);
+                second = tile(tileX, tileY + mid, tileWidth, tileHeight - mid);
+            }
+
+            first.fork();
+            second.compute();
+            // wait for the first task to finish
+            first.join();
+        }
+
+        private TileTask tile(int x, int y, int w, int h) {
+            return new TileTask(source, destination, width, height, tileSize, x, y, w, h);
+        }
+    }
+
+    /**
+     * Returns the kernel described by the specified name: box:WxH for a 
+     * rectangular mean, or gaussian:sigma or gaussian:sigmaX,sigmaY for a 
+     * Gaussian blur.
+     * 
+     * @param name the description of the kernel
+     * @return the kernel
+     * @throws IllegalArgumentException if the name does not describe a kernel
+     */
+    public static Kernel parseKernel(String name) {
+        String[] parts = name.toLowerCase(Locale.ROOT).split(":", 2);
+
+        try {
+            if (parts.length == 2 && parts[0].equals("box")) {
+                String[] size = parts[1].split("x", 2);
+                int kernelWidth = Integer.parseInt(size[0]);
+                int kernelHeight = size.length > 1 ? Integer.parseInt(size[1]) : kernelWidth;
+                return Kernel.box(kernelWidth, kernelHeight);
+            }
+
+            if (parts.length == 2 && parts[0].equals("gaussian")) {
+                String[] sigmas = parts[1].split(",", 2);
+                double sigmaX = Double.parseDouble(sigmas[0]);
+                double sigmaY = sigmas.length > 1 ? Double.parseDouble(sigmas[1]) : sigmaX;
+                return Kernel.gaussian(sigmaX, sigmaY);
+            }
+        } catch (NumberFormatException e) {
+            // reported below with the expected forms
+        }
+
+        throw new IllegalArgumentException(
+            "Kernel must be box:<width>x<height> or gaussian:<sigma>[,<sigmaY>]");
+    }
+
+    public static void main(String[] args) {
+        try {
+            File inputFile = new File(args[0]);
+            File outputFile = new File(args[1]);
+            Kernel kernel = parseKernel(args[2]);
+            ForkJoinPool pool = ForkJoinPool.commonPool();
+
+            ConvolutionFilter filter = new ConvolutionFilter(kernel);
+            FilterMetrics.Recorder recorder = new FilterMetrics.Recorder("ConvolutionFilter", 
+                Math.max(kernel.getWidth(), kernel.getHeight()), pool);
+            BufferedImage inputImage = ImageFiles.read(inputFile);
+            recorder.decoded(inputImage.getWidth(), inputImage.getHeight());
+
+            // time the execution of the filter
+            long startTime = System.currentTimeMillis();
+            BufferedImage filteredImage = ResultCache.shared().apply(inputImage, 
+                "convolution-" + kernel, 0, BorderMode.CROP, image -> filter.apply(image, pool));
+            long endTime = System.currentTimeMillis();
+            recorder.filtered();
+
+            ImageFiles.write(filteredImage, outputFile);
+            recorder.encoded();
+            System.out.println(endTime - startTime);
+
+        } catch (FileNotFoundException e) {
+            System.out.println("File not found or could not be read");
+        } catch (IOException e) {
+            System.out.println("File could not be written");
+        } catch (IllegalArgumentException e) {
+            System.out.println(e.getMessage());
+        } catch (ArrayIndexOutOfBoundsException e) {
+            System.out.println("Missing arguments\n" + 
+            "Usage: java ConvolutionFilter <inputImageName> <outputImageName> " + 
+            "<box:WxH|gaussian:sigma[,sigmaY]>");
+        }
+    }
+}
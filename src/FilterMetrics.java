@@ -0,0 +1,305 @@
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.util.Locale;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The timings and resource use of smoothing one image: how long decoding,
+ * waiting in a queue, filtering and encoding took, the throughput of the
+ * filter, how much work the Fork/Join workers stole from each other and
+ * the peak heap use.
+ *
+ * Runs are measured with a {@link Recorder} and published to the
+ * listeners registered with {@link Metrics}.
+ *
+ * The peak heap use comes from the JVM-wide peak of the heap memory pools,
+ * which each Recorder resets when it starts. It is therefore only known
+ * for a run that no other run started during; runs that overlap, as in a
+ * server or a batch, report it as unknown rather than a peak that another
+ * run reset part way through.
+ *
+ * @author Jordy Kafwe
+ */
+public final class FilterMetrics {
+
+    /** The number of Recorders started so far, to tell whether runs overlapped. */
+    private static final AtomicLong STARTS = new AtomicLong();
+
+    private final String filterName;
+    private final int width;
+    private final int height;
+    private final int windowWidth;
+    private final long decodeNanos;
+    private final long queueNanos;
+    private final long filterNanos;
+    private final long encodeNanos;
+    private final long totalNanos;
+    private final long steals;
+    private final int parallelism;
+    private final long peakHeapBytes;
+
+    private FilterMetrics(Recorder recorder, long encodeEnd) {
+        this.filterName = recorder.filterName;
+        this.width = recorder.width;
+        this.height = recorder.height;
+        this.windowWidth = recorder.windowWidth;
+        this.decodeNanos = recorder.decodeEnd - recorder.start;
+        this.queueNanos = recorder.queueEnd - recorder.decodeEnd;
+        this.filterNanos = recorder.filterEnd - recorder.queueEnd;
+        this.encodeNanos = encodeEnd - recorder.filterEnd;
+        this.totalNanos = encodeEnd - recorder.start;
+        this.steals = recorder.pool == null ? 0 
+            : recorder.pool.getStealCount() - recorder.startSteals;
+        this.parallelism = recorder.pool == null ? 1 : recorder.pool.getParallelism();
+        // another run started since this one reset the peak, so it is not this run's
+        this.peakHeapBytes = STARTS.get() == recorder.startNumber ? peakHeapUsage() : -1;
+    }
+
+    /**
+     * Returns the name of the filter, e.g. MeanFilterParallel.
+     *
+     * @return the name of the filter
+     */
+    public String getFilterName() {
+        return filterName;
+    }
+
+    /**
+     * Returns the width of the image.
+     *
+     * @return the width of the image in pixels
+     */
+    public int getWidth() {
+        return width;
+    }
+
+    /**
+     * Returns the height of the image.
+     *
+     * @return the height of the image in pixels
+     */
+    public int getHeight() {
+        return height;
+    }
+
+    /**
+     * Returns the width of the window of the filter.
+     *
+     * @return the window width
+     */
+    public int getWindowWidth() {
+        return windowWidth;
+    }
+
+    /**
+     * Returns how long reading and decoding the image took.
+     *
+     * @return the decode time in nanoseconds
+     */
+    public long getDecodeNanos() {
+        return decodeNanos;
+    }
+
+    /**
+     * Returns how long the decoded image waited for its turn to be filtered,
+     * e.g. behind other requests in the server.
+     *
+     * @return the queue time in nanoseconds, 0 if the run never queued
+     */
+    public long getQueueNanos() {
+        return queueNanos;
+    }
+
+    /**
+     * Returns how long filtering the image took, after any wait in a queue.
+     *
+     * @return the filter time in nanoseconds
+     */
+    public long getFilterNanos() {
+        return filterNanos;
+    }
+
+    /**
+     * Returns how long encoding and writing the image took.
+     *
+     * @return the encode time in nanoseconds
+     */
+    public long getEncodeNanos() {
+        return encodeNanos;
+    }
+
+    /**
+     * Returns how long the whole run took, from decoding to encoding.
+     *
+     * @return the total time in nanoseconds
+     */
+    public long getTotalNanos() {
+        return totalNanos;
+    }
+
+    /**
+     * Returns the throughput of the filter alone.
+     *
+     * @return the megapixels filtered per second
+     */
+    public double getMegapixelsPerSecond() {
+        return filterNanos == 0 ? 0 : (double) width * height / 1e6 / (filterNanos / 1e9);
+    }
+
+    /**
+     * Returns the number of tasks the workers of the pool stole from each
+     * other during the run. Other work on the same pool is counted too.
+     *
+     * @return the steal count, or 0 for the serial filters
+     */
+    public long getSteals() {
+        return steals;
+    }
+
+    /**
+     * Returns the number of worker threads of the pool.
+     *
+     * @return the parallelism of the pool, or 1 for the serial filters
+     */
+    public int getParallelism() {
+        return parallelism;
+    }
+
+    /**
+     * Returns the most heap in use at any point of the run, as tracked by
+     * the JVM's memory pools. Other work in the JVM is counted too.
+     *
+     * @return the peak heap use in bytes, or -1 if another run started
+     * during this one
+     */
+    public long getPeakHeapBytes() {
+        return peakHeapBytes;
+    }
+
+    /**
+     * Returns the metrics as a single line of JSON.
+     *
+     * @return the JSON object, without a line separator
+     */
+    public String toJson() {
+        return String.format(Locale.ROOT, 
+            "{\"filter\":\"%s\",\"width\":%d,\"height\":%d,\"windowWidth\":%d,"
+            + "\"decodeMillis\":%.3f,\"queueMillis\":%.3f,\"filterMillis\":%.3f,"
+            + "\"encodeMillis\":%.3f,"
+            + "\"totalMillis\":%.3f,\"megapixelsPerSecond\":%.3f,\"steals\":%d,"
+            + "\"parallelism\":%d,\"peakHeapBytes\":%d}",
+            filterName.replace("\\", "\\\\").replace("\"", "\\\""), width, height, windowWidth, 
+            decodeNanos / 1e6, queueNanos / 1e6, filterNanos / 1e6, encodeNanos / 1e6, 
+            totalNanos / 1e6, 
+            getMegapixelsPerSecond(), steals, parallelism, peakHeapBytes);
+    }
+
+    @Override
+    public String toString() {
+        return toJson();
+    }
+
+    private static void resetPeakHeapUsage() {
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP && pool.isValid()) {
+                pool.resetPeakUsage();
+            }
+        }
+    }
+
+    private static long peakHeapUsage() {
+        long peak = 0;
+
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP && pool.isValid()) {
+                peak += pool.getPeakUsage().getUsed();
+            }
+        }
+        return peak;
+    }
+
+    /**
+     * Measures one run through decode, filter and encode. Call
+     * {@link #decoded}, {@link #filtered} and {@link #encoded} in order as
+     * each stage finishes; they may be called from different threads as
+     * long as the stages are ordered, as in a CompletableFuture chain.
+     */
+    public static final class Recorder {
+
+        private final String filterName;
+        private final int windowWidth;
+        private final ForkJoinPool pool;
+        private final long start;
+        private final long startSteals;
+        private final long startNumber;
+        private int width;
+        private int height;
+        private long decodeEnd;
+        private long queueEnd;
+        private long filterEnd;
+
+        /**
+         * Starts measuring a run, before the image is decoded. Resets the
+         * peak heap use tracked by the JVM, which leaves the peak of any
+         * run still in progress unknown.
+         *
+         * @param filterName the name of the filter, e.g. MeanFilterParallel
+         * @param windowWidth the width of the window of the filter
+         * @param pool the pool the filter runs on, or null for a serial filter
+         */
+        public Recorder(String filterName, int windowWidth, ForkJoinPool pool) {
+            synchronized (STARTS) {
+                resetPeakHeapUsage();
+                this.startNumber = STARTS.incrementAndGet();
+            }
+            this.filterName = filterName;
+            this.windowWidth = windowWidth;
+            this.pool = pool;
+            this.startSteals = pool == null ? 0 : pool.getStealCount();
+            this.start = System.nanoTime();
+        }
+
+        /**
+         * Marks the end of decoding.
+         *
+         * @param width the width of the decoded image
+         * @param height the height of the decoded image
+         */
+        public void decoded(int width, int height) {
+            this.decodeEnd = System.nanoTime();
+            this.queueEnd = decodeEnd;
+            this.width = width;
+            this.height = height;
+        }
+
+        /**
+         * Marks the end of waiting to be filtered, so the wait is not counted
+         * as filter time. Runs that filter straight after decoding need not
+         * call it.
+         */
+        public void queued() {
+            this.queueEnd = System.nanoTime();
+        }
+
+        /**
+         * Marks the end of filtering.
+         */
+        public void filtered() {
+            this.filterEnd = System.nanoTime();
+        }
+
+        /**
+         * Marks the end of encoding and publishes the metrics of the run to
+         * the listeners registered with {@link Metrics}.
+         *
+         * @return the metrics of the run
+         */
+        public FilterMetrics encoded() {
+            FilterMetrics metrics = new FilterMetrics(this, System.nanoTime());
+            Metrics.publish(metrics);
+            return metrics;
+        }
+    }
+}
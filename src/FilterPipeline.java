@@ -0,0 +1,354 @@
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Runs a chain of filters, such as a median followed by a mean, in a
+ * single tiled traversal of the image instead of one full pass per filter.
+ *
+ * Each tile is read together with a halo as wide as the radii of all the
+ * stages put together, then every stage is applied in turn to two small
+ * buffers that take turns as source and destination, so the intermediate
+ * results stay in cache and never exist as a whole image. Each stage
+ * recomputes the part of the halo that the stages after it still need.
+ *
+ * The result is the same as running the filters one after another on the
+ * whole image in memory, with the pixels each stage cannot filter near
+ * the edges left at zero, as the CROP border mode does.
+ *
+ * @author Jordy Kafwe
+ */
+public class FilterPipeline {
+
+    /**
+     * Filters a region of a buffer, in the form of SlidingMean.filter.
+     */
+    private interface RegionFilter {
+        void filter(int[] source, int[] destination, int width, int windowWidth, 
+            int xStart, int yStart, int xEnd, int yEnd);
+    }
+
+    private static final class Stage {
+        private final String name;
+        private final int windowWidth;
+        private final RegionFilter filter;
+
+        private Stage(String name, int windowWidth, RegionFilter filter) {
+            if (windowWidth % 2 == 0 || windowWidth < 3) {
+                throw new IllegalArgumentException(
+                    "Window width must be odd and greater than 2");
+            }
+
+            this.name = name;
+            this.windowWidth = windowWidth;
+            this.filter = filter;
+        }
+    }
+
+    private final List<Stage> stages = new ArrayList<>();
+
+    /**
+     * Adds a mean filter to the end of the pipeline.
+     *
+     * @param windowWidth the width of the window to use for the filter
+     * @param engine the engine to use for computing the mean of each window
+     * @return this pipeline, so stages can be chained
+     * @throws IllegalArgumentException if the window width is not odd or 
+     * if it is less than 3, or if the engine is null
+     */
+    public FilterPipeline mean(int windowWidth, MeanEngine engine) {
+        if (engine == null) {
+            throw new IllegalArgumentException("Mean engine must not be null");
+        }
+
+        // every engine gives the same output, and DIRECT has no region kernel
+        RegionFilter filter = engine == MeanEngine.VECTOR 
+            ? VectorMean::filter : SlidingMean::filter;
+        stages.add(new Stage("mean", windowWidth, filter));
+        return this;
+    }
+
+    /**
+     * Adds a median filter to the end of the pipeline.
+     *
+     * @param windowWidth the width of the window to use for the filter
+     * @param engine the engine to use for finding the median of each window
+     * @return this pipeline, so stages can be chained
+     * @throws IllegalArgumentException if the window width is not odd or 
+     * if it is less than 3, or if the engine is null
+     */
+    public FilterPipeline median(int windowWidth, MedianEngine engine) {
+        if (engine == null) {
+            throw new IllegalArgumentException("Median engine must not be null");
+        }
+
+        // every engine gives the same output, and SORT has no region kernel
+        RegionFilter filter;
+        if (engine == MedianEngine.HISTOGRAM) {
+            filter = HistogramMedian::filter;
+        } else if (engine == MedianEngine.COARSE_FINE) {
+            filter = CoarseFineMedian::filter;
+        } else {
+            filter = SelectionMedian::filter;
+        }
+        stages.add(new Stage("median", windowWidth, filter));
+        return this;
+    }
+
+    /**
+     * Returns the number of pixels each output pixel depends on in every
+     * direction, the sum of the radii of the stages.
+     *
+     * @return the total halo of the pipeline
+     */
+    public int getHalo() {
+        int halo = 0;
+
+        for (Stage stage : stages) {
+            halo += (stage.windowWidth - 1) / 2;
+        }
+        return halo;
+    }
+
+    /**
+     * Runs the pipeline on the specified image on the specified pool.
+     *
+     * @param image the image to filter
+     * @param pool the pool to run the tasks on, which is not shut down
+     * @return the filtered image
+     * @throws IllegalArgumentException if the pipeline has no stages or the pool is null
+     */
+    public BufferedImage apply(BufferedImage image, ForkJoinPool pool) {
+        int width = image.getWidth();
+        int height = image.getHeight();
+        BufferedImage filteredImage = new BufferedImage(width, height, image.getType());
+        int[] destination = RasterAccess.pixelsForWriting(filteredImage);
+        int[] source = RasterAccess.readPixels(image);
+
+        apply(source, width, height, destination, pool);
+
+        RasterAccess.writePixels(filteredImage, destination);
+        return filteredImage;
+    }
+
+    /**
+     * Runs the pipeline on the specified row-major packed RGB pixels on the
+     * specified pool. Every destination pixel is written.
+     *
+     * @param source the row-major packed RGB pixels to filter
+     * @param width the width of the image
+     * @param height the height of the image
+     * @param destination the row-major packed RGB pixels to write the results to
+     * @param pool the pool to run the tasks on, which is not shut down
+     * @throws IllegalArgumentException if the pipeline has no stages or the pool is null
+     */
+    public void apply(int[] source, int width, int height, int[] destination, 
+            ForkJoinPool pool) {
+        if (stages.isEmpty()) {
+            throw new IllegalArgumentException("Pipeline must have at least one stage");
+        }
+        if (pool == null) {
+            throw new IllegalArgumentException("Pool must not be null");
+        }
+
+        // size the tiles for the window of the whole chain
+        Stage[] chain = stages.toArray(new Stage[0]);
+        int tileSize = Tiling.defaultTileSize(width, height, 2 * getHalo() + 1, 
+            pool.getParallelism());
+        pool.invoke(new PipelineTask(chain, getHalo(), source, width, height, destination, 
+            tileSize, 0, 0, width, height));
+    }
+
+    /**
+     * Splits the image into tiles and runs the whole chain on each tile.
+     */
+    private static final class PipelineTask extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        private final Stage[] stages;
+        private final int halo;
+        private final int[] source;
+        private final int width;
+        private final int height;
+        private final int[] destination;
+        private final int tileSize;
+        private final int tileX;
+        private final int tileY;
+        private final int tileWidth;
+        private final int tileHeight;
+
+        private PipelineTask(Stage[] stages, int halo, int[] source, int width, int height, 
+                int[] destination, int tileSize, int tileX, int tileY, int tileWidth, 
+                int tileHeight) {
+            this.stages = stages;
+            this.halo = halo;
+            this.source = source;
+            this.width = width;
+            this.height = height;
+            this.destination = destination;
+            this.tileSize = tileSize;
+            this.tileX = tileX;
+            this.tileY = tileY;
+            this.tileWidth = tileWidth;
+            this.tileHeight = tileHeight;
+        }
+
+        private PipelineTask child(int x, int y, int childWidth, int childHeight) {
+            return new PipelineTask(stages, halo, source, width, height, destination, 
+                tileSize, x, y, childWidth, childHeight);
+        }
+
+        @Override
+        protected void compute() {
+            if (tileWidth <= tileSize && tileHeight <= tileSize) {
+                filterTile();
+                return;
+            }
+
+            PipelineTask first;
+            PipelineTask second;
+
+            // split the tile in half across its longer side
+            if (tileWidth >= tileHeight) {
+                int mid = tileWidth / 2;
+                first = child(tileX, tileY, mid, tileHeight);
+                second = child(tileX + mid, tileY, tileWidth - mid, tileHeight);
+            } else {
+                int mid = tileHeight / 2;
+                first = child(tileX, tileY, tileWidth, mid);
+                second = child(tileX, tileY + mid, tileWidth, tileHeight - mid);
+            }
+
+            first.fork();
+            second.compute();
+            first.join();
+        }
+
+        /**
+         * Runs every stage on the tile and its halo, then writes the tile
+         * to the destination.
+         */
+        private void filterTile() {
+            // the part of the image the tile depends on, as a buffer of its own
+            int left = Math.max(0, tileX - halo);
+            int top = Math.max(0, tileY - halo);
+            int right = Math.min(width, tileX + tileWidth + halo);
+            int bottom = Math.min(height, tileY + tileHeight + halo);
+            int bufferWidth = right - left;
+            int length = bufferWidth * (bottom - top);
+            Scratch scratch = Scratch.get();
+            int[] input = scratch.ints(6, length);
+            int[] output = scratch.ints(7, length);
+
+            for (int y = top; y < bottom; y++) {
+                System.arraycopy(source, y * width + left, input, (y - top) * bufferWidth, 
+                    bufferWidth);
+            }
+
+            // the image coordinates of the buffer that hold valid input for the next stage
+            int validLeft = left;
+            int validTop = top;
+            int validRight = right;
+            int validBottom = bottom;
+
+            for (Stage stage : stages) {
+                int radius = (stage.windowWidth - 1) / 2;
+
+                // pixels the stage cannot filter stay 0, as in a separate pass
+                Arrays.fill(output, 0, length, 0);
+                stage.filter.filter(input, output, bufferWidth, stage.windowWidth, 
+                    validLeft + radius - left, validTop + radius - top, 
+                    validRight - radius - left, validBottom - radius - top);
+
+                // the output is valid up to the image edges, where the zeros are real,
+                // and shrinks by the radius where the buffer ends inside the image
+                validLeft = validLeft == 0 ? 0 : validLeft + radius;
+                validTop = validTop == 0 ? 0 : validTop + radius;
+                validRight = validRight == width ? width : validRight - radius;
+                validBottom = validBottom == height ? height : validBottom - radius;
+
+                int[] filtered = output;
+                output = input;
+                input = filtered;
+            }
+
+            for (int y = tileY; y < tileY + tileHeight; y++) {
+                System.arraycopy(input, (y - top) * bufferWidth + tileX - left, 
+                    destination, y * width + tileX, tileWidth);
+            }
+        }
+    }
+
+    /**
+     * Parses a stage of the form name:windowWidth or name:windowWidth:engine,
+     * e.g. median:5 or mean:3:vector, and adds it to the pipeline.
+     */
+    private void addStage(String stage) {
+        String[] parts = stage.split(":");
+
+        if (parts.length < 2 || parts.length > 3) {
+            throw new IllegalArgumentException(
+                "Stage must be <mean|median>:<windowWidth>[:engine]");
+        }
+
+        int windowWidth = Integer.parseInt(parts[1]);
+        String filterName = parts[0].toLowerCase(Locale.ROOT);
+
+        if (filterName.equals("mean")) {
+            mean(windowWidth, 
+                parts.length > 2 ? MeanEngine.fromName(parts[2]) : MeanEngine.SLIDING);
+        } else if (filterName.equals("median")) {
+            median(windowWidth, 
+                parts.length > 2 ? MedianEngine.fromName(parts[2]) : MedianEngine.SELECT);
+        } else {
+            throw new IllegalArgumentException("Filter must be mean or median");
+        }
+    }
+
+    public static void main(String[] args) {
+        try {
+            File inputFile = new File(args[0]);
+            File outputFile = new File(args[1]);
+            FilterPipeline pipeline = new FilterPipeline();
+
+            for (int i = 2; i < args.length; i++) {
+                pipeline.addStage(args[i]);
+            }
+
+            ForkJoinPool pool = ForkJoinPool.commonPool();
+            FilterMetrics.Recorder recorder = 
+                new FilterMetrics.Recorder("FilterPipeline", 2 * pipeline.getHalo() + 1, pool);
+            BufferedImage inputImage = ImageFiles.read(inputFile);
+            recorder.decoded(inputImage.getWidth(), inputImage.getHeight());
+
+            // time the execution of the whole chain
+            long startTime = System.currentTimeMillis();
+            BufferedImage filteredImage = pipeline.apply(inputImage, pool);
+            long endTime = System.currentTimeMillis();
+            recorder.filtered();
+
+            ImageFiles.write(filteredImage, outputFile);
+            recorder.encoded();
+            System.out.println(endTime - startTime);
+
+        } catch (FileNotFoundException e) {
+            System.out.println("File not found or could not be read");
+        } catch (IOException e) {
+            System.out.println("File could not be written");
+        } catch (IllegalArgumentException e) {
+            System.out.println(e.getMessage());
+        } catch (ArrayIndexOutOfBoundsException e) {
+            System.out.println("Missing arguments\n" + 
+            "Usage: java FilterPipeline <inputImageName> <outputImageName> " + 
+            "<mean|median>:<windowWidth>[:engine]...");
+        }
+    }
+}
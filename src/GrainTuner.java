@@ -0,0 +1,257 @@
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.System.Logger;
+import java.lang.System.Logger.Level;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Properties;
+
+/**
+ * Chooses the tile size of the parallel filters at runtime instead of
+ * relying on a sequential cutoff found offline.
+ *
+ * The tuner times the filter on a square sample tile at the centre of the
+ * image for each candidate size, in the calling thread just as a leaf task
+ * would run it, after running the smallest tile once untimed so the JIT
+ * has compiled the kernel before any timing counts. Small tiles balance
+ * the load better but pay more for their halo and for setting up the
+ * sliding sums or histograms, so the tuner picks the smallest candidate
+ * whose cost per pixel is within a few percent of the cheapest one, then
+ * shrinks it if needed so every worker thread gets several tiles. Larger
+ * candidates are skipped once a tile gets slower per pixel or takes over
+ * MAX_SAMPLE_NANOS, which bounds the calibration for slow filters.
+ *
+ * Each result is kept for the rest of the JVM, keyed by filter, window
+ * width and image size bucket, so later images reuse it without
+ * calibrating again. Only when the smoother.profile system property names
+ * a file is the profile also loaded from and saved to it, so new JVMs on
+ * the same host can reuse it; nothing is written anywhere otherwise.
+ *
+ * Newly calibrated sizes are logged at INFO level with the time the
+ * calibration took, and sizes taken from the profile and those of images
+ * too small to calibrate at DEBUG level, through the GrainTuner system
+ * logger. The filter mains calibrate before they start timing the filter.
+ *
+ * @author Jordy Kafwe
+ */
+final class GrainTuner {
+
+    /**
+     * Filters one tile of the image sequentially for calibration.
+     */
+    interface SampleFilter {
+
+        /**
+         * Filters the specified tile of the image in the calling thread.
+         *
+         * @param x the left column of the tile
+         * @param y the top row of the tile
+         * @param tileWidth the width of the tile
+         * @param tileHeight the height of the tile
+         */
+        void filter(int x, int y, int tileWidth, int tileHeight);
+    }
+
+    /** The tile sides to try, from the smallest worth forking to about L2 size. */
+    private static final int[] CANDIDATES = {32, 64, 128, 256, 512};
+
+    /** How much slower per pixel than the cheapest candidate a smaller tile may be. */
+    private static final double TOLERANCE = 1.1;
+
+    /** The number of times each candidate is timed, keeping the fastest run. */
+    private static final int RUNS = 2;
+
+    /** The longest a sample tile may take before no larger candidate is tried. */
+    private static final long MAX_SAMPLE_NANOS = 20_000_000;
+
+    private static final Logger LOGGER = System.getLogger(GrainTuner.class.getName());
+    private static final Properties PROFILE = new Properties();
+    private static File loadedFile; // the profile file read into PROFILE, if any
+
+    private GrainTuner() {
+    }
+
+    /**
+     * Returns the tile size to use for filtering an image, calibrating it
+     * on a sample of the image the first time this filter, window width and
+     * image size bucket are seen in this JVM or its profile file.
+     *
+     * @param filterName the name of the filter and engine, e.g. MeanFilterParallel-SLIDING
+     * @param width the width of the image
+     * @param height the height of the image
+     * @param windowWidth the width of the window of the filter
+     * @param parallelism the number of worker threads of the pool
+     * @param sample filters a sample tile of the image for calibration
+     * @return the largest tile width and height to filter sequentially
+     */
+    static int tileSize(String filterName, int width, int height, int windowWidth,
+            int parallelism, SampleFilter sample) {
+        // the number of bits needed for the pixel count, so buckets double in size
+        int sizeBucket = 64 - Long.numberOfLeadingZeros((long) width * height);
+        String key = filterName + ".w" + windowWidth + ".b" + sizeBucket;
+        Integer calibrated = lookUp(key);
+
+        Level level = Level.DEBUG;
+
+        long calibrationNanos = 0;
+
+        if (calibrated == null) {
+            long startTime = System.nanoTime();
+            calibrated = calibrate(width, height, windowWidth, sample);
+            calibrationNanos = System.nanoTime() - startTime;
+
+            if (calibrated == null) {
+                // cheap to work out again, and small images come often from servers
+                int tileSize = Tiling.defaultTileSize(width, height, windowWidth, parallelism);
+                LOGGER.log(Level.DEBUG, "Tile size {0} for {1} (image too small to calibrate)",
+                    tileSize, key);
+                return tileSize;
+            }
+            store(key, calibrated);
+            level = Level.INFO;
+        }
+
+        int tileSize = Math.max(Tiling.MIN_TILE_SIZE,
+            Math.min(calibrated, Tiling.balancedTileSize(width, height, parallelism)));
+        LOGGER.log(level, "Tile size {0} for {1} (calibrated {2} in {3} ms)", tileSize, key, 
+            calibrated, calibrationNanos / 1_000_000);
+        return tileSize;
+    }
+
+    /**
+     * Times the candidate tile sizes on the centre of the image and returns
+     * the chosen one, or null if the image is too small to tell them apart.
+     */
+    private static Integer calibrate(int width, int height, int windowWidth, SampleFilter sample) {
+        // only try tiles that fit inside the image, away from its edges
+        int room = Math.min(width, height) - (windowWidth - 1);
+        int fitting = 0;
+
+        while (fitting < CANDIDATES.length && CANDIDATES[fitting] * 2 <= room) {
+            fitting++;
+        }
+
+        if (fitting < 2) {
+            return null;
+        }
+
+        // warm the kernel up on the smallest tile so the first timed runs are not interpreted
+        int smallest = CANDIDATES[0];
+        sample.filter((width - smallest) / 2, (height - smallest) / 2, smallest, smallest);
+
+        double[] costs = new double[CANDIDATES.length];
+        int tried = 0;
+        boolean stop = false;
+
+        while (tried < fitting && !stop) {
+            int size = CANDIDATES[tried];
+            int x = (width - size) / 2;
+            int y = (height - size) / 2;
+            long best = Long.MAX_VALUE;
+
+            for (int run = 0; run < RUNS && best <= MAX_SAMPLE_NANOS; run++) {
+                long startTime = System.nanoTime();
+                sample.filter(x, y, size, size);
+                best = Math.min(best, System.nanoTime() - startTime);
+            }
+
+            costs[tried] = (double) best / ((long) size * size);
+
+            // larger tiles only take longer once a tile is over budget or gets
+            // slower per pixel, e.g. with large median windows
+            stop = best > MAX_SAMPLE_NANOS || tried > 0 && costs[tried] > costs[tried - 1];
+            tried++;
+        }
+
+        if (tried < 2) {
+            // even the smallest tile is slow, so it is well worth forking
+            return smallest;
+        }
+
+        double cheapest = Double.MAX_VALUE;
+        for (int i = 0; i < tried; i++) {
+            cheapest = Math.min(cheapest, costs[i]);
+        }
+
+        int chosen = 0;
+        while (costs[chosen] > cheapest * TOLERANCE) {
+            chosen++;
+        }
+        return CANDIDATES[chosen];
+    }
+
+    /**
+     * Returns the calibrated tile size stored under the key, or null if
+     * there is none, first loading the profile file if one is set and has
+     * not been read yet.
+     */
+    private static synchronized Integer lookUp(String key) {
+        File file = profileFile();
+
+        if (file != null && !file.equals(loadedFile)) {
+            loadedFile = file;
+
+            try (InputStream in = new FileInputStream(file)) {
+                PROFILE.load(in);
+            } catch (IOException e) {
+                // no profile yet, so every key will be calibrated
+            }
+        }
+
+        String value = PROFILE.getProperty(key);
+
+        try {
+            return value == null ? null : Integer.valueOf(value);
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Stores the calibrated tile size under the key, and saves the profile
+     * if a profile file is set. The file is written to a temporary file
+     * first and moved into place, so a concurrent reader or a crash never
+     * sees a partial profile.
+     */
+    private static synchronized void store(String key, int tileSize) {
+        PROFILE.setProperty(key, Integer.toString(tileSize));
+        File file = profileFile();
+
+        if (file == null) {
+            return;
+        }
+
+        try {
+            File directory = file.getAbsoluteFile().getParentFile();
+            directory.mkdirs();
+            File temporary = File.createTempFile(file.getName(), ".tmp", directory);
+
+            try {
+                try (OutputStream out = new FileOutputStream(temporary)) {
+                    PROFILE.store(out, "Calibrated tile sizes for the parallel filters");
+                }
+                Files.move(temporary.toPath(), file.toPath(), StandardCopyOption.ATOMIC_MOVE, 
+                    StandardCopyOption.REPLACE_EXISTING);
+            } finally {
+                temporary.delete();
+            }
+        } catch (IOException e) {
+            // the profile is only a cache, so the size is simply calibrated again next run
+            LOGGER.log(Level.WARNING, "Could not save tile sizes to {0}: {1}", file, 
+                e.getMessage());
+        }
+    }
+
+    /**
+     * Returns the profile file named by the smoother.profile system property,
+     * or null if it is not set.
+     */
+    private static File profileFile() {
+        String path = System.getProperty("smoother.profile");
+        return path == null || path.isBlank() ? null : new File(path);
+    }
+}
@@ -0,0 +1,158 @@
+import java.util.Arrays;
+
+/**
+ * A constant-time median filter based on the method of Perreault and
+ * Hebert. Every column of the window keeps a 256-bin histogram of each
+ * channel. Moving down a row updates each column histogram with one
+ * pixel leaving and one entering, and moving across a row adds the
+ * histogram of the column entering the window to the window histogram
+ * and subtracts the one leaving it. The median is then read off the
+ * window histogram, so the cost per pixel does not depend on the window
+ * width.
+ *
+ * The median is the value at index windowSize / 2 of the sorted window,
+ * exactly as the sorting filters pick it.
+ *
+ * @author Jordy Kafwe
+ */
+final class HistogramMedian {
+
+    private static final int BINS = 256;
+
+    private HistogramMedian() {
+    }
+
+    /**
+     * Applies the median filter to the region from (xStart, yStart) inclusive
+     * to (xEnd, yEnd) exclusive of the source pixels and writes the results
+     * to the destination pixels. The region must lie at least
+     * (windowWidth - 1) / 2 pixels away from the edges of the image.
+     *
+     * @param source the row-major packed RGB pixels to read from
+     * @param destination the row-major packed RGB pixels to write to
+     * @param width the width of the image
+     * @param windowWidth the width of the window to use for the filter
+     * @param xStart the first column to filter
+     * @param yStart the first row to filter
+     * @param xEnd the column after the last column to filter
+     * @param yEnd the row after the last row to filter
+     */
+    static void filter(int[] source, int[] destination, int width, int windowWidth, 
+            int xStart, int yStart, int xEnd, int yEnd) {
+        int neighbouringPixels = (windowWidth - 1) / 2;
+        // the number of values that come before the median in the sorted window
+        int rank = windowWidth * windowWidth / 2;
+
+        if (xStart >= xEnd || yStart >= yEnd) {
+            return;
+        }
+
+        // histograms of each column of the window, offset by left
+        int left = xStart - neighbouringPixels;
+        int columns = xEnd - xStart + windowWidth - 1;
+        Scratch scratch = Scratch.get();
+        int[] redColumns = scratch.ints(0, columns * BINS);
+        int[] greenColumns = scratch.ints(1, columns * BINS);
+        int[] blueColumns = scratch.ints(2, columns * BINS);
+        int[] red = scratch.ints(3, BINS);
+        int[] green = scratch.ints(4, BINS);
+        int[] blue = scratch.ints(5, BINS);
+
+        // count the rows of the first window of every column
+        for (int j = yStart - neighbouringPixels; j <= yStart + neighbouringPixels; j++) {
+            int row = j * width + left;
+
+            for (int c = 0; c < columns; c++) {
+                int pixel = source[row + c];
+                int bins = c * BINS;
+                redColumns[bins + (pixel >> 16 & 0xFF)]++;
+                greenColumns[bins + (pixel >> 8 & 0xFF)]++;
+                blueColumns[bins + (pixel & 0xFF)]++;
+            }
+        }
+
+        for (int y = yStart; y < yEnd; y++) {
+            // slide the column histograms down by one row
+            if (y > yStart) {
+                int leavingRow = (y - neighbouringPixels - 1) * width + left;
+                int enteringRow = (y + neighbouringPixels) * width + left;
+
+                for (int c = 0; c < columns; c++) {
+                    int oldPixel = source[leavingRow + c];
+                    int newPixel = source[enteringRow + c];
+                    int bins = c * BINS;
+                    redColumns[bins + (oldPixel >> 16 & 0xFF)]--;
+                    greenColumns[bins + (oldPixel >> 8 & 0xFF)]--;
+                    blueColumns[bins + (oldPixel & 0xFF)]--;
+                    redColumns[bins + (newPixel >> 16 & 0xFF)]++;
+                    greenColumns[bins + (newPixel >> 8 & 0xFF)]++;
+                    blueColumns[bins + (newPixel & 0xFF)]++;
+                }
+            }
+
+            // combine the columns of the first window in the row
+            Arrays.fill(red, 0);
+            Arrays.fill(green, 0);
+            Arrays.fill(blue, 0);
+
+            for (int c = 0; c < windowWidth; c++) {
+                add(red, redColumns, c * BINS);
+                add(green, greenColumns, c * BINS);
+                add(blue, blueColumns, c * BINS);
+            }
+
+            // slide the window across the row
+            int row = y * width;
+
+            for (int x = xStart; x < xEnd; x++) {
+                if (x > xStart) {
+                    int leaving = (x - xStart - 1) * BINS;
+                    int entering = leaving + windowWidth * BINS;
+                    slide(red, redColumns, entering, leaving);
+                    slide(green, greenColumns, entering, leaving);
+                    slide(blue, blueColumns, entering, leaving);
+                }
+
+                destination[row + x] = median(red, rank) << 16
+                    | median(green, rank) << 8 | median(blue, rank);
+            }
+        }
+    }
+
+    /**
+     * Adds the column histogram starting at the specified offset to the
+     * window histogram.
+     */
+    private static void add(int[] window, int[] columns, int offset) {
+        for (int bin = 0; bin < BINS; bin++) {
+            window[bin] += columns[offset + bin];
+        }
+    }
+
+    /**
+     * Adds the entering column histogram to the window histogram and
+     * subtracts the leaving one.
+     */
+    private static void slide(int[] window, int[] columns, int entering, int leaving) {
+        for (int bin = 0; bin < BINS; bin++) {
+            window[bin] += columns[entering + bin] - columns[leaving + bin];
+        }
+    }
+
+    /**
+     * Returns the value at the specified index of the sorted window
+     * that the histogram counts.
+     */
+    private static int median(int[] window, int rank) {
+        int count = 0;
+
+        for (int bin = 0; bin < BINS; bin++) {
+            count += window[bin];
+
+            if (count > rank) {
+                return bin;
+            }
+        }
+        return BINS - 1;
+    }
+}
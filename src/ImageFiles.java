@@ -0,0 +1,126 @@
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Locale;
+import javax.imageio.ImageIO;
+
+/**
+ * Reads and writes image files in the format given by their extension:
+ * raw RGB images (.rgbp) through RawImage, and every other format
+ * through ImageIO.
+ *
+ * Chaining passes through .rgbp files avoids decoding and re-encoding a
+ * JPEG between them, so only the first input and the last output need a
+ * codec. Running this class converts between formats.
+ *
+ * @author Jordy Kafwe
+ */
+public final class ImageFiles {
+
+    private ImageFiles() {
+    }
+
+    /**
+     * Reads the specified image file.
+     *
+     * @param file the image file to read
+     * @return the image
+     * @throws FileNotFoundException if the file does not exist
+     * @throws IOException if the file cannot be read or its format is not supported
+     */
+    public static BufferedImage read(File file) throws IOException {
+        if (!file.isFile()) {
+            throw new FileNotFoundException(file.toString());
+        }
+
+        if (isRaw(file)) {
+            return RawImage.read(file);
+        }
+
+        BufferedImage image = ImageIO.read(file);
+
+        if (image == null) {
+            throw new IOException("Unsupported image format");
+        }
+        return image;
+    }
+
+    /**
+     * Writes the specified image to a file in the format given by the file's
+     * extension, or as a JPEG if ImageIO has no writer for the extension.
+     *
+     * @param image the image to write
+     * @param file the file to write to
+     * @throws IOException if the file cannot be written
+     */
+    public static void write(BufferedImage image, File file) throws IOException {
+        if (isRaw(file)) {
+            RawImage.write(image, file);
+            return;
+        }
+
+        String extension = extension(file);
+        String format = Arrays.asList(ImageIO.getWriterFileSuffixes()).contains(extension)
+            ? extension : "jpeg";
+
+        if (!ImageIO.write(image, format, file)) {
+            throw new IOException("No writer for " + format + " images");
+        }
+    }
+
+    /**
+     * Returns true if the specified file has the extension of a format
+     * this class can read.
+     *
+     * @param file the file to check
+     * @return true if the file is a raw image or an image ImageIO can read
+     */
+    public static boolean isReadable(File file) {
+        String extension = extension(file);
+
+        return extension.equals(RawImage.EXTENSION)
+            || Arrays.asList(ImageIO.getReaderFileSuffixes()).contains(extension);
+    }
+
+    /**
+     * Returns true if the specified file has the extension of a format
+     * this class can write, rather than falling back to JPEG.
+     *
+     * @param file the file to check
+     * @return true if the file is a raw image or an image ImageIO can write
+     */
+    public static boolean isWritable(File file) {
+        String extension = extension(file);
+
+        return extension.equals(RawImage.EXTENSION)
+            || Arrays.asList(ImageIO.getWriterFileSuffixes()).contains(extension);
+    }
+
+    private static boolean isRaw(File file) {
+        return extension(file).equals(RawImage.EXTENSION);
+    }
+
+    private static String extension(File file) {
+        String name = file.getName().toLowerCase(Locale.ROOT);
+        return name.substring(name.lastIndexOf('.') + 1);
+    }
+
+    public static void main(String[] args) {
+        try {
+            File inputFile = new File(args[0]);
+            File outputFile = new File(args[1]);
+
+            write(read(inputFile), outputFile);
+
+        } catch (FileNotFoundException e) {
+            System.out.println("File not found or could not be read");
+        } catch (IOException e) {
+            System.out.println(e.getMessage());
+        } catch (ArrayIndexOutOfBoundsException e) {
+            System.out.println("Missing arguments\n" +
+            "Usage: java ImageFiles <inputImageName> <outputImageName>");
+        }
+    }
+}
@@ -0,0 +1,134 @@
+import java.awt.image.BufferedImage;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Iterator;
+
+/**
+ * A pool of output images and of the packed pixel arrays used to convert
+ * images to and from the filters, so a long-running process that smooths
+ * images of the same few sizes stops allocating a new image, and for byte
+ * backed images two new arrays, for every one.
+ *
+ * Images returned by the pooled smooth methods belong to the caller until
+ * they are released. A released image must not be used again, since it is
+ * cleared and handed out to a later call. Only images whose pixels the
+ * pool can clear in bulk, the int and byte RGB types, are kept; other
+ * types are simply left to the garbage collector.
+ *
+ * @author Jordy Kafwe
+ */
+public final class ImagePool {
+
+    private final int maxPooled;
+    private final ArrayDeque<BufferedImage> images = new ArrayDeque<>();
+    private final ArrayDeque<int[]> arrays = new ArrayDeque<>();
+
+    /**
+     * Constructs a new ImagePool that keeps up to the specified number of
+     * released images, and as many pixel arrays.
+     *
+     * @param maxPooled the largest number of images kept for reuse
+     * @throws IllegalArgumentException if maxPooled is less than 1
+     */
+    public ImagePool(int maxPooled) {
+        if (maxPooled < 1) {
+            throw new IllegalArgumentException("Pool must keep at least 1 image");
+        }
+
+        this.maxPooled = maxPooled;
+    }
+
+    /**
+     * Returns a black image of the specified size and type, reusing a 
+     * released one when there is one.
+     *
+     * @param width the width of the image
+     * @param height the height of the image
+     * @param type the BufferedImage type of the image
+     * @return the image, with every pixel zero
+     */
+    public BufferedImage acquire(int width, int height, int type) {
+        synchronized (this) {
+            for (Iterator<BufferedImage> it = images.iterator(); it.hasNext(); ) {
+                BufferedImage image = it.next();
+
+                if (image.getWidth() == width && image.getHeight() == height 
+                        && image.getType() == type) {
+                    it.remove();
+                    return image;
+                }
+            }
+        }
+
+        return new BufferedImage(width, height, type);
+    }
+
+    /**
+     * Returns an image to the pool once the caller is done with it.
+     *
+     * @param image the image to release, which must not be used afterwards
+     */
+    public void release(BufferedImage image) {
+        // cleared here rather than on acquire, outside the lock
+        if (image == null || !RasterAccess.clear(image)) {
+            return;
+        }
+
+        synchronized (this) {
+            if (images.size() == maxPooled) {
+                images.removeFirst();
+            }
+            images.addLast(image);
+        }
+    }
+
+    /**
+     * Returns an int array of exactly the specified length with every
+     * element zero, reusing a released one when there is one.
+     *
+     * @param length the length of the array
+     * @return the zeroed array
+     */
+    int[] pixels(int length) {
+        int[] array = null;
+
+        synchronized (this) {
+            for (Iterator<int[]> it = arrays.iterator(); it.hasNext(); ) {
+                int[] pooled = it.next();
+
+                if (pooled.length == length) {
+                    it.remove();
+                    array = pooled;
+                    break;
+                }
+            }
+        }
+
+        if (array == null) {
+            return new int[length];
+        }
+
+        Arrays.fill(array, 0);
+        return array;
+    }
+
+    /**
+     * Returns a pixel array that was used to read or write the specified
+     * image to the pool, unless the array is the backing array of the image.
+     *
+     * @param image the image the pixels were read from or written to
+     * @param pixels the packed RGB pixels
+     */
+    void release(BufferedImage image, int[] pixels) {
+        if (RasterAccess.isBacking(image, pixels)) {
+            return;
+        }
+
+        synchronized (this) {
+            if (arrays.size() == maxPooled) {
+                arrays.removeFirst();
+            }
+            arrays.addLast(pixels);
+        }
+    }
+}
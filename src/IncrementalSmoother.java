@@ -0,0 +1,289 @@
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Smooths a frame that differs from the previous one only in a few
+ * regions by re-filtering just the pixels whose window covers a changed
+ * pixel, and copying the rest from the previous output. Each changed
+ * region is grown by (windowWidth - 1) / 2 pixels on every side, and past
+ * the opposite edge for WRAP, then rounded out to a grid of small cells
+ * so overlapping regions are filtered once.
+ *
+ * The changed regions can be given by the caller or found by comparing the
+ * frame with the previous one. Either way the filtering work is
+ * proportional to the area that changed, and the result is identical to
+ * smoothing the whole frame again.
+ *
+ * @author Jordy Kafwe
+ */
+public final class IncrementalSmoother {
+
+    /** The side of the cells that the regions to re-filter are rounded out to. */
+    private static final int CELL_SIZE = Tiling.MIN_TILE_SIZE;
+
+    private final MeanEngine meanEngine; // null for a median filter
+    private final MedianEngine medianEngine; // null for a mean filter
+    private final int windowWidth;
+    private final BorderMode borderMode;
+    private final ForkJoinPool pool;
+
+    /**
+     * Constructs a new IncrementalSmoother that applies a mean filter.
+     *
+     * @param engine the engine to use for computing the mean of each window
+     * @param windowWidth the width of the window to use for the filter
+     * @param borderMode how to filter the pixels whose window reaches past the edges
+     * @param pool the pool to run the tasks on, which is not shut down
+     * @throws IllegalArgumentException if the window width is not odd or
+     * if it is less than 3, or if the engine, border mode or pool is null
+     */
+    public IncrementalSmoother(MeanEngine engine, int windowWidth, BorderMode borderMode,
+    ForkJoinPool pool) {
+        this(engine, null, windowWidth, borderMode, pool);
+        if (engine == null) {
+            throw new IllegalArgumentException("Mean engine must not be null");
+        }
+    }
+
+    /**
+     * Constructs a new IncrementalSmoother that applies a median filter.
+     *
+     * @param engine the engine to use for finding the median of each window
+     * @param windowWidth the width of the window to use for the filter
+     * @param borderMode how to filter the pixels whose window reaches past the edges
+     * @param pool the pool to run the tasks on, which is not shut down
+     * @throws IllegalArgumentException if the window width is not odd or
+     * if it is less than 3, or if the engine, border mode or pool is null
+     */
+    public IncrementalSmoother(MedianEngine engine, int windowWidth, BorderMode borderMode,
+    ForkJoinPool pool) {
+        this(null, engine, windowWidth, borderMode, pool);
+        if (engine == null) {
+            throw new IllegalArgumentException("Median engine must not be null");
+        }
+    }
+
+    private IncrementalSmoother(MeanEngine meanEngine, MedianEngine medianEngine,
+            int windowWidth, BorderMode borderMode, ForkJoinPool pool) {
+        if (windowWidth % 2 == 0 || windowWidth < 3) {
+            throw new IllegalArgumentException(
+                "Window width must be odd and greater than 2");
+        }
+        if (borderMode == null) {
+            throw new IllegalArgumentException("Border mode must not be null");
+        }
+        if (pool == null) {
+            throw new IllegalArgumentException("Pool must not be null");
+        }
+
+        this.meanEngine = meanEngine;
+        this.medianEngine = medianEngine;
+        this.windowWidth = windowWidth;
+        this.borderMode = borderMode;
+        this.pool = pool;
+    }
+
+    /**
+     * Smooths the specified frame, re-filtering only the pixels affected by
+     * the differences between it and the previous frame.
+     *
+     * @param previousSource the previous frame before smoothing
+     * @param previousOutput the previous frame as smoothed with the same settings
+     * @param source the frame to smooth
+     * @return the smoothed frame
+     * @throws IllegalArgumentException if the images are not all the same size
+     */
+    public BufferedImage smooth(BufferedImage previousSource, BufferedImage previousOutput,
+    BufferedImage source) {
+        checkSize(previousSource, source);
+        return smooth(previousOutput, source, diff(previousSource, source));
+    }
+
+    /**
+     * Smooths the specified frame, re-filtering only the pixels affected by
+     * the specified changed regions of it.
+     *
+     * @param previousOutput the previous frame as smoothed with the same settings
+     * @param source the frame to smooth
+     * @param changed the regions of the frame that differ from the previous frame,
+     * which may overlap and reach past the edges
+     * @return the smoothed frame
+     * @throws IllegalArgumentException if the images are not the same size
+     */
+    public BufferedImage smooth(BufferedImage previousOutput, BufferedImage source,
+    List<Rectangle> changed) {
+        checkSize(previousOutput, source);
+        int width = source.getWidth();
+        int height = source.getHeight();
+
+        // start from the previous output, then re-filter what the changes reach
+        BufferedImage filteredImage = new BufferedImage(width, height, previousOutput.getType());
+        int[] destination = RasterAccess.pixelsForWriting(filteredImage);
+        System.arraycopy(RasterAccess.readPixels(previousOutput), 0, destination, 0,
+            destination.length);
+        int[] pixels = RasterAccess.readPixels(source);
+        List<Rectangle> regions = affectedRegions(changed, width, height, windowWidth,
+            borderMode);
+
+        if (!regions.isEmpty()) {
+            if (meanEngine != null) {
+                MeanFilterParallel.smoothRegions(pixels, width, height, destination,
+                    windowWidth, meanEngine, borderMode, regions, pool);
+            } else {
+                MedianFilterParallel.smoothRegions(pixels, width, height, destination,
+                    windowWidth, medianEngine, borderMode, regions, pool);
+            }
+        }
+
+        RasterAccess.writePixels(filteredImage, destination);
+        return filteredImage;
+    }
+
+    /**
+     * Returns the regions of the current frame that differ from the previous
+     * frame: the bounding box of the changed pixels within each cell of a
+     * grid over the image.
+     *
+     * @param previous the previous frame
+     * @param current the current frame
+     * @return the changed regions, in row order
+     * @throws IllegalArgumentException if the frames are not the same size
+     */
+    public static List<Rectangle> diff(BufferedImage previous, BufferedImage current) {
+        checkSize(previous, current);
+        int width = current.getWidth();
+        int height = current.getHeight();
+        int[] before = RasterAccess.readPixels(previous);
+        int[] after = RasterAccess.readPixels(current);
+        List<Rectangle> changed = new ArrayList<>();
+
+        for (int cellY = 0; cellY < height; cellY += CELL_SIZE) {
+            for (int cellX = 0; cellX < width; cellX += CELL_SIZE) {
+                int cellRight = Math.min(cellX + CELL_SIZE, width);
+                int cellBottom = Math.min(cellY + CELL_SIZE, height);
+                int left = cellRight;
+                int right = cellX;
+                int top = cellBottom;
+                int bottom = cellY;
+
+                for (int y = cellY; y < cellBottom; y++) {
+                    for (int x = cellX; x < cellRight; x++) {
+                        // compare only the colour, as the filters do
+                        if (((before[y * width + x] ^ after[y * width + x]) & 0xFFFFFF) != 0) {
+                            left = Math.min(left, x);
+                            right = Math.max(right, x + 1);
+                            top = Math.min(top, y);
+                            bottom = y + 1;
+                        }
+                    }
+                }
+
+                if (right > left) {
+                    changed.add(new Rectangle(left, top, right - left, bottom - top));
+                }
+            }
+        }
+        return changed;
+    }
+
+    /**
+     * Returns the regions of the smoothed image whose windows cover any of
+     * the changed pixels, as rows of grid cells that do not overlap.
+     *
+     * @param changed the changed regions of the source, which may overlap and
+     * reach past the edges
+     * @param width the width of the image
+     * @param height the height of the image
+     * @param windowWidth the width of the window of the filter
+     * @param borderMode how the filter fills the windows past the edges
+     * @return the regions to re-filter, inside the image
+     */
+    static List<Rectangle> affectedRegions(List<Rectangle> changed, int width, int height,
+            int windowWidth, BorderMode borderMode) {
+        int neighbouringPixels = (windowWidth - 1) / 2;
+        int columns = (width + CELL_SIZE - 1) / CELL_SIZE;
+        int rows = (height + CELL_SIZE - 1) / CELL_SIZE;
+        boolean[] marked = new boolean[columns * rows];
+        boolean wrap = borderMode == BorderMode.WRAP;
+
+        for (Rectangle region : changed) {
+            int left = Math.max(region.x, 0);
+            int top = Math.max(region.y, 0);
+            int right = Math.min(region.x + region.width, width);
+            int bottom = Math.min(region.y + region.height, height);
+
+            if (right <= left || bottom <= top) {
+                continue;
+            }
+
+            // every pixel whose window reaches a changed pixel
+            int[] xSpans = spans(left - neighbouringPixels, right + neighbouringPixels,
+                width, wrap);
+            int[] ySpans = spans(top - neighbouringPixels, bottom + neighbouringPixels,
+                height, wrap);
+
+            for (int j = 0; j < ySpans.length; j += 2) {
+                for (int i = 0; i < xSpans.length; i += 2) {
+                    for (int cy = ySpans[j] / CELL_SIZE; cy <= (ySpans[j + 1] - 1) / CELL_SIZE; cy++) {
+                        for (int cx = xSpans[i] / CELL_SIZE; cx <= (xSpans[i + 1] - 1) / CELL_SIZE; cx++) {
+                            marked[cy * columns + cx] = true;
+                        }
+                    }
+                }
+            }
+        }
+
+        // join the marked cells of each row of the grid into runs
+        List<Rectangle> regions = new ArrayList<>();
+
+        for (int cy = 0; cy < rows; cy++) {
+            int y = cy * CELL_SIZE;
+            int cellHeight = Math.min(CELL_SIZE, height - y);
+
+            for (int cx = 0; cx < columns; cx++) {
+                if (!marked[cy * columns + cx]) {
+                    continue;
+                }
+
+                int start = cx;
+                while (cx + 1 < columns && marked[cy * columns + cx + 1]) {
+                    cx++;
+                }
+
+                int x = start * CELL_SIZE;
+                regions.add(new Rectangle(x, y, Math.min((cx + 1) * CELL_SIZE, width) - x,
+                    cellHeight));
+            }
+        }
+        return regions;
+    }
+
+    /**
+     * Returns the parts of the range from start inclusive to end exclusive
+     * that lie inside a dimension of the specified size, as pairs of start
+     * and end. With wrap the parts past either edge come back in from the
+     * opposite edge, otherwise they are dropped.
+     */
+    private static int[] spans(int start, int end, int size, boolean wrap) {
+        if (!wrap || start >= 0 && end <= size) {
+            return new int[] {Math.max(start, 0), Math.min(end, size)};
+        }
+        if (end - start >= size) {
+            return new int[] {0, size};
+        }
+
+        // the range crosses one edge, so it wraps into two parts
+        int from = Math.floorMod(start, size);
+        int to = Math.floorMod(end, size);
+        return new int[] {0, to == 0 ? size : to, from, size};
+    }
+
+    private static void checkSize(BufferedImage first, BufferedImage second) {
+        if (first.getWidth() != second.getWidth() || first.getHeight() != second.getHeight()) {
+            throw new IllegalArgumentException("Frames must all be the same size");
+        }
+    }
+}
@@ -0,0 +1,416 @@
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * The summed-area tables of the red, green and blue channels of an image,
+ * from which the mean filter at any window width costs four lookups per
+ * channel and pixel. Sweeping several window widths over the same image
+ * pays for one table build plus a cheap pass per width, instead of a full
+ * filter per width.
+ *
+ * Entry (x, y) of a table holds the sum of the channel over every pixel
+ * above and to the left of (x, y), exclusive, so the table is one row and
+ * one column larger than the image. The sums are 64-bit, so any image that
+ * fits in an array is summed exactly, and the means truncate exactly as
+ * the mean filter does. The three tables are interleaved in one array, so
+ * the four corners of a window touch four cache lines rather than twelve.
+ * Both the table build and the mean passes run on a
+ * Fork/Join pool: rows are summed across in parallel bands, then the
+ * running sums down the columns in parallel strips.
+ *
+ * The table keeps the source pixels for the border modes other than CROP,
+ * so the source image must not be modified while the table is in use.
+ *
+ * @author Jordy Kafwe
+ */
+public final class IntegralImage {
+
+    /** The fewest rows or columns a task of a pass works on without splitting. */
+    private static final int MIN_GRAIN = 16;
+
+    private final int[] source;
+    private final int width;
+    private final int height;
+    private final int type; // the image type of the source, for the filtered images
+    private final long[] sums; // the red, green and blue sums of each entry in turn
+
+    private IntegralImage(int[] source, int width, int height, int type) {
+        this.source = source;
+        this.width = width;
+        this.height = height;
+        this.type = type;
+
+        this.sums = new long[3 * (width + 1) * (height + 1)];
+    }
+
+    /**
+     * Builds the summed-area tables of the specified image on the specified pool.
+     *
+     * @param image the image to sum
+     * @param pool the pool to run the tasks on, which is not shut down
+     * @return the summed-area tables of the image
+     * @throws IllegalArgumentException if pool is null
+     */
+    public static IntegralImage build(BufferedImage image, ForkJoinPool pool) {
+        return build(RasterAccess.readPixels(image), image.getWidth(), image.getHeight(), 
+            image.getType(), pool);
+    }
+
+    /**
+     * Builds the summed-area tables of the specified row-major packed RGB 
+     * pixels on the specified pool.
+     *
+     * @param source the row-major packed RGB pixels to sum
+     * @param width the width of the image
+     * @param height the height of the image
+     * @param pool the pool to run the tasks on, which is not shut down
+     * @return the summed-area tables of the pixels
+     * @throws IllegalArgumentException if pool is null
+     */
+    public static IntegralImage build(int[] source, int width, int height, ForkJoinPool pool) {
+        return build(source, width, height, BufferedImage.TYPE_INT_RGB, pool);
+    }
+
+    private static IntegralImage build(int[] source, int width, int height, int type, 
+            ForkJoinPool pool) {
+        if (pool == null) {
+            throw new IllegalArgumentException("Pool must not be null");
+        }
+
+        IntegralImage integral = new IntegralImage(source, width, height, type);
+        int parallelism = pool.getParallelism();
+
+        pool.invoke(integral.new Pass(Pass.ROWS, 0, height, grain(height, parallelism)));
+        // column 0 of the tables stays zero
+        pool.invoke(integral.new Pass(Pass.COLUMNS, 1, width + 1, grain(width, parallelism)));
+        return integral;
+    }
+
+    /**
+     * Returns the width of the image.
+     *
+     * @return the width of the image
+     */
+    public int getWidth() {
+        return width;
+    }
+
+    /**
+     * Returns the height of the image.
+     *
+     * @return the height of the image
+     */
+    public int getHeight() {
+        return height;
+    }
+
+    /**
+     * Returns the image smoothed by a mean filter with the specified window 
+     * width, leaving the pixels whose window reaches past the edges at zero.
+     *
+     * @param windowWidth the width of the window to use for the filter
+     * @param pool the pool to run the tasks on, which is not shut down
+     * @return the smoothed image, of the same type as the source image
+     * @throws IllegalArgumentException if the window width is not odd or 
+     * if it is less than 3, or if pool is null
+     */
+    public BufferedImage mean(int windowWidth, ForkJoinPool pool) {
+        return mean(windowWidth, BorderMode.CROP, pool);
+    }
+
+    /**
+     * Returns the image smoothed by a mean filter with the specified window 
+     * width, giving the same pixels as the mean filters.
+     *
+     * @param windowWidth the width of the window to use for the filter
+     * @param borderMode how to filter the pixels whose window reaches past the edges
+     * @param pool the pool to run the tasks on, which is not shut down
+     * @return the smoothed image, of the same type as the source image
+     * @throws IllegalArgumentException if the window width is not odd or 
+     * if it is less than 3, or if the border mode or pool is null
+     */
+    public BufferedImage mean(int windowWidth, BorderMode borderMode, ForkJoinPool pool) {
+        BufferedImage filteredImage = new BufferedImage(width, height, type);
+        int[] destination = RasterAccess.pixelsForWriting(filteredImage);
+
+        mean(destination, windowWidth, borderMode, pool);
+
+        RasterAccess.writePixels(filteredImage, destination);
+        return filteredImage;
+    }
+
+    /**
+     * Writes the mean filter of the image with the specified window width 
+     * to the specified row-major packed RGB pixels. Pixels closer than 
+     * (windowWidth - 1) / 2 to the edges are filtered as the border mode 
+     * says, and left as they are in the destination for CROP.
+     *
+     * @param destination the row-major packed RGB pixels to write the results to
+     * @param windowWidth the width of the window to use for the filter
+     * @param borderMode how to filter the pixels whose window reaches past the edges
+     * @param pool the pool to run the tasks on, which is not shut down
+     * @throws IllegalArgumentException if the window width is not odd or 
+     * if it is less than 3, or if the border mode or pool is null
+     */
+    public void mean(int[] destination, int windowWidth, BorderMode borderMode, 
+            ForkJoinPool pool) {
+        if (windowWidth % 2 == 0 || windowWidth < 3) {
+            throw new IllegalArgumentException(
+                "Window width must be odd and greater than 2");
+        }
+        if (borderMode == null) {
+            throw new IllegalArgumentException("Border mode must not be null");
+        }
+        if (pool == null) {
+            throw new IllegalArgumentException("Pool must not be null");
+        }
+
+        pool.invoke(new MeanPass(destination, windowWidth, borderMode, 0, height, 
+            grain(height, pool.getParallelism())));
+    }
+
+    /**
+     * Returns the number of rows or columns a task should take on so that 
+     * every worker thread gets several tasks.
+     */
+    private static int grain(int count, int parallelism) {
+        return Math.max(MIN_GRAIN, count / (4 * parallelism));
+    }
+
+    /**
+     * Sums the channels across the rows of a band of the image, or down the 
+     * columns of a strip of the tables, splitting the range in half until it 
+     * is no larger than the grain.
+     */
+    private final class Pass extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        static final int ROWS = 0;
+        static final int COLUMNS = 1;
+
+        private final int direction;
+        private final int start;
+        private final int end;
+        private final int grain;
+
+        Pass(int direction, int start, int end, int grain) {
+            this.direction = direction;
+            this.start = start;
+            this.end = end;
+            this.grain = grain;
+        }
+
+        @Override
+        protected void compute() {
+            if (end - start <= grain) {
+                if (direction == ROWS) {
+                    sumRows();
+                } else {
+                    sumColumns();
+                }
+                return;
+            }
+
+            int mid = (start + end) >>> 1;
+            Pass first = new Pass(direction, start, mid, grain);
+            first.fork();
+            new Pass(direction, mid, end, grain).compute();
+            // wait for the first half to finish
+            first.join();
+        }
+
+        /**
+         * Writes the running sums across each image row into the table row below it.
+         */
+        private void sumRows() {
+            int stride = 3 * (width + 1);
+
+            for (int y = start; y < end; y++) {
+                int row = y * width;
+                int entry = (y + 1) * stride + 3;
+                long redSum = 0;
+                long greenSum = 0;
+                long blueSum = 0;
+
+                for (int x = 0; x < width; x++, entry += 3) {
+                    int pixel = source[row + x];
+                    redSum += pixel >> 16 & 0xFF;
+                    greenSum += pixel >> 8 & 0xFF;
+                    blueSum += pixel & 0xFF;
+                    sums[entry] = redSum;
+                    sums[entry + 1] = greenSum;
+                    sums[entry + 2] = blueSum;
+                }
+            }
+        }
+
+        /**
+         * Adds each table row to the row below it within the strip of columns,
+         * a whole strip of a row at a time.
+         */
+        private void sumColumns() {
+            int stride = 3 * (width + 1);
+
+            for (int y = 2; y <= height; y++) {
+                int above = (y - 1) * stride;
+                int row = y * stride;
+
+                for (int c = 3 * start; c < 3 * end; c++) {
+                    sums[row + c] += sums[above + c];
+                }
+            }
+        }
+    }
+
+    /**
+     * Writes the mean filter of a band of rows, splitting the band in half 
+     * until it is no larger than the grain.
+     */
+    private final class MeanPass extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        private final int[] destination;
+        private final int windowWidth;
+        private final BorderMode borderMode;
+        private final int start;
+        private final int end;
+        private final int grain;
+
+        MeanPass(int[] destination, int windowWidth, BorderMode borderMode, 
+                int start, int end, int grain) {
+            this.destination = destination;
+            this.windowWidth = windowWidth;
+            this.borderMode = borderMode;
+            this.start = start;
+            this.end = end;
+            this.grain = grain;
+        }
+
+        @Override
+        protected void compute() {
+            if (end - start <= grain) {
+                filterRows();
+                return;
+            }
+
+            int mid = (start + end) >>> 1;
+            MeanPass first = new MeanPass(destination, windowWidth, borderMode, start, mid, grain);
+            first.fork();
+            new MeanPass(destination, windowWidth, borderMode, mid, end, grain).compute();
+            // wait for the first half to finish
+            first.join();
+        }
+
+        /**
+         * Takes the sum of each window in the band from four table entries 
+         * per channel, then fills in the border.
+         */
+        private void filterRows() {
+            int neighbouringPixels = (windowWidth - 1) / 2;
+            long windowSize = (long) windowWidth * windowWidth;
+            int stride = 3 * (width + 1);
+
+            // dividing by the window size as a multiply and shift, which is exact for 
+            // every sum up to 255 * windowSize (Granlund and Montgomery): with N bits 
+            // for the largest sum and l = ceil(log2(windowSize)), the multiplier is 
+            // ceil(2^(N + l) / windowSize), below 2^(N + 1). As l <= N - 8 the product 
+            // stays below 2^(2N), which fits a long only while N <= 31, that is while 
+            // 255 * windowSize < 2^31 (windows up to 2901 wide); wider windows divide
+            int sumBits = 64 - Long.numberOfLeadingZeros(255L * windowSize);
+            int shift = sumBits + 64 - Long.numberOfLeadingZeros(windowSize - 1L);
+            long multiplier = sumBits <= 31 ? ((1L << shift) + windowSize - 1) / windowSize : 0;
+
+            // keep in bounds of image
+            int yStart = Math.max(start, neighbouringPixels);
+            int yEnd = Math.min(end, height - neighbouringPixels);
+            int xEnd = width - neighbouringPixels;
+
+            for (int y = yStart; y < yEnd; y++) {
+                // the table rows above and below the windows of the row
+                int top = (y - neighbouringPixels) * stride - 3 * neighbouringPixels;
+                int bottom = top + windowWidth * stride;
+                int row = y * width;
+
+                for (int x = neighbouringPixels; x < xEnd; x++) {
+                    int left = 3 * x;
+                    int right = left + 3 * windowWidth;
+                    long redSum = sums[bottom + right] - sums[top + right] 
+                        - sums[bottom + left] + sums[top + left];
+                    long greenSum = sums[bottom + right + 1] - sums[top + right + 1] 
+                        - sums[bottom + left + 1] + sums[top + left + 1];
+                    long blueSum = sums[bottom + right + 2] - sums[top + right + 2] 
+                        - sums[bottom + left + 2] + sums[top + left + 2];
+
+                    destination[row + x] = 
+                        (int) divide(redSum, multiplier, shift, windowSize) << 16
+                        | (int) divide(greenSum, multiplier, shift, windowSize) << 8 
+                        | (int) divide(blueSum, multiplier, shift, windowSize);
+                }
+            }
+
+            Borders.filter(source, destination, width, height, windowWidth, borderMode, 
+                Borders.MEAN, 0, start, width, end - start);
+        }
+    }
+
+    /**
+     * Returns the sum divided by the divisor, by the multiply and shift when
+     * there is a multiplier and by dividing when there is not.
+     */
+    private static long divide(long sum, long multiplier, int shift, long divisor) {
+        return multiplier != 0 ? sum * multiplier >>> shift : sum / divisor;
+    }
+
+    public static void main(String[] args) {
+        try {
+            File inputFile = new File(args[0]);
+            String outputName = args[1];
+            int[] windowWidths = new int[args.length - 2];
+            for (int i = 0; i < windowWidths.length; i++) {
+                windowWidths[i] = Integer.parseInt(args[i + 2]);
+            }
+            if (windowWidths.length == 0) {
+                throw new ArrayIndexOutOfBoundsException();
+            }
+
+            ForkJoinPool pool = ForkJoinPool.commonPool();
+            BufferedImage inputImage = ImageFiles.read(inputFile);
+
+            // time building the tables, then each window width
+            long startTime = System.currentTimeMillis();
+            IntegralImage integral = build(inputImage, pool);
+            long builtTime = System.currentTimeMillis();
+            System.out.println("build " + (builtTime - startTime));
+
+            int dot = outputName.lastIndexOf('.');
+            String base = dot > 0 ? outputName.substring(0, dot) : outputName;
+            String suffix = dot > 0 ? outputName.substring(dot) : ".jpg";
+
+            for (int windowWidth : windowWidths) {
+                long filterStart = System.currentTimeMillis();
+                BufferedImage filteredImage = integral.mean(windowWidth, pool);
+                long filterEnd = System.currentTimeMillis();
+                System.out.println("w" + windowWidth + " " + (filterEnd - filterStart));
+
+                ImageFiles.write(filteredImage, new File(base + "-w" + windowWidth + suffix));
+            }
+
+        } catch (FileNotFoundException e) {
+            System.out.println("File not found or could not be read");
+        } catch (IOException e) {
+            System.out.println("File could not be written");
+        } catch (IllegalArgumentException e) {
+            System.out.println(e.getMessage());
+        } catch (ArrayIndexOutOfBoundsException e) {
+            System.out.println("Missing arguments\n" + 
+            "Usage: java IntegralImage <inputImageName> <outputImageName> " + 
+            "<windowWidth> [windowWidth...]");
+        }
+    }
+}
@@ -0,0 +1,108 @@
+import java.lang.management.ManagementFactory;
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+/**
+ * Publishes the metrics of the latest run, and totals over all runs, as
+ * the MXBean noisyimagesmoother:type=Metrics for JMX consoles and
+ * exporters to poll.
+ *
+ * @author Jordy Kafwe
+ */
+public class JmxMetrics implements MetricsListener, SmootherMetricsMXBean {
+
+    /** The name the MXBean is registered under. */
+    public static final String OBJECT_NAME = "noisyimagesmoother:type=Metrics";
+
+    private long runs;
+    private double totalMegapixels;
+    private double totalFilterMillis;
+    private FilterMetrics last;
+
+    /**
+     * Creates the listener and registers it with the platform MBean server.
+     * Registering again returns a new listener that is not visible over JMX.
+     *
+     * @return the registered listener
+     */
+    public static JmxMetrics register() {
+        JmxMetrics metrics = new JmxMetrics();
+
+        try {
+            ManagementFactory.getPlatformMBeanServer()
+                .registerMBean(metrics, new ObjectName(OBJECT_NAME));
+        } catch (JMException e) {
+            System.getLogger(JmxMetrics.class.getName()).log(System.Logger.Level.WARNING, 
+                "Could not register " + OBJECT_NAME, e);
+        }
+        return metrics;
+    }
+
+    @Override
+    public synchronized void completed(FilterMetrics metrics) {
+        runs++;
+        totalMegapixels += (double) metrics.getWidth() * metrics.getHeight() / 1e6;
+        totalFilterMillis += metrics.getFilterNanos() / 1e6;
+        last = metrics;
+    }
+
+    @Override
+    public synchronized long getRuns() {
+        return runs;
+    }
+
+    @Override
+    public synchronized double getTotalMegapixels() {
+        return totalMegapixels;
+    }
+
+    @Override
+    public synchronized double getTotalFilterMillis() {
+        return totalFilterMillis;
+    }
+
+    @Override
+    public synchronized String getLastFilterName() {
+        return last == null ? "" : last.getFilterName();
+    }
+
+    @Override
+    public synchronized double getLastDecodeMillis() {
+        return last == null ? 0 : last.getDecodeNanos() / 1e6;
+    }
+
+    @Override
+    public synchronized double getLastFilterMillis() {
+        return last == null ? 0 : last.getFilterNanos() / 1e6;
+    }
+
+    @Override
+    public synchronized double getLastEncodeMillis() {
+        return last == null ? 0 : last.getEncodeNanos() / 1e6;
+    }
+
+    @Override
+    public synchronized double getLastTotalMillis() {
+        return last == null ? 0 : last.getTotalNanos() / 1e6;
+    }
+
+    @Override
+    public synchronized double getLastMegapixelsPerSecond() {
+        return last == null ? 0 : last.getMegapixelsPerSecond();
+    }
+
+    @Override
+    public synchronized long getLastSteals() {
+        return last == null ? 0 : last.getSteals();
+    }
+
+    @Override
+    public synchronized int getLastParallelism() {
+        return last == null ? 0 : last.getParallelism();
+    }
+
+    @Override
+    public synchronized long getLastPeakHeapBytes() {
+        return last == null ? 0 : last.getPeakHeapBytes();
+    }
+}
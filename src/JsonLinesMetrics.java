@@ -0,0 +1,34 @@
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Appends the metrics of every run to a file as one line of JSON each,
+ * e.g. for a log shipper to pick up.
+ *
+ * @author Jordy Kafwe
+ */
+public class JsonLinesMetrics implements MetricsListener {
+
+    private final PrintWriter out;
+
+    /**
+     * Opens the specified file for appending, creating it if needed.
+     *
+     * @param file the path of the file to append to
+     * @throws IOException if the file cannot be opened
+     */
+    public JsonLinesMetrics(String file) throws IOException {
+        this.out = new PrintWriter(new OutputStreamWriter(
+            new FileOutputStream(file, true), StandardCharsets.UTF_8));
+    }
+
+    @Override
+    public synchronized void completed(FilterMetrics metrics) {
+        // flush every line, as the JVM may exit straight after the run
+        out.println(metrics.toJson());
+        out.flush();
+    }
+}
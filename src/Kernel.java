@@ -0,0 +1,237 @@
+import java.util.Arrays;
+
+/**
+ * The weights of a convolution, with an odd width and height that need
+ * not be equal. A kernel made of a horizontal and a vertical 1D kernel is
+ * separable, and is applied as two 1D passes instead of one 2D pass.
+ *
+ * Box kernels are the mean filter with a rectangular window. They are
+ * applied with the running sums of the mean filter and give exactly its
+ * output, which truncates each mean, while other kernels round each
+ * weighted sum to the nearest value and clamp it to 0 to 255.
+ *
+ * @author Jordy Kafwe
+ */
+public final class Kernel {
+
+    private final int width;
+    private final int height;
+    private final float[] weights; // row-major, width * height
+    private final float[] horizontal; // null unless separable
+    private final float[] vertical; // null unless separable
+    private final boolean box;
+    private final String description; // null unless box or Gaussian
+
+    private Kernel(int width, int height, float[] weights, float[] horizontal, 
+            float[] vertical, boolean box, String description) {
+        this.width = width;
+        this.height = height;
+        this.weights = weights;
+        this.horizontal = horizontal;
+        this.vertical = vertical;
+        this.box = box;
+        this.description = description;
+    }
+
+    /**
+     * Returns a box kernel, which takes the mean of a rectangular window.
+     *
+     * @param width the odd width of the window
+     * @param height the odd height of the window
+     * @return the box kernel
+     * @throws IllegalArgumentException if the width or height is not odd and positive
+     */
+    public static Kernel box(int width, int height) {
+        checkSize(width, height);
+        float[] row = new float[width];
+        float[] column = new float[height];
+        Arrays.fill(row, 1.0f / width);
+        Arrays.fill(column, 1.0f / height);
+        return new Kernel(width, height, outer(row, column), row, column, true, 
+            "box:" + width + "x" + height);
+    }
+
+    /**
+     * Returns a normalised Gaussian kernel with the same standard deviation
+     * in both directions, reaching out three standard deviations.
+     *
+     * @param sigma the standard deviation in pixels
+     * @return the Gaussian kernel
+     * @throws IllegalArgumentException if sigma is not positive
+     */
+    public static Kernel gaussian(double sigma) {
+        return gaussian(sigma, sigma);
+    }
+
+    /**
+     * Returns a normalised Gaussian kernel with separate horizontal and
+     * vertical standard deviations, reaching out three standard deviations
+     * in each direction.
+     *
+     * @param sigmaX the horizontal standard deviation in pixels
+     * @param sigmaY the vertical standard deviation in pixels
+     * @return the Gaussian kernel
+     * @throws IllegalArgumentException if either sigma is not positive
+     */
+    public static Kernel gaussian(double sigmaX, double sigmaY) {
+        float[] row = gaussian1D(sigmaX);
+        float[] column = gaussian1D(sigmaY);
+        return new Kernel(row.length, column.length, outer(row, column), row, column, false, 
+            "gaussian:" + sigmaX + "," + sigmaY);
+    }
+
+    /**
+     * Returns the separable kernel whose weights are the products of the
+     * horizontal and vertical weights. The weights are used as given.
+     *
+     * @param horizontal the weights across a row, of odd length
+     * @param vertical the weights down a column, of odd length
+     * @return the separable kernel
+     * @throws IllegalArgumentException if either length is not odd
+     */
+    public static Kernel separable(double[] horizontal, double[] vertical) {
+        checkSize(horizontal.length, vertical.length);
+        float[] row = toFloats(horizontal);
+        float[] column = toFloats(vertical);
+        return new Kernel(row.length, column.length, outer(row, column), row, column, false, null);
+    }
+
+    /**
+     * Returns a kernel with arbitrary weights. The weights are used as given.
+     *
+     * @param width the odd width of the kernel
+     * @param height the odd height of the kernel
+     * @param weights the row-major weights, width * height of them
+     * @return the kernel
+     * @throws IllegalArgumentException if the width or height is not odd and 
+     * positive, or the number of weights does not match
+     */
+    public static Kernel of(int width, int height, double... weights) {
+        checkSize(width, height);
+        if (weights.length != width * height) {
+            throw new IllegalArgumentException("Kernel must have width * height weights");
+        }
+
+        return new Kernel(width, height, toFloats(weights), null, null, false, null);
+    }
+
+    /**
+     * Returns the width of the kernel.
+     *
+     * @return the odd width of the kernel
+     */
+    public int getWidth() {
+        return width;
+    }
+
+    /**
+     * Returns the height of the kernel.
+     *
+     * @return the odd height of the kernel
+     */
+    public int getHeight() {
+        return height;
+    }
+
+    /**
+     * Returns the weight at the specified column and row of the kernel.
+     *
+     * @param x the column, from 0 to width - 1
+     * @param y the row, from 0 to height - 1
+     * @return the weight
+     */
+    public double getWeight(int x, int y) {
+        return weights[y * width + x];
+    }
+
+    /**
+     * Returns true if the kernel is applied as two 1D passes.
+     *
+     * @return true if the kernel is separable
+     */
+    public boolean isSeparable() {
+        return horizontal != null;
+    }
+
+    /**
+     * Returns true if the kernel is a box, applied as the mean filter.
+     *
+     * @return true if the kernel is a box
+     */
+    public boolean isBox() {
+        return box;
+    }
+
+    /**
+     * Returns a description of the kernel that is the same for every way of
+     * describing it: box:WxH for a box, gaussian:sigmaX,sigmaY for a Gaussian,
+     * so gaussian:2 and gaussian:2.0,2 give gaussian:2.0,2.0. Other kernels
+     * are described by their size and a hash of their weights.
+     *
+     * @return the description of the kernel
+     */
+    @Override
+    public String toString() {
+        if (description != null) {
+            return description;
+        }
+        return "kernel:" + width + "x" + height + "-" + Integer.toHexString(Arrays.hashCode(weights));
+    }
+
+    float[] weights() {
+        return weights;
+    }
+
+    float[] horizontal() {
+        return horizontal;
+    }
+
+    float[] vertical() {
+        return vertical;
+    }
+
+    private static void checkSize(int width, int height) {
+        if (width % 2 == 0 || width < 1 || height % 2 == 0 || height < 1) {
+            throw new IllegalArgumentException("Kernel width and height must be odd and positive");
+        }
+    }
+
+    private static float[] gaussian1D(double sigma) {
+        if (!(sigma > 0)) {
+            throw new IllegalArgumentException("Sigma must be positive");
+        }
+
+        int radius = (int) Math.ceil(3 * sigma);
+        double[] weights = new double[2 * radius + 1];
+        double sum = 0;
+
+        for (int i = -radius; i <= radius; i++) {
+            weights[i + radius] = Math.exp(-(i * i) / (2 * sigma * sigma));
+            sum += weights[i + radius];
+        }
+        for (int i = 0; i < weights.length; i++) {
+            weights[i] /= sum;
+        }
+        return toFloats(weights);
+    }
+
+    private static float[] outer(float[] row, float[] column) {
+        float[] weights = new float[row.length * column.length];
+
+        for (int y = 0; y < column.length; y++) {
+            for (int x = 0; x < row.length; x++) {
+                weights[y * row.length + x] = row[x] * column[y];
+            }
+        }
+        return weights;
+    }
+
+    private static float[] toFloats(double[] values) {
+        float[] floats = new float[values.length];
+
+        for (int i = 0; i < values.length; i++) {
+            floats[i] = (float) values[i];
+        }
+        return floats;
+    }
+}
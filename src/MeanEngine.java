@@ -0,0 +1,45 @@
+/**
+ * The strategies available to the mean filters for computing the mean
+ * of each window. Every engine produces exactly the same output.
+ *
+ * @author Jordy Kafwe
+ */
+public enum MeanEngine {
+
+    /**
+     * Re-sums every pixel in the window for each output pixel,
+     * so the cost per pixel grows with the square of the window width.
+     */
+    DIRECT,
+
+    /**
+     * Keeps running column and row sums while sliding the window,
+     * so the cost per pixel stays constant whatever the window width.
+     */
+    SLIDING,
+
+    /**
+     * Keeps the same running sums as SLIDING but updates them and divides
+     * them many pixels per instruction with the Vector API. Runs as
+     * SLIDING when the JVM is started without 
+     * --add-modules jdk.incubator.vector.
+     */
+    VECTOR;
+
+    /**
+     * Returns the engine with the specified name, ignoring case.
+     *
+     * @param name the name of the engine
+     * @return the matching engine
+     * @throws IllegalArgumentException if no engine has the specified name
+     */
+    public static MeanEngine fromName(String name) {
+        for (MeanEngine engine : values()) {
+            if (engine.name().equalsIgnoreCase(name)) {
+                return engine;
+            }
+        }
+
+        throw new IllegalArgumentException("Unknown mean engine: " + name);
+    }
+}
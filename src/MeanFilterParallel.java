@@ -1,10 +1,13 @@
+import java.awt.Rectangle;
 import java.awt.image.BufferedImage;
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
 import java.util.concurrent.RecursiveAction;
-import javax.imageio.ImageIO;
 
 /**
  * A parallel mean filter implementation to smooth 2D RGB images.
@@ -13,27 +16,99 @@ import javax.imageio.ImageIO;
  */
 public class MeanFilterParallel extends RecursiveAction {
 
-    private BufferedImage source;
-    private int start;
-    private int length;
-    private  BufferedImage destination;
-    private static int WINDOW_WIDTH; // the width of the window to use for the filter
-    private static int SEQUENTIAL_CUTOFF = 200; // cutoff for sequential processing
+    private final int[] source;
+    private final int width;
+    private final int height;
+    private final int[] destination;
+    private final int windowWidth; // the width of the window to use for the filter
+    private final MeanEngine engine; // how each window mean is computed
+    private final BorderMode borderMode; // how pixels near the edges are filtered
+    private final int tileSize; // tile side for sequential processing
+    private final int tileX;
+    private final int tileY;
+    private final int tileWidth;
+    private final int tileHeight;
     
     /**
-     * Constructs a new MeanFilterParallel object with the specified window width.
+     * Constructs a new MeanFilterParallel task that filters the whole image, leaving 
+     * the pixels whose window reaches past the edges as they are.
      * 
-     * @param source the source image to apply the filter to
-     * @param start the start index of the region to process
-     * @param length the length (width) of the region to process
-     * @param destination the destination image to write the results to
+     * @param source the row-major packed RGB pixels to apply the filter to
+     * @param width the width of the image
+     * @param height the height of the image
+     * @param destination the row-major packed RGB pixels to write the results to
      * @param windowWidth the width of the window to use for the filter
+     * @param engine the engine to use for computing the mean of each window
+     * @param tileSize the largest tile width and height to process sequentially
+     * @throws IllegalArgumentException if the window width is not odd or 
+     * if it is less than 3, or if the engine is null
+     */
+    public MeanFilterParallel(int[] source, int width, int height, int[] destination, 
+    int windowWidth, MeanEngine engine, int tileSize) {
+        this(source, width, height, destination, windowWidth, engine, BorderMode.CROP, tileSize);
+    }
+
+    /**
+     * Constructs a new MeanFilterParallel task that filters the whole image.
+     * 
+     * @param source the row-major packed RGB pixels to apply the filter to
+     * @param width the width of the image
+     * @param height the height of the image
+     * @param destination the row-major packed RGB pixels to write the results to
+     * @param windowWidth the width of the window to use for the filter
+     * @param engine the engine to use for computing the mean of each window
+     * @param borderMode how to filter the pixels whose window reaches past the edges
+     * @param tileSize the largest tile width and height to process sequentially
+     * @throws IllegalArgumentException if the window width is not odd or 
+     * if it is less than 3, or if the engine or border mode is null
      */
-    public MeanFilterParallel(BufferedImage source, int start, int length, BufferedImage destination) {
+    public MeanFilterParallel(int[] source, int width, int height, int[] destination, 
+    int windowWidth, MeanEngine engine, BorderMode borderMode, int tileSize) {
+        isValidWindowWidth(windowWidth);
+        if (engine == null) {
+            throw new IllegalArgumentException("Mean engine must not be null");
+        }
+        if (borderMode == null) {
+            throw new IllegalArgumentException("Border mode must not be null");
+        }
+
         this.source = source;
-        this.start = start;
-        this.length = length;
+        this.width = width;
+        this.height = height;
         this.destination = destination;
+        this.windowWidth = windowWidth;
+        this.engine = engine;
+        this.borderMode = borderMode;
+        this.tileSize = Math.max(1, tileSize);
+        this.tileX = 0;
+        this.tileY = 0;
+        this.tileWidth = width;
+        this.tileHeight = height;
+    }
+
+    /**
+     * Constructs a new MeanFilterParallel task that filters a rectangular tile of the 
+     * same image as the parent task.
+     * 
+     * @param parent the task whose image and settings to use
+     * @param tileX the left column of the tile to process
+     * @param tileY the top row of the tile to process
+     * @param tileWidth the width of the tile to process
+     * @param tileHeight the height of the tile to process
+     */
+    private MeanFilterParallel(MeanFilterParallel parent, int tileX, int tileY, int tileWidth, int tileHeight) {
+        this.source = parent.source;
+        this.width = parent.width;
+        this.height = parent.height;
+        this.destination = parent.destination;
+        this.windowWidth = parent.windowWidth;
+        this.engine = parent.engine;
+        this.borderMode = parent.borderMode;
+        this.tileSize = parent.tileSize;
+        this.tileX = tileX;
+        this.tileY = tileY;
+        this.tileWidth = tileWidth;
+        this.tileHeight = tileHeight;
     }
 
     /**
@@ -54,29 +129,54 @@ public class MeanFilterParallel extends RecursiveAction {
     }
 
     /**
-     * Directly applies the mean filter to a region of the source image.
-     * Writes the results to the destination image.
+     * Applies the mean filter to the tile of the source image and writes the 
+     * results to the destination image.
      */
     protected void applyFilter() {
-        int width = source.getWidth();
-        int height = source.getHeight();
-        int neighbouringPixels = (WINDOW_WIDTH - 1) / 2; 
+        filterInterior();
+
+        // the pixels whose window reaches past the edges are filtered apart, 
+        // so the loops of the interior need no bounds checks
+        Borders.filter(source, destination, width, height, windowWidth, borderMode, 
+            Borders.MEAN, tileX, tileY, tileWidth, tileHeight);
+    }
+
+    /**
+     * Directly applies the mean filter to the pixels of the tile whose window 
+     * lies inside the image, row by row.
+     */
+    private void filterInterior() {
+        int neighbouringPixels = (windowWidth - 1) / 2; 
 
         // keep in bounds of image
-        start = Math.max(start, neighbouringPixels);
-        length = Math.min(length, width - neighbouringPixels - start);
+        int xStart = Math.max(tileX, neighbouringPixels);
+        int yStart = Math.max(tileY, neighbouringPixels);
+        int xEnd = Math.min(tileX + tileWidth, width - neighbouringPixels);
+        int yEnd = Math.min(tileY + tileHeight, height - neighbouringPixels);
+
+        if (engine == MeanEngine.SLIDING) {
+            SlidingMean.filter(source, destination, width, windowWidth, 
+                xStart, yStart, xEnd, yEnd);
+            return;
+        }
+
+        if (engine == MeanEngine.VECTOR) {
+            VectorMean.filter(source, destination, width, windowWidth, 
+                xStart, yStart, xEnd, yEnd);
+            return;
+        }
 
         // iterate through each pixel in the image
-        for (int x = start; x < start + length; x++) {
-            for (int y = neighbouringPixels; y < height - neighbouringPixels; y++) {
+        for (int y = yStart; y < yEnd; y++) {
+            for (int x = xStart; x < xEnd; x++) {
                 int red = 0;
                 int green = 0;
                 int blue = 0;
 
                 // iterate through each pixel in the window
-                for (int i = x - neighbouringPixels; i <= x + neighbouringPixels; i++) {
-                    for (int j = y - neighbouringPixels; j <= y + neighbouringPixels; j++) {
-                        int pixel = source.getRGB(i, j);
+                for (int j = y - neighbouringPixels; j <= y + neighbouringPixels; j++) {
+                    for (int i = x - neighbouringPixels; i <= x + neighbouringPixels; i++) {
+                        int pixel = source[j * width + i];
                         red += pixel >> 16 & 0xFF;
                         green += pixel >> 8 & 0xFF;
                         blue += pixel & 0xFF;
@@ -84,13 +184,12 @@ public class MeanFilterParallel extends RecursiveAction {
                 }
 
                 // compute the mean of the neighbouring pixels
-                int windowSize = WINDOW_WIDTH * WINDOW_WIDTH;
+                int windowSize = windowWidth * windowWidth;
                 red /= windowSize;
                 green /= windowSize;
                 blue /= windowSize;
 
-                int filteredPixel = red << 16 | green << 8 | blue;
-                destination.setRGB(x, y, filteredPixel);
+                destination[y * width + x] = red << 16 | green << 8 | blue;
             }
         }
     }  
@@ -98,46 +197,70 @@ public class MeanFilterParallel extends RecursiveAction {
     /**
      * The main compute method for the MeanFilterParallel class.
      * 
-     * Either performs the smoothing directly or splits it into two smaller tasks
-     * and then executes them in parallel. 
-     * The length variable represents the width (of the region of the image 
-     * calling the method) and helps determine whether the work is small 
-     * enough to be done directly or not. 
+     * Either performs the smoothing directly or splits the tile in half 
+     * across its longer side and then executes the halves in parallel. 
+     * Splitting in both directions keeps every core busy on tall, narrow 
+     * images as well as wide ones, and the tiles that are filtered 
+     * directly are small enough for their pixels to stay in cache.
      */
     @Override
     protected void compute() {
-        if (length <= SEQUENTIAL_CUTOFF) {
+        if (tileWidth <= tileSize && tileHeight <= tileSize) {
             applyFilter();
             return;
         }
 
-        // the midpoint of the region of the image calling the method
-        int mid = length / 2;
-        // split the region into two smaller regions
-        MeanFilterParallel left = new MeanFilterParallel(source, start, mid, destination);
-        MeanFilterParallel right = new MeanFilterParallel(source, start + mid, 
-        length - mid, destination);
-        left.fork();
-        right.compute();
-        // wait for the left task to finish
-        left.join();
-    }
+        MeanFilterParallel first;
+        MeanFilterParallel second;
 
-    public static void main(String[] args) {
-        boolean testingSequentialCutoff = (args.length == 4);
+        // split the tile into two smaller tiles
+        if (tileWidth >= tileHeight) {
+            int mid = tileWidth / 2;
+            first = new MeanFilterParallel(this, tileX, tileY, mid, tileHeight);
+            second = new MeanFilterParallel(this, tileX + mid, tileY, tileWidth - mid, tileHeight);
+        } else {
+            int mid = tileHeight / 2;
+            first = new MeanFilterParallel(this, tileX, tileY, tileWidth, mid);
+            second = new MeanFilterParallel(this, tileX, tileY + mid, tileWidth, tileHeight - mid);
+        }
 
-        if (testingSequentialCutoff) {
-            SEQUENTIAL_CUTOFF = Integer.parseInt(args[3]);
-        }    
+        first.fork();
+        second.compute();
+        // wait for the first task to finish
+        first.join();
+    }
 
+    public static void main(String[] args) {
         try {
             File inputFile = new File(args[0]);
             File outputFile = new File(args[1]);
-            WINDOW_WIDTH = Integer.parseInt(args[2]);
-            isValidWindowWidth(WINDOW_WIDTH);
-            BufferedImage inputImage = ImageIO.read(inputFile);
-            BufferedImage filteredImage = smooth(inputImage);
-            ImageIO.write(filteredImage, "jpeg", outputFile);
+            int windowWidth = Integer.parseInt(args[2]);
+            int sequentialCutoff = args.length > 3 ? Integer.parseInt(args[3]) : 0;
+            MeanEngine engine = args.length > 4 
+                ? MeanEngine.fromName(args[4]) : MeanEngine.SLIDING;
+            BorderMode borderMode = args.length > 5 
+                ? BorderMode.fromName(args[5]) : BorderMode.CROP;
+            ForkJoinPool pool = ForkJoinPool.commonPool();
+            FilterMetrics.Recorder recorder = 
+                new FilterMetrics.Recorder("MeanFilterParallel", windowWidth, pool);
+            BufferedImage inputImage = ImageFiles.read(inputFile);
+            recorder.decoded(inputImage.getWidth(), inputImage.getHeight());
+
+            // calibrate outside the timed part; the calibration time is logged
+            int tileSize = sequentialCutoff > 0 ? sequentialCutoff 
+                : calibrateTileSize(inputImage, windowWidth, engine, borderMode, pool);
+
+            // time the execution of the filter
+            long startTime = System.currentTimeMillis();
+            BufferedImage filteredImage = ResultCache.shared().apply(inputImage, "mean", 
+                windowWidth, borderMode, image -> smooth(image, windowWidth, tileSize, 
+                engine, borderMode, pool));
+            long endTime = System.currentTimeMillis();
+            recorder.filtered();
+
+            ImageFiles.write(filteredImage, outputFile);
+            recorder.encoded();
+            System.out.println(endTime - startTime);
 
         } catch (FileNotFoundException e) {
             System.out.println("File not found or could not be read");
@@ -147,31 +270,278 @@ public class MeanFilterParallel extends RecursiveAction {
             System.out.println(e.getMessage());
         } catch (ArrayIndexOutOfBoundsException e) {
             System.out.println("Missing arguments\n" + 
-            "Usage: java MeanFilterParallel <inputImageName> <outputImageName> <windowWidth>");
+            "Usage: java MeanFilterParallel <inputImageName> <outputImageName> <windowWidth> " + 
+            "[sequentialCutoff] [engine] [border]");
         }        
     }
 
     /**
-     * Smooths the specified image using a mean filter with the specified window width.
+     * Smooths the specified image using a mean filter with the specified window 
+     * width, on the shared common pool with the default engine and a calibrated 
+     * tile size.
      * 
      * @param image the image to smooth
+     * @param windowWidth the width of the window to use for the filter
      * @return the smoothed image
+     * @throws IllegalArgumentException if the window width is not odd or 
+     * if it is less than 3
      */
-    public static BufferedImage smooth(BufferedImage image) {
+    public static BufferedImage smooth(BufferedImage image, int windowWidth) {
+        return smooth(image, windowWidth, 0, MeanEngine.SLIDING, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Smooths the specified image using a mean filter with the specified window 
+     * width, running the tasks on the specified pool and leaving the pixels whose 
+     * window reaches past the edges at zero. 
+     * 
+     * Every setting is passed in rather than stored in the class, so any number 
+     * of threads can smooth images with different settings at the same time, 
+     * and the pool is reused across calls rather than created for each one.
+     * 
+     * @param image the image to smooth
+     * @param windowWidth the width of the window to use for the filter
+     * @param sequentialCutoff the largest tile side to process sequentially, 
+     * or 0 to calibrate one
+     * @param engine the engine to use for computing the mean of each window
+     * @param pool the pool to run the tasks on, which is not shut down
+     * @return the smoothed image
+     * @throws IllegalArgumentException if the window width is not odd or 
+     * if it is less than 3, or if the engine or pool is null
+     */
+    public static BufferedImage smooth(BufferedImage image, int windowWidth, 
+    int sequentialCutoff, MeanEngine engine, ForkJoinPool pool) {
+        return smooth(image, windowWidth, sequentialCutoff, engine, BorderMode.CROP, pool);
+    }
+
+    /**
+     * Smooths the specified image using a mean filter with the specified window 
+     * width, running the tasks on the specified pool. 
+     * 
+     * Every setting is passed in rather than stored in the class, so any number 
+     * of threads can smooth images with different settings at the same time, 
+     * and the pool is reused across calls rather than created for each one.
+     * 
+     * @param image the image to smooth
+     * @param windowWidth the width of the window to use for the filter
+     * @param sequentialCutoff the largest tile side to process sequentially, 
+     * or 0 to calibrate one
+     * @param engine the engine to use for computing the mean of each window
+     * @param borderMode how to filter the pixels whose window reaches past the edges
+     * @param pool the pool to run the tasks on, which is not shut down
+     * @return the smoothed image
+     * @throws IllegalArgumentException if the window width is not odd or 
+     * if it is less than 3, or if the engine, border mode or pool is null
+     */
+    public static BufferedImage smooth(BufferedImage image, int windowWidth, 
+    int sequentialCutoff, MeanEngine engine, BorderMode borderMode, ForkJoinPool pool) {
         int width = image.getWidth();
-        BufferedImage filteredImage = new BufferedImage(width, image.getHeight(), image.getType());
-        MeanFilterParallel task = new MeanFilterParallel(image, 0, width, 
-        filteredImage);
-        ForkJoinPool pool = new ForkJoinPool();
+        int height = image.getHeight();
+        BufferedImage filteredImage = new BufferedImage(width, height, image.getType());
+        int[] destination = RasterAccess.pixelsForWriting(filteredImage);
+        int[] source = RasterAccess.readPixels(image);
 
-        // time the execution of the task
-        long startTime = System.currentTimeMillis();
-        pool.invoke(task);
-        long endTime = System.currentTimeMillis();
+        smooth(source, width, height, destination, windowWidth, sequentialCutoff, engine, 
+            borderMode, pool);
 
-        System.out.println(endTime - startTime);
+        RasterAccess.writePixels(filteredImage, destination);
+        return filteredImage;
+    }
 
+    /**
+     * Smooths the specified image using a mean filter with the specified window 
+     * width, running the tasks on the specified pool and taking the smoothed 
+     * image and any conversion arrays from the specified image pool, so a 
+     * steady stream of images of the same size allocates almost nothing.
+     * 
+     * @param image the image to smooth
+     * @param windowWidth the width of the window to use for the filter
+     * @param sequentialCutoff the largest tile side to process sequentially, 
+     * or 0 to calibrate one
+     * @param engine the engine to use for computing the mean of each window
+     * @param borderMode how to filter the pixels whose window reaches past the edges
+     * @param pool the pool to run the tasks on, which is not shut down
+     * @param images the pool of images to take the smoothed image from
+     * @return the smoothed image, to be released to the image pool when no 
+     * longer needed
+     * @throws IllegalArgumentException if the window width is not odd or 
+     * if it is less than 3, or if the engine, border mode or pool is null
+     */
+    public static BufferedImage smooth(BufferedImage image, int windowWidth, 
+    int sequentialCutoff, MeanEngine engine, BorderMode borderMode, ForkJoinPool pool, 
+    ImagePool images) {
+        int width = image.getWidth();
+        int height = image.getHeight();
+        BufferedImage filteredImage = images.acquire(width, height, image.getType());
+        int[] destination = RasterAccess.pixelsForWriting(filteredImage, images);
+        int[] source = RasterAccess.readPixels(image, images);
+
+        smooth(source, width, height, destination, windowWidth, sequentialCutoff, engine, 
+            borderMode, pool);
+
+        RasterAccess.writePixels(filteredImage, destination);
+        images.release(image, source);
+        images.release(filteredImage, destination);
         return filteredImage;
     }
-    
-}
\ No newline at end of file
+
+    /**
+     * Smooths the specified row-major packed RGB pixels using a mean filter 
+     * with the specified window width, running the tasks on the specified pool. 
+     * Pixels closer than (windowWidth - 1) / 2 to the edges are left as they 
+     * are in the destination.
+     * 
+     * @param source the row-major packed RGB pixels to smooth
+     * @param width the width of the image
+     * @param height the height of the image
+     * @param destination the row-major packed RGB pixels to write the results to
+     * @param windowWidth the width of the window to use for the filter
+     * @param sequentialCutoff the largest tile side to process sequentially, 
+     * or 0 to calibrate one
+     * @param engine the engine to use for computing the mean of each window
+     * @param pool the pool to run the tasks on, which is not shut down
+     * @throws IllegalArgumentException if the window width is not odd or 
+     * if it is less than 3, or if the engine or pool is null
+     */
+    public static void smooth(int[] source, int width, int height, int[] destination, 
+    int windowWidth, int sequentialCutoff, MeanEngine engine, ForkJoinPool pool) {
+        smooth(source, width, height, destination, windowWidth, sequentialCutoff, engine, 
+            BorderMode.CROP, pool);
+    }
+
+    /**
+     * Smooths the specified row-major packed RGB pixels using a mean filter 
+     * with the specified window width, running the tasks on the specified pool. 
+     * Pixels closer than (windowWidth - 1) / 2 to the edges are filtered as the 
+     * border mode says, and left as they are in the destination for CROP.
+     * 
+     * @param source the row-major packed RGB pixels to smooth
+     * @param width the width of the image
+     * @param height the height of the image
+     * @param destination the row-major packed RGB pixels to write the results to
+     * @param windowWidth the width of the window to use for the filter
+     * @param sequentialCutoff the largest tile side to process sequentially, 
+     * or 0 to calibrate one
+     * @param engine the engine to use for computing the mean of each window
+     * @param borderMode how to filter the pixels whose window reaches past the edges
+     * @param pool the pool to run the tasks on, which is not shut down
+     * @throws IllegalArgumentException if the window width is not odd or 
+     * if it is less than 3, or if the engine, border mode or pool is null
+     */
+    public static void smooth(int[] source, int width, int height, int[] destination, 
+    int windowWidth, int sequentialCutoff, MeanEngine engine, BorderMode borderMode, 
+    ForkJoinPool pool) {
+        if (pool == null) {
+            throw new IllegalArgumentException("Pool must not be null");
+        }
+
+        MeanFilterParallel task = new MeanFilterParallel(source, width, height, destination, 
+        windowWidth, engine, borderMode, sequentialCutoff);
+
+        // calibrate the tile size on the image unless one was given
+        if (sequentialCutoff <= 0) {
+            task = new MeanFilterParallel(source, width, height, destination, 
+            windowWidth, engine, borderMode, tileSize(task, pool));
+        }
+
+        pool.invoke(task);
+    }
+
+    /**
+     * Returns the tile size calibrated for smoothing the specified image, so 
+     * callers that time the filter can calibrate before they start timing. 
+     * Only sample tiles are filtered, into a scratch image.
+     * 
+     * @param image the image to be smoothed
+     * @param windowWidth the width of the window to use for the filter
+     * @param engine the engine to use for computing the mean of each window
+     * @param borderMode how to filter the pixels whose window reaches past the edges
+     * @param pool the pool the image will be smoothed on
+     * @return the largest tile width and height to filter sequentially
+     * @throws IllegalArgumentException if the window width is not odd or 
+     * if it is less than 3, or if the engine, border mode or pool is null
+     */
+    static int calibrateTileSize(BufferedImage image, int windowWidth, MeanEngine engine, 
+    BorderMode borderMode, ForkJoinPool pool) {
+        if (pool == null) {
+            throw new IllegalArgumentException("Pool must not be null");
+        }
+
+        int[] source = RasterAccess.readPixels(image);
+        return tileSize(new MeanFilterParallel(source, image.getWidth(), image.getHeight(), 
+        new int[source.length], windowWidth, engine, borderMode, 1), pool);
+    }
+
+    /**
+     * Returns the tile size for the whole-image task, calibrated on sample 
+     * tiles of its image the first time its settings are seen.
+     */
+    private static int tileSize(MeanFilterParallel whole, ForkJoinPool pool) {
+        return GrainTuner.tileSize(MeanFilterParallel.class.getName() + "-" + whole.engine, 
+            whole.width, whole.height, whole.windowWidth, pool.getParallelism(), 
+            (x, y, tileWidth, tileHeight) -> 
+            new MeanFilterParallel(whole, x, y, tileWidth, tileHeight).applyFilter());
+    }
+
+    /**
+     * Smooths only the specified regions of the destination using a mean filter 
+     * with the specified window width, running the tasks on the specified pool. 
+     * Pixels outside the regions are not touched, so the work is proportional to 
+     * the area of the regions rather than to the size of the image.
+     * 
+     * @param source the row-major packed RGB pixels to smooth
+     * @param width the width of the image
+     * @param height the height of the image
+     * @param destination the row-major packed RGB pixels to write the results to
+     * @param windowWidth the width of the window to use for the filter
+     * @param engine the engine to use for computing the mean of each window
+     * @param borderMode how to filter the pixels whose window reaches past the edges
+     * @param regions the regions of the destination to smooth, inside the image 
+     * and not overlapping
+     * @param pool the pool to run the tasks on, which is not shut down
+     * @throws IllegalArgumentException if the window width is not odd or 
+     * if it is less than 3, or if the engine, border mode or pool is null
+     */
+    public static void smoothRegions(int[] source, int width, int height, int[] destination, 
+    int windowWidth, MeanEngine engine, BorderMode borderMode, List<Rectangle> regions, 
+    ForkJoinPool pool) {
+        if (pool == null) {
+            throw new IllegalArgumentException("Pool must not be null");
+        }
+
+        MeanFilterParallel whole = new MeanFilterParallel(source, width, height, destination, 
+        windowWidth, engine, borderMode, 
+        Tiling.defaultTileSize(width, height, windowWidth, pool.getParallelism()));
+        List<MeanFilterParallel> tasks = new ArrayList<>();
+
+        for (Rectangle region : regions) {
+            tasks.add(new MeanFilterParallel(whole, region.x, region.y, region.width, region.height));
+        }
+
+        pool.invoke(ForkJoinTask.adapt(() -> ForkJoinTask.invokeAll(tasks)));
+    }
+
+    /**
+     * Smooths one region of the destination using a mean filter with the 
+     * specified window width, as a single tile in the calling thread. Meant 
+     * for callers already running on a pool thread, which must not wait on 
+     * another pool task.
+     * 
+     * @param source the row-major packed RGB pixels to smooth
+     * @param width the width of the image
+     * @param height the height of the image
+     * @param destination the row-major packed RGB pixels to write the results to
+     * @param windowWidth the width of the window to use for the filter
+     * @param engine the engine to use for computing the mean of each window
+     * @param borderMode how to filter the pixels whose window reaches past the edges
+     * @param region the region of the destination to smooth, inside the image
+     */
+    static void filterRegion(int[] source, int width, int height, int[] destination, 
+    int windowWidth, MeanEngine engine, BorderMode borderMode, Rectangle region) {
+        // the region is filtered as one tile, so the tile size is never used
+        MeanFilterParallel whole = new MeanFilterParallel(source, width, height, destination, 
+        windowWidth, engine, borderMode, Math.max(region.width, region.height));
+        new MeanFilterParallel(whole, region.x, region.y, region.width, region.height).applyFilter();
+    }
+
+}
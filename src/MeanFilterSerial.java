@@ -1,4 +1,3 @@
-import javax.imageio.ImageIO;
 import java.awt.image.BufferedImage;
 import java.io.File;
 import java.io.FileNotFoundException;
@@ -12,6 +11,8 @@ import java.io.IOException;
 public class MeanFilterSerial {
 
     private int windowWidth;
+    private MeanEngine engine;
+    private BorderMode borderMode;
 
     /**
      * Constructs a new MeanFilterSerial object with the specified window width.
@@ -21,7 +22,36 @@ public class MeanFilterSerial {
      * windowWidth is less than 3
      */
     public MeanFilterSerial(int windowWidth) {
+        this(windowWidth, MeanEngine.SLIDING);
+    }
+
+    /**
+     * Constructs a new MeanFilterSerial object with the specified window width
+     * and mean engine.
+     * 
+     * @param windowWidth the width of the window to use for the filter
+     * @param engine the engine to use for computing the mean of each window
+     * @throws IllegalArgumentException if windowWidth is not odd or if 
+     * windowWidth is less than 3
+     */
+    public MeanFilterSerial(int windowWidth, MeanEngine engine) {
+        this(windowWidth, engine, BorderMode.CROP);
+    }
+
+    /**
+     * Constructs a new MeanFilterSerial object with the specified window width,
+     * mean engine and border mode.
+     * 
+     * @param windowWidth the width of the window to use for the filter
+     * @param engine the engine to use for computing the mean of each window
+     * @param borderMode how to filter the pixels whose window reaches past the edges
+     * @throws IllegalArgumentException if windowWidth is not odd or if 
+     * windowWidth is less than 3, or if engine or borderMode is null
+     */
+    public MeanFilterSerial(int windowWidth, MeanEngine engine, BorderMode borderMode) {
         setWindowWidth(windowWidth);
+        setEngine(engine);
+        setBorderMode(borderMode);
     }
 
     /**
@@ -49,6 +79,52 @@ public class MeanFilterSerial {
         this.windowWidth = windowWidth;
     }
 
+    /**
+     * Returns the engine used for computing the mean of each window.
+     * 
+     * @return the mean engine of the filter
+     */
+    public MeanEngine getEngine() {
+        return engine;
+    }
+
+    /**
+     * Sets the engine used for computing the mean of each window.
+     * 
+     * @param engine the mean engine to use for the filter
+     * @throws IllegalArgumentException if engine is null
+     */
+    public void setEngine(MeanEngine engine) {
+        if (engine == null) {
+            throw new IllegalArgumentException("Mean engine must not be null");
+        }
+
+        this.engine = engine;
+    }
+
+    /**
+     * Returns how the filter treats the pixels whose window reaches past the edges.
+     * 
+     * @return the border mode of the filter
+     */
+    public BorderMode getBorderMode() {
+        return borderMode;
+    }
+
+    /**
+     * Sets how the filter treats the pixels whose window reaches past the edges.
+     * 
+     * @param borderMode the border mode to use for the filter
+     * @throws IllegalArgumentException if borderMode is null
+     */
+    public void setBorderMode(BorderMode borderMode) {
+        if (borderMode == null) {
+            throw new IllegalArgumentException("Border mode must not be null");
+        }
+
+        this.borderMode = borderMode;
+    }
+
     /**
      * Applies the mean filter to the specified image.
      * 
@@ -58,21 +134,50 @@ public class MeanFilterSerial {
     public BufferedImage apply(BufferedImage image) {
         int width = image.getWidth();
         int height = image.getHeight();
-        int neighbouringPixels = (windowWidth - 1) / 2;
         BufferedImage filteredImage = new BufferedImage(width, height, image.getType());
-        
+        int[] source = RasterAccess.readPixels(image);
+        int[] destination = RasterAccess.pixelsForWriting(filteredImage);
+
+        filterInterior(source, destination, width, height);
+
+        // the pixels whose window reaches past the edges are filtered apart, 
+        // so the loops of the interior need no bounds checks
+        Borders.filter(source, destination, width, height, windowWidth, borderMode, 
+            Borders.MEAN, 0, 0, width, height);
+
+        RasterAccess.writePixels(filteredImage, destination);
+        return filteredImage;
+    }
+
+    /**
+     * Applies the mean filter to the pixels whose window lies inside the image.
+     */
+    private void filterInterior(int[] source, int[] destination, int width, int height) {
+        int neighbouringPixels = (windowWidth - 1) / 2;
+
+        if (engine == MeanEngine.SLIDING) {
+            SlidingMean.filter(source, destination, width, windowWidth, neighbouringPixels, 
+                neighbouringPixels, width - neighbouringPixels, height - neighbouringPixels);
+            return;
+        }
+
+        if (engine == MeanEngine.VECTOR) {
+            VectorMean.filter(source, destination, width, windowWidth, neighbouringPixels, 
+                neighbouringPixels, width - neighbouringPixels, height - neighbouringPixels);
+            return;
+        }
 
         // iterate through each pixel in the image
-        for (int x = neighbouringPixels ; x < width - neighbouringPixels; x++) {
-            for (int y = neighbouringPixels; y < height - neighbouringPixels; y++) {
+        for (int y = neighbouringPixels; y < height - neighbouringPixels; y++) {
+            for (int x = neighbouringPixels; x < width - neighbouringPixels; x++) {
                 int red = 0;
                 int green = 0;
                 int blue = 0;
 
                 // iterate through each pixel in the window
-                for (int i = x - neighbouringPixels; i <= x + neighbouringPixels; i++) {
-                    for (int j = y - neighbouringPixels; j <= y + neighbouringPixels; j++) {
-                        int pixel = image.getRGB(i, j);
+                for (int j = y - neighbouringPixels; j <= y + neighbouringPixels; j++) {
+                    for (int i = x - neighbouringPixels; i <= x + neighbouringPixels; i++) {
+                        int pixel = source[j * width + i];
                         red += pixel >> 16 & 0xFF;
                         green += pixel >> 8 & 0xFF;
                         blue += pixel & 0xFF;
@@ -85,11 +190,9 @@ public class MeanFilterSerial {
                 green /= windowSize;
                 blue /= windowSize;
 
-                int filteredPixel = red << 16 | green << 8 | blue;
-                filteredImage.setRGB(x, y, filteredPixel);
+                destination[y * width + x] = red << 16 | green << 8 | blue;
             }
         }
-        return filteredImage;
     }
 
     public static void main(String[] args) {
@@ -97,16 +200,26 @@ public class MeanFilterSerial {
             File inputFile = new File(args[0]);
             File outputFile = new File(args[1]);
             int windowWidth = Integer.parseInt(args[2]);
+            MeanEngine engine = args.length > 3 
+                ? MeanEngine.fromName(args[3]) : MeanEngine.SLIDING;
+            BorderMode borderMode = args.length > 4 
+                ? BorderMode.fromName(args[4]) : BorderMode.CROP;
 
-            MeanFilterSerial meanFilter = new MeanFilterSerial(windowWidth);
-            BufferedImage inputImage = ImageIO.read(inputFile);
+            MeanFilterSerial meanFilter = new MeanFilterSerial(windowWidth, engine, borderMode);
+            FilterMetrics.Recorder recorder = 
+                new FilterMetrics.Recorder("MeanFilterSerial", windowWidth, null);
+            BufferedImage inputImage = ImageFiles.read(inputFile);
+            recorder.decoded(inputImage.getWidth(), inputImage.getHeight());
 
             // time the execution of the filter
             long startTime = System.currentTimeMillis();
-            BufferedImage filteredImage = meanFilter.apply(inputImage);
+            BufferedImage filteredImage = ResultCache.shared().apply(inputImage, "mean", 
+                windowWidth, borderMode, meanFilter::apply);
             long endTime = System.currentTimeMillis();
+            recorder.filtered();
 
-            ImageIO.write(filteredImage, "jpeg", outputFile);
+            ImageFiles.write(filteredImage, outputFile);
+            recorder.encoded();
             System.out.println(endTime - startTime);
 
         } catch (FileNotFoundException e) {
@@ -117,7 +230,8 @@ public class MeanFilterSerial {
             System.out.println(e.getMessage());
         } catch (ArrayIndexOutOfBoundsException e) {
             System.out.println("Missing Arguments\n" + 
-            "Usage: java MeanFilterSerial <inputImageName> <outputImageName> <windowWidth>");
+            "Usage: java MeanFilterSerial <inputImageName> <outputImageName> <windowWidth> " + 
+            "[engine] [border]");
         }       
     }
     
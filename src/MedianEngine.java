@@ -0,0 +1,53 @@
+/**
+ * The strategies available to the median filters for finding the median
+ * of each window. Every engine produces exactly the same output.
+ *
+ * @author Jordy Kafwe
+ */
+public enum MedianEngine {
+
+    /**
+     * Copies every pixel in the window and sorts each channel,
+     * so the cost per pixel grows faster than the window size.
+     */
+    SORT,
+
+    /**
+     * Copies every pixel in the window and selects the median of each
+     * channel without sorting, using median networks for 3x3 and 5x5
+     * windows and quickselect for larger ones.
+     */
+    SELECT,
+
+    /**
+     * Keeps a 256-bin histogram for every column of the window and slides
+     * a window histogram across each row, so the cost per pixel stays
+     * constant whatever the window width.
+     */
+    HISTOGRAM,
+
+    /**
+     * Keeps coarse 16-bin and fine 256-bin histograms for every column of 
+     * the window and finds the median a nibble at a time, sliding only 16 
+     * bins per step, so it suits the largest windows best.
+     */
+    COARSE_FINE;
+
+    /**
+     * Returns the engine with the specified name, ignoring case and
+     * accepting a hyphen in place of an underscore, e.g. coarse-fine.
+     *
+     * @param name the name of the engine
+     * @return the matching engine
+     * @throws IllegalArgumentException if no engine has the specified name
+     */
+    public static MedianEngine fromName(String name) {
+        for (MedianEngine engine : values()) {
+            if (engine.name().equalsIgnoreCase(name.replace('-', '_'))) {
+                return engine;
+            }
+        }
+
+        throw new IllegalArgumentException("Unknown median engine: " + name);
+    }
+}
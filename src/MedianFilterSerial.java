@@ -1,5 +1,4 @@
 import java.util.Arrays;
-import javax.imageio.ImageIO;
 import java.awt.image.BufferedImage;
 import java.io.File;
 import java.io.FileNotFoundException;
@@ -13,6 +12,8 @@ import java.io.IOException;
 public class MedianFilterSerial {
     
     private int windowWidth;
+    private MedianEngine engine;
+    private BorderMode borderMode;
 
     /**
      * Constructs a new MedianFilterSerial object with the specified window width.  
@@ -22,7 +23,36 @@ public class MedianFilterSerial {
      * or if windowWidth is less than 3
      */
     public MedianFilterSerial(int windowWidth) {
+        this(windowWidth, MedianEngine.SELECT);
+    }
+
+    /**
+     * Constructs a new MedianFilterSerial object with the specified window width
+     * and median engine.
+     * 
+     * @param windowWidth the width of the window to use for the filter
+     * @param engine the engine to use for finding the median of each window
+     * @throws IllegalArgumentException if windowWidth is not odd 
+     * or if windowWidth is less than 3
+     */
+    public MedianFilterSerial(int windowWidth, MedianEngine engine) {
+        this(windowWidth, engine, BorderMode.CROP);
+    }
+
+    /**
+     * Constructs a new MedianFilterSerial object with the specified window width,
+     * median engine and border mode.
+     * 
+     * @param windowWidth the width of the window to use for the filter
+     * @param engine the engine to use for finding the median of each window
+     * @param borderMode how to filter the pixels whose window reaches past the edges
+     * @throws IllegalArgumentException if windowWidth is not odd or if 
+     * windowWidth is less than 3, or if engine or borderMode is null
+     */
+    public MedianFilterSerial(int windowWidth, MedianEngine engine, BorderMode borderMode) {
         setWindowWidth(windowWidth);
+        setEngine(engine);
+        setBorderMode(borderMode);
     }
 
     /**
@@ -50,6 +80,52 @@ public class MedianFilterSerial {
         this.windowWidth = windowWidth;
     }
 
+    /**
+     * Returns the engine used for finding the median of each window.
+     * 
+     * @return the median engine of the filter
+     */
+    public MedianEngine getEngine() {
+        return engine;
+    }
+
+    /**
+     * Sets the engine used for finding the median of each window.
+     * 
+     * @param engine the median engine to use for the filter
+     * @throws IllegalArgumentException if engine is null
+     */
+    public void setEngine(MedianEngine engine) {
+        if (engine == null) {
+            throw new IllegalArgumentException("Median engine must not be null");
+        }
+
+        this.engine = engine;
+    }
+
+    /**
+     * Returns how the filter treats the pixels whose window reaches past the edges.
+     * 
+     * @return the border mode of the filter
+     */
+    public BorderMode getBorderMode() {
+        return borderMode;
+    }
+
+    /**
+     * Sets how the filter treats the pixels whose window reaches past the edges.
+     * 
+     * @param borderMode the border mode to use for the filter
+     * @throws IllegalArgumentException if borderMode is null
+     */
+    public void setBorderMode(BorderMode borderMode) {
+        if (borderMode == null) {
+            throw new IllegalArgumentException("Border mode must not be null");
+        }
+
+        this.borderMode = borderMode;
+    }
+
     /**
      * Applies the median filter to the specified image.
      * 
@@ -59,22 +135,54 @@ public class MedianFilterSerial {
     public BufferedImage apply(BufferedImage image) {
         int width = image.getWidth();
         int height = image.getHeight();
-        int neighbouringPixels = (windowWidth - 1) / 2;
         BufferedImage filteredImage = new BufferedImage(width, height, image.getType());
+        int[] source = RasterAccess.readPixels(image);
+        int[] destination = RasterAccess.pixelsForWriting(filteredImage);
+
+        filterInterior(source, destination, width, height);
+
+        // the pixels whose window reaches past the edges are filtered apart, 
+        // so the loops of the interior need no bounds checks
+        Borders.filter(source, destination, width, height, windowWidth, borderMode, 
+            Borders.MEDIAN, 0, 0, width, height);
+
+        RasterAccess.writePixels(filteredImage, destination);
+        return filteredImage;
+    }
+
+    /**
+     * Applies the median filter to the pixels whose window lies inside the image.
+     */
+    private void filterInterior(int[] source, int[] destination, int width, int height) {
+        int neighbouringPixels = (windowWidth - 1) / 2;
+
+        if (engine == MedianEngine.HISTOGRAM) {
+            HistogramMedian.filter(source, destination, width, windowWidth, neighbouringPixels, 
+                neighbouringPixels, width - neighbouringPixels, height - neighbouringPixels);
+            return;
+        }
+
+        if (engine == MedianEngine.COARSE_FINE) {
+            CoarseFineMedian.filter(source, destination, width, windowWidth, neighbouringPixels, 
+                neighbouringPixels, width - neighbouringPixels, height - neighbouringPixels);
+            return;
+        }
+
         int windowSize = windowWidth * windowWidth;
-        int[] redValues = new int[windowSize];
-        int[] greenValues = new int[windowSize];
-        int[] blueValues = new int[windowSize];
+        Scratch scratch = Scratch.get();
+        int[] redValues = scratch.window(0, windowSize);
+        int[] greenValues = scratch.window(1, windowSize);
+        int[] blueValues = scratch.window(2, windowSize);
 
         // iterate through each pixel in the image
-        for (int x = neighbouringPixels; x < width - neighbouringPixels; x++) {
-            for (int y = neighbouringPixels; y < height - neighbouringPixels; y++) {            
+        for (int y = neighbouringPixels; y < height - neighbouringPixels; y++) {
+            for (int x = neighbouringPixels; x < width - neighbouringPixels; x++) {            
                 int index = 0;
 
                 // iterate through each pixel in the window
-                for (int i = x -  neighbouringPixels; i <= x + neighbouringPixels; i++) {
-                    for (int j = y - neighbouringPixels; j <= y + neighbouringPixels; j++) {
-                        int pixel = image.getRGB(i, j);
+                for (int j = y - neighbouringPixels; j <= y + neighbouringPixels; j++) {
+                    for (int i = x - neighbouringPixels; i <= x + neighbouringPixels; i++) {
+                        int pixel = source[j * width + i];
                         redValues[index] = pixel >> 16 & 0xFF;
                         greenValues[index] = pixel >> 8 & 0xFF;
                         blueValues[index] = pixel & 0xFF;
@@ -83,19 +191,27 @@ public class MedianFilterSerial {
                 }
 
                 // determine the median value of the window
-                Arrays.sort(redValues);
-                Arrays.sort(greenValues);
-                Arrays.sort(blueValues);
-                int red = redValues[windowSize / 2];
-                int green = greenValues[windowSize / 2];
-                int blue = blueValues[windowSize / 2];
-                
+                int red;
+                int green;
+                int blue;
+
+                if (engine == MedianEngine.SORT) {
+                    Arrays.sort(redValues);
+                    Arrays.sort(greenValues);
+                    Arrays.sort(blueValues);
+                    red = redValues[windowSize / 2];
+                    green = greenValues[windowSize / 2];
+                    blue = blueValues[windowSize / 2];
+                } else {
+                    red = SelectionMedian.median(redValues);
+                    green = SelectionMedian.median(greenValues);
+                    blue = SelectionMedian.median(blueValues);
+                }
+
                 // replace the pixel with the median of the neighbouring pixels
-                int filteredPixel = red << 16 | green << 8 | blue;
-                filteredImage.setRGB(x, y, filteredPixel);
+                destination[y * width + x] = red << 16 | green << 8 | blue;
             }
         }
-        return filteredImage;
     }
 
     public static void main(String[] args) {
@@ -103,16 +219,26 @@ public class MedianFilterSerial {
             File inputFile = new File(args[0]);
             File outputFile = new File(args[1]);
             int windowWidth = Integer.parseInt(args[2]);
+            MedianEngine engine = args.length > 3 
+                ? MedianEngine.fromName(args[3]) : MedianEngine.SELECT;
+            BorderMode borderMode = args.length > 4 
+                ? BorderMode.fromName(args[4]) : BorderMode.CROP;
 
-            MedianFilterSerial medianFilter = new MedianFilterSerial(windowWidth);
-            BufferedImage inputImage = ImageIO.read(inputFile);
+            MedianFilterSerial medianFilter = new MedianFilterSerial(windowWidth, engine, borderMode);
+            FilterMetrics.Recorder recorder = 
+                new FilterMetrics.Recorder("MedianFilterSerial", windowWidth, null);
+            BufferedImage inputImage = ImageFiles.read(inputFile);
+            recorder.decoded(inputImage.getWidth(), inputImage.getHeight());
 
             // time the execution of the filter
             long startTime = System.currentTimeMillis();
-            BufferedImage filteredImage = medianFilter.apply(inputImage);
+            BufferedImage filteredImage = ResultCache.shared().apply(inputImage, "median", 
+                windowWidth, borderMode, medianFilter::apply);
             long endTime = System.currentTimeMillis();
+            recorder.filtered();
             
-            ImageIO.write(filteredImage, "jpeg", outputFile);
+            ImageFiles.write(filteredImage, outputFile);
+            recorder.encoded();
             System.out.println(endTime - startTime);
 
         } catch (FileNotFoundException e) {
@@ -123,7 +249,8 @@ public class MedianFilterSerial {
             System.out.println(e.getMessage());
         } catch (ArrayIndexOutOfBoundsException e) {
             System.out.println("Missing Arguments\n" + 
-            "Usage: java MedianFilterSerial <inputImageName> <outputImageName> <windowWidth>");
+            "Usage: java MedianFilterSerial <inputImageName> <outputImageName> <windowWidth> " + 
+            "[engine] [border]");
         }        
     }
 }
\ No newline at end of file
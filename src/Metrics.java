@@ -0,0 +1,82 @@
+import java.io.IOException;
+import java.lang.System.Logger;
+import java.lang.System.Logger.Level;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * The registry of {@link MetricsListener}s that receive the metrics of
+ * every smoothed image, so dashboards can track them without scraping
+ * standard output.
+ *
+ * Listeners can be added in code, or from the command line with system
+ * properties: smoother.metrics names a file to append every run to as a
+ * line of JSON, and smoother.jmx=true publishes the latest run and running
+ * totals as the MXBean noisyimagesmoother:type=Metrics.
+ *
+ * @author Jordy Kafwe
+ */
+public final class Metrics {
+
+    private static final Logger LOGGER = System.getLogger(Metrics.class.getName());
+    private static final List<MetricsListener> LISTENERS = new CopyOnWriteArrayList<>();
+
+    static {
+        String file = System.getProperty("smoother.metrics");
+
+        if (file != null) {
+            try {
+                addListener(new JsonLinesMetrics(file));
+            } catch (IOException e) {
+                LOGGER.log(Level.WARNING, "Could not open metrics file {0}: {1}", 
+                    file, e.getMessage());
+            }
+        }
+
+        if (Boolean.getBoolean("smoother.jmx")) {
+            addListener(JmxMetrics.register());
+        }
+    }
+
+    private Metrics() {
+    }
+
+    /**
+     * Registers a listener to receive the metrics of every later run.
+     *
+     * @param listener the listener to add
+     * @throws IllegalArgumentException if the listener is null
+     */
+    public static void addListener(MetricsListener listener) {
+        if (listener == null) {
+            throw new IllegalArgumentException("Listener must not be null");
+        }
+
+        LISTENERS.add(listener);
+    }
+
+    /**
+     * Stops a listener from receiving metrics.
+     *
+     * @param listener the listener to remove
+     */
+    public static void removeListener(MetricsListener listener) {
+        LISTENERS.remove(listener);
+    }
+
+    /**
+     * Sends the metrics of a run to every listener. A listener that throws
+     * is logged and does not stop the others.
+     *
+     * @param metrics the metrics of the run
+     */
+    static void publish(FilterMetrics metrics) {
+        for (MetricsListener listener : LISTENERS) {
+            try {
+                listener.completed(metrics);
+            } catch (RuntimeException e) {
+                LOGGER.log(Level.WARNING, "Metrics listener failed", e);
+            }
+        }
+    }
+}
@@ -0,0 +1,17 @@
+/**
+ * Receives the metrics of every image smoothed by the filter mains and
+ * the batch mode. Register one with {@link Metrics#addListener}.
+ *
+ * @author Jordy Kafwe
+ */
+@FunctionalInterface
+public interface MetricsListener {
+
+    /**
+     * Called once each image has been decoded, filtered and encoded, on the
+     * thread that finished encoding it. Must be thread-safe.
+     *
+     * @param metrics the metrics of the run
+     */
+    void completed(FilterMetrics metrics);
+}
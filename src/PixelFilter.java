@@ -0,0 +1,23 @@
+/**
+ * A filter over row-major packed RGB pixels, such as one of the smooth
+ * methods of MeanFilterParallel and MedianFilterParallel bound to its
+ * settings. It lets the streaming, pipelining and distributed modes run
+ * any filter without knowing which one it is.
+ *
+ * @author Jordy Kafwe
+ */
+@FunctionalInterface
+public interface PixelFilter {
+
+    /**
+     * Filters the source pixels and writes the results to the destination.
+     * Pixels the filter cannot compute, closer to the edges than its
+     * window reaches, are left as they are in the destination.
+     *
+     * @param source the row-major packed RGB pixels to filter
+     * @param width the width of the image
+     * @param height the height of the image
+     * @param destination the row-major packed RGB pixels to write the results to
+     */
+    void filter(int[] source, int width, int height, int[] destination);
+}
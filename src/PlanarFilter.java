@@ -0,0 +1,452 @@
+import java.awt.image.BufferedImage;
+import java.awt.image.ColorModel;
+import java.awt.image.DataBuffer;
+import java.awt.image.IndexColorModel;
+import java.awt.image.Raster;
+import java.awt.image.WritableRaster;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.util.Locale;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * A mean or median filter for images whose samples are not 8-bit RGB:
+ * grayscale, RGBA, 16-bit and float images such as scientific TIFF and
+ * 16-bit PNG data. Every band of the image, alpha included, is filtered as
+ * its own plane at its own depth, so nothing is squeezed through packed
+ * 8-bit RGB and the filtered image has the same type as the input.
+ *
+ * Planes of unsigned 8-bit, unsigned 16-bit and float samples each have
+ * their own kernels in PlaneKernels and are filtered in parallel tiles on
+ * a Fork/Join pool. For CLAMP, REFLECT and WRAP the plane is first padded
+ * by (windowWidth - 1) / 2 samples as the border mode says, so the kernels
+ * only ever see interior windows.
+ *
+ * @author Jordy Kafwe
+ */
+public final class PlanarFilter {
+
+    /**
+     * Filters the part of a plane from (xStart, yStart) inclusive to
+     * (xEnd, yEnd) exclusive whose windows lie inside the plane.
+     */
+    private interface Region {
+
+        void filter(int xStart, int yStart, int xEnd, int yEnd);
+    }
+
+    private final boolean median; // false for the mean
+    private final int windowWidth;
+    private final BorderMode borderMode;
+
+    private PlanarFilter(boolean median, int windowWidth, BorderMode borderMode) {
+        if (windowWidth % 2 == 0 || windowWidth < 3) {
+            throw new IllegalArgumentException(
+                "Window width must be odd and greater than 2");
+        }
+        if (borderMode == null) {
+            throw new IllegalArgumentException("Border mode must not be null");
+        }
+
+        this.median = median;
+        this.windowWidth = windowWidth;
+        this.borderMode = borderMode;
+    }
+
+    /**
+     * Returns a mean filter with the specified window width and border mode.
+     *
+     * @param windowWidth the width of the window to use for the filter
+     * @param borderMode how to filter the pixels whose window reaches past the edges
+     * @return the mean filter
+     * @throws IllegalArgumentException if the window width is not odd or
+     * if it is less than 3, or if the border mode is null
+     */
+    public static PlanarFilter mean(int windowWidth, BorderMode borderMode) {
+        return new PlanarFilter(false, windowWidth, borderMode);
+    }
+
+    /**
+     * Returns a median filter with the specified window width and border mode.
+     *
+     * @param windowWidth the width of the window to use for the filter
+     * @param borderMode how to filter the pixels whose window reaches past the edges
+     * @return the median filter
+     * @throws IllegalArgumentException if the window width is not odd or
+     * if it is less than 3, or if the border mode is null
+     */
+    public static PlanarFilter median(int windowWidth, BorderMode borderMode) {
+        return new PlanarFilter(true, windowWidth, borderMode);
+    }
+
+    /**
+     * Applies the filter to every band of the specified image, running tiles
+     * of each band in parallel on the specified pool. Bands of up to 8 bits
+     * are filtered as bytes, bands of up to 16 bits as shorts and float or
+     * double bands as floats.
+     *
+     * @param image the image to apply the filter to
+     * @param pool the pool to run the tasks on, which is not shut down
+     * @return the filtered image, with the same colour model and sample layout
+     * @throws IllegalArgumentException if pool is null, or if the image has
+     * indexed colours or samples of more than 16 bits that are not floats
+     */
+    public BufferedImage apply(BufferedImage image, ForkJoinPool pool) {
+        ColorModel colorModel = image.getColorModel();
+
+        if (colorModel instanceof IndexColorModel) {
+            throw new IllegalArgumentException(
+                "Images with indexed colours must be filtered as RGB");
+        }
+
+        Raster raster = image.getRaster();
+        int width = image.getWidth();
+        int height = image.getHeight();
+        int x = raster.getMinX();
+        int y = raster.getMinY();
+        int dataType = raster.getSampleModel().getDataType();
+        WritableRaster filteredRaster = raster.createCompatibleWritableRaster(width, height);
+
+        for (int band = 0; band < raster.getNumBands(); band++) {
+            int sampleSize = raster.getSampleModel().getSampleSize(band);
+
+            if (dataType == DataBuffer.TYPE_FLOAT || dataType == DataBuffer.TYPE_DOUBLE) {
+                float[] plane = raster.getSamples(x, y, width, height, band, (float[]) null);
+                float[] filtered = new float[plane.length];
+                apply(plane, filtered, width, height, pool);
+                filteredRaster.setSamples(0, 0, width, height, band, filtered);
+                continue;
+            }
+
+            int[] samples = raster.getSamples(x, y, width, height, band, (int[]) null);
+
+            if (sampleSize <= 8) {
+                byte[] plane = new byte[samples.length];
+                for (int p = 0; p < samples.length; p++) {
+                    plane[p] = (byte) samples[p];
+                }
+
+                byte[] filtered = new byte[plane.length];
+                apply(plane, filtered, width, height, pool);
+
+                for (int p = 0; p < samples.length; p++) {
+                    samples[p] = filtered[p] & 0xFF;
+                }
+            } else if (sampleSize <= 16) {
+                // signed shorts are shifted so they sort as unsigned ones
+                int offset = dataType == DataBuffer.TYPE_SHORT ? 1 << 15 : 0;
+                short[] plane = new short[samples.length];
+                for (int p = 0; p < samples.length; p++) {
+                    plane[p] = (short) (samples[p] + offset);
+                }
+
+                short[] filtered = new short[plane.length];
+                apply(plane, filtered, width, height, pool);
+
+                for (int p = 0; p < samples.length; p++) {
+                    samples[p] = (filtered[p] & 0xFFFF) - offset;
+                }
+            } else {
+                throw new IllegalArgumentException(
+                    "Samples of " + sampleSize + " bits are not supported");
+            }
+            filteredRaster.setSamples(0, 0, width, height, band, samples);
+        }
+
+        return new BufferedImage(colorModel, filteredRaster, colorModel.isAlphaPremultiplied(),
+            null);
+    }
+
+    /**
+     * Applies the filter to a plane of unsigned 8-bit samples, running
+     * tiles of it in parallel on the specified pool. Samples closer than
+     * (windowWidth - 1) / 2 to the edges are left as they are in the
+     * destination for CROP.
+     *
+     * @param source the row-major samples to filter
+     * @param destination the row-major samples to write the results to
+     * @param width the width of the plane
+     * @param height the height of the plane
+     * @param pool the pool to run the tasks on, which is not shut down
+     * @throws IllegalArgumentException if pool is null or an array does not
+     * hold width * height samples
+     */
+    public void apply(byte[] source, byte[] destination, int width, int height,
+    ForkJoinPool pool) {
+        checkPlane(source.length, destination.length, width, height, pool);
+        byte[] input = isPadded() ? new byte[paddedLength(width, height)] : source;
+        byte[] output = isPadded() ? new byte[input.length] : destination;
+        int planeWidth = planeWidth(width);
+
+        filter(source, destination, input, output, width, height, pool, median
+            ? (xs, ys, xe, ye) -> PlaneKernels.median(input, output, planeWidth, windowWidth,
+                xs, ys, xe, ye)
+            : (xs, ys, xe, ye) -> PlaneKernels.mean(input, output, planeWidth, windowWidth,
+                xs, ys, xe, ye));
+    }
+
+    /**
+     * Applies the filter to a plane of unsigned 16-bit samples, running
+     * tiles of it in parallel on the specified pool. Samples closer than
+     * (windowWidth - 1) / 2 to the edges are left as they are in the
+     * destination for CROP.
+     *
+     * @param source the row-major samples to filter
+     * @param destination the row-major samples to write the results to
+     * @param width the width of the plane
+     * @param height the height of the plane
+     * @param pool the pool to run the tasks on, which is not shut down
+     * @throws IllegalArgumentException if pool is null or an array does not
+     * hold width * height samples
+     */
+    public void apply(short[] source, short[] destination, int width, int height,
+    ForkJoinPool pool) {
+        checkPlane(source.length, destination.length, width, height, pool);
+        short[] input = isPadded() ? new short[paddedLength(width, height)] : source;
+        short[] output = isPadded() ? new short[input.length] : destination;
+        int planeWidth = planeWidth(width);
+
+        filter(source, destination, input, output, width, height, pool, median
+            ? (xs, ys, xe, ye) -> PlaneKernels.median(input, output, planeWidth, windowWidth,
+                xs, ys, xe, ye)
+            : (xs, ys, xe, ye) -> PlaneKernels.mean(input, output, planeWidth, windowWidth,
+                xs, ys, xe, ye));
+    }
+
+    /**
+     * Applies the filter to a plane of float samples, running tiles of it
+     * in parallel on the specified pool. Samples closer than
+     * (windowWidth - 1) / 2 to the edges are left as they are in the
+     * destination for CROP.
+     *
+     * @param source the row-major samples to filter
+     * @param destination the row-major samples to write the results to
+     * @param width the width of the plane
+     * @param height the height of the plane
+     * @param pool the pool to run the tasks on, which is not shut down
+     * @throws IllegalArgumentException if pool is null or an array does not
+     * hold width * height samples
+     */
+    public void apply(float[] source, float[] destination, int width, int height,
+    ForkJoinPool pool) {
+        checkPlane(source.length, destination.length, width, height, pool);
+        float[] input = isPadded() ? new float[paddedLength(width, height)] : source;
+        float[] output = isPadded() ? new float[input.length] : destination;
+        int planeWidth = planeWidth(width);
+
+        filter(source, destination, input, output, width, height, pool, median
+            ? (xs, ys, xe, ye) -> PlaneKernels.median(input, output, planeWidth, windowWidth,
+                xs, ys, xe, ye)
+            : (xs, ys, xe, ye) -> PlaneKernels.mean(input, output, planeWidth, windowWidth,
+                xs, ys, xe, ye));
+    }
+
+    /**
+     * Filters a plane of any sample type. The source and destination are
+     * the caller's arrays, and the input and output the arrays the kernels
+     * of the region run on: padded copies for CLAMP, REFLECT and WRAP, and
+     * the caller's arrays themselves otherwise. Arrays of any type are
+     * copied with System.arraycopy, which needs no boxing.
+     */
+    private void filter(Object source, Object destination, Object input, Object output,
+            int width, int height, ForkJoinPool pool, Region region) {
+        int neighbouringPixels = (windowWidth - 1) / 2;
+        int planeWidth = planeWidth(width);
+        int planeHeight = isPadded() ? height + 2 * neighbouringPixels : height;
+
+        if (isPadded()) {
+            pad(source, input, width, height);
+        }
+
+        int tileSize = Tiling.defaultTileSize(planeWidth, planeHeight, windowWidth,
+            pool.getParallelism());
+        pool.invoke(new TileTask(region, planeWidth, planeHeight, tileSize,
+            0, 0, planeWidth, planeHeight));
+
+        if (isPadded()) {
+            // keep the samples of the padded plane that lie in the image
+            for (int y = 0; y < height; y++) {
+                System.arraycopy(output, (y + neighbouringPixels) * planeWidth
+                    + neighbouringPixels, destination, y * width, width);
+            }
+        } else if (borderMode == BorderMode.SOURCE) {
+            copyEdges(source, destination, width, height);
+        }
+    }
+
+    /**
+     * Copies the source plane into the middle of the padded plane and fills
+     * the margin of (windowWidth - 1) / 2 samples around it as the border
+     * mode says.
+     */
+    private void pad(Object source, Object padded, int width, int height) {
+        int neighbouringPixels = (windowWidth - 1) / 2;
+        int planeWidth = planeWidth(width);
+
+        for (int j = 0; j < height + 2 * neighbouringPixels; j++) {
+            int row = Borders.map(borderMode, j - neighbouringPixels, height) * width;
+            int paddedRow = j * planeWidth;
+
+            System.arraycopy(source, row, padded, paddedRow + neighbouringPixels, width);
+
+            for (int i = 0; i < neighbouringPixels; i++) {
+                System.arraycopy(source, row + Borders.map(borderMode, i - neighbouringPixels,
+                    width), padded, paddedRow + i, 1);
+                System.arraycopy(source, row + Borders.map(borderMode, width + i, width),
+                    padded, paddedRow + neighbouringPixels + width + i, 1);
+            }
+        }
+    }
+
+    /**
+     * Copies the samples within (windowWidth - 1) / 2 of the edges from the
+     * source plane to the destination plane unfiltered.
+     */
+    private void copyEdges(Object source, Object destination, int width, int height) {
+        int neighbouringPixels = (windowWidth - 1) / 2;
+
+        for (int y = 0; y < height; y++) {
+            if (y < neighbouringPixels || y >= height - neighbouringPixels) {
+                System.arraycopy(source, y * width, destination, y * width, width);
+                continue;
+            }
+
+            int margin = Math.min(neighbouringPixels, width);
+            System.arraycopy(source, y * width, destination, y * width, margin);
+            System.arraycopy(source, (y + 1) * width - margin, destination,
+                (y + 1) * width - margin, margin);
+        }
+    }
+
+    private boolean isPadded() {
+        return borderMode != BorderMode.CROP && borderMode != BorderMode.SOURCE;
+    }
+
+    private int planeWidth(int width) {
+        return isPadded() ? width + windowWidth - 1 : width;
+    }
+
+    private int paddedLength(int width, int height) {
+        return (width + windowWidth - 1) * (height + windowWidth - 1);
+    }
+
+    private static void checkPlane(int sourceLength, int destinationLength, int width,
+            int height, ForkJoinPool pool) {
+        if (pool == null) {
+            throw new IllegalArgumentException("Pool must not be null");
+        }
+        if (sourceLength != width * height || destinationLength != width * height) {
+            throw new IllegalArgumentException("Planes must hold width * height samples");
+        }
+    }
+
+    /**
+     * Filters a tile of a plane, splitting it in half across its longer
+     * side until it is no larger than the tile size.
+     */
+    private final class TileTask extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        private final Region region;
+        private final int width;
+        private final int height;
+        private final int tileSize;
+        private final int tileX;
+        private final int tileY;
+        private final int tileWidth;
+        private final int tileHeight;
+
+        TileTask(Region region, int width, int height, int tileSize,
+                int tileX, int tileY, int tileWidth, int tileHeight) {
+            this.region = region;
+            this.width = width;
+            this.height = height;
+            this.tileSize = tileSize;
+            this.tileX = tileX;
+            this.tileY = tileY;
+            this.tileWidth = tileWidth;
+            this.tileHeight = tileHeight;
+        }
+
+        @Override
+        protected void compute() {
+            if (tileWidth <= tileSize && tileHeight <= tileSize) {
+                int neighbouringPixels = (windowWidth - 1) / 2;
+
+                // keep in bounds of plane
+                region.filter(Math.max(tileX, neighbouringPixels),
+                    Math.max(tileY, neighbouringPixels),
+                    Math.min(tileX + tileWidth, width - neighbouringPixels),
+                    Math.min(tileY + tileHeight, height - neighbouringPixels));
+                return;
+            }
+
+            TileTask first;
+            TileTask second;
+
+            // split the tile into two smaller tiles
+            if (tileWidth >= tileHeight) {
+                int mid = tileWidth / 2;
+                first = tile(tileX, tileY, mid, tileHeight);
+                second = tile(tileX + mid, tileY, tileWidth - mid, tileHeight);
+            } else {
+                int mid = tileHeight / 2;
+                first = tile(tileX, tileY, tileWidth, mid);
+                second = tile(tileX, tileY + mid, tileWidth, tileHeight - mid);
+            }
+
+            first.fork();
+            second.compute();
+            // wait for the first task to finish
+            first.join();
+        }
+
+        private TileTask tile(int x, int y, int w, int h) {
+            return new TileTask(region, width, height, tileSize, x, y, w, h);
+        }
+    }
+
+    public static void main(String[] args) {
+        try {
+            File inputFile = new File(args[0]);
+            File outputFile = new File(args[1]);
+            String filterName = args[2].toLowerCase(Locale.ROOT);
+            int windowWidth = Integer.parseInt(args[3]);
+            BorderMode borderMode = args.length > 4
+                ? BorderMode.fromName(args[4]) : BorderMode.CROP;
+            PlanarFilter filter;
+
+            if (filterName.equals("mean")) {
+                filter = mean(windowWidth, borderMode);
+            } else if (filterName.equals("median")) {
+                filter = median(windowWidth, borderMode);
+            } else {
+                throw new IllegalArgumentException("Filter must be mean or median");
+            }
+
+            BufferedImage inputImage = ImageFiles.read(inputFile);
+
+            // time the execution of the filter
+            long startTime = System.currentTimeMillis();
+            BufferedImage filteredImage = filter.apply(inputImage, ForkJoinPool.commonPool());
+            long endTime = System.currentTimeMillis();
+
+            ImageFiles.write(filteredImage, outputFile);
+            System.out.println(endTime - startTime);
+
+        } catch (FileNotFoundException e) {
+            System.out.println("File not found or could not be read");
+        } catch (IOException e) {
+            System.out.println("File could not be written");
+        } catch (IllegalArgumentException e) {
+            System.out.println(e.getMessage());
+        } catch (ArrayIndexOutOfBoundsException e) {
+            System.out.println("Missing arguments\n" +
+            "Usage: java PlanarFilter <inputImageName> <outputImageName> <mean|median> " +
+            "<windowWidth> [border]");
+        }
+    }
+}
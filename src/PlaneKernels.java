@@ -0,0 +1,472 @@
+/**
+ * The mean and median kernels for a single plane of samples, one kernel
+ * per sample type so each runs on its primitive array directly: unsigned
+ * 8-bit samples in bytes, unsigned 16-bit samples in shorts, and floats.
+ *
+ * The means keep a running sum for every column of the window, as
+ * SlidingMean does, and truncate like the RGB filters for the integer
+ * types. The integer medians keep a radix histogram of the window,
+ * coarse bins for the high bits of each sample down to fine bins for
+ * every value, and walk the rows in alternate directions so each step
+ * only swaps one row or column of the window; finding the median then
+ * scans at most 16 bins per level, with two levels for 8-bit samples and
+ * three for 16-bit ones. Float medians are selected from each window.
+ *
+ * The median is the value at index windowSize / 2 of the sorted window,
+ * exactly as the RGB filters pick it.
+ *
+ * @author Jordy Kafwe
+ */
+final class PlaneKernels {
+
+    private PlaneKernels() {
+    }
+
+    /**
+     * Applies the mean filter to the region from (xStart, yStart) inclusive
+     * to (xEnd, yEnd) exclusive of the source plane of unsigned 8-bit
+     * samples and writes the results to the destination plane. The region
+     * must lie at least (windowWidth - 1) / 2 pixels away from the edges.
+     *
+     * @param source the row-major samples to read from
+     * @param destination the row-major samples to write to
+     * @param width the width of the plane
+     * @param windowWidth the width of the window to use for the filter
+     * @param xStart the first column to filter
+     * @param yStart the first row to filter
+     * @param xEnd the column after the last column to filter
+     * @param yEnd the row after the last row to filter
+     */
+    static void mean(byte[] source, byte[] destination, int width, int windowWidth,
+            int xStart, int yStart, int xEnd, int yEnd) {
+        int neighbouringPixels = (windowWidth - 1) / 2;
+        int windowSize = windowWidth * windowWidth;
+
+        if (xStart >= xEnd || yStart >= yEnd) {
+            return;
+        }
+
+        // running sums of each column of the window, offset by left
+        int left = xStart - neighbouringPixels;
+        int count = xEnd - xStart + windowWidth - 1;
+        int[] columns = Scratch.get().ints(0, count);
+
+        for (int j = yStart - neighbouringPixels; j <= yStart + neighbouringPixels; j++) {
+            int row = j * width + left;
+
+            for (int c = 0; c < count; c++) {
+                columns[c] += source[row + c] & 0xFF;
+            }
+        }
+
+        for (int y = yStart; y < yEnd; y++) {
+            if (y > yStart) {
+                int leavingRow = (y - neighbouringPixels - 1) * width + left;
+                int enteringRow = (y + neighbouringPixels) * width + left;
+
+                for (int c = 0; c < count; c++) {
+                    columns[c] += (source[enteringRow + c] & 0xFF) - (source[leavingRow + c] & 0xFF);
+                }
+            }
+
+            int sum = 0;
+            for (int c = 0; c < windowWidth; c++) {
+                sum += columns[c];
+            }
+
+            for (int x = xStart, row = y * width; x < xEnd; x++) {
+                if (x > xStart) {
+                    sum += columns[x - xStart - 1 + windowWidth] - columns[x - xStart - 1];
+                }
+                destination[row + x] = (byte) (sum / windowSize);
+            }
+        }
+    }
+
+    /**
+     * Applies the mean filter to the region of the source plane of unsigned
+     * 16-bit samples and writes the results to the destination plane.
+     *
+     * @param source the row-major samples to read from
+     * @param destination the row-major samples to write to
+     * @param width the width of the plane
+     * @param windowWidth the width of the window to use for the filter
+     * @param xStart the first column to filter
+     * @param yStart the first row to filter
+     * @param xEnd the column after the last column to filter
+     * @param yEnd the row after the last row to filter
+     */
+    static void mean(short[] source, short[] destination, int width, int windowWidth,
+            int xStart, int yStart, int xEnd, int yEnd) {
+        int neighbouringPixels = (windowWidth - 1) / 2;
+        int windowSize = windowWidth * windowWidth;
+
+        if (xStart >= xEnd || yStart >= yEnd) {
+            return;
+        }
+
+        // a column sum fits in an int, the sum of a whole window may not
+        int left = xStart - neighbouringPixels;
+        int count = xEnd - xStart + windowWidth - 1;
+        int[] columns = Scratch.get().ints(0, count);
+
+        for (int j = yStart - neighbouringPixels; j <= yStart + neighbouringPixels; j++) {
+            int row = j * width + left;
+
+            for (int c = 0; c < count; c++) {
+                columns[c] += source[row + c] & 0xFFFF;
+            }
+        }
+
+        for (int y = yStart; y < yEnd; y++) {
+            if (y > yStart) {
+                int leavingRow = (y - neighbouringPixels - 1) * width + left;
+                int enteringRow = (y + neighbouringPixels) * width + left;
+
+                for (int c = 0; c < count; c++) {
+                    columns[c] += (source[enteringRow + c] & 0xFFFF) - (source[leavingRow + c] & 0xFFFF);
+                }
+            }
+
+            long sum = 0;
+            for (int c = 0; c < windowWidth; c++) {
+                sum += columns[c];
+            }
+
+            for (int x = xStart, row = y * width; x < xEnd; x++) {
+                if (x > xStart) {
+                    sum += columns[x - xStart - 1 + windowWidth] - columns[x - xStart - 1];
+                }
+                destination[row + x] = (short) (sum / windowSize);
+            }
+        }
+    }
+
+    /**
+     * Applies the mean filter to the region of the source plane of floats
+     * and writes the results to the destination plane. The sums are kept
+     * in doubles, so sliding them loses far less than the float precision.
+     *
+     * @param source the row-major samples to read from
+     * @param destination the row-major samples to write to
+     * @param width the width of the plane
+     * @param windowWidth the width of the window to use for the filter
+     * @param xStart the first column to filter
+     * @param yStart the first row to filter
+     * @param xEnd the column after the last column to filter
+     * @param yEnd the row after the last row to filter
+     */
+    static void mean(float[] source, float[] destination, int width, int windowWidth,
+            int xStart, int yStart, int xEnd, int yEnd) {
+        int neighbouringPixels = (windowWidth - 1) / 2;
+        double windowSize = windowWidth * windowWidth;
+
+        if (xStart >= xEnd || yStart >= yEnd) {
+            return;
+        }
+
+        int left = xStart - neighbouringPixels;
+        int count = xEnd - xStart + windowWidth - 1;
+        double[] columns = Scratch.get().doubles(0, count);
+
+        for (int j = yStart - neighbouringPixels; j <= yStart + neighbouringPixels; j++) {
+            int row = j * width + left;
+
+            for (int c = 0; c < count; c++) {
+                columns[c] += source[row + c];
+            }
+        }
+
+        for (int y = yStart; y < yEnd; y++) {
+            if (y > yStart) {
+                int leavingRow = (y - neighbouringPixels - 1) * width + left;
+                int enteringRow = (y + neighbouringPixels) * width + left;
+
+                for (int c = 0; c < count; c++) {
+                    columns[c] += (double) source[enteringRow + c] - source[leavingRow + c];
+                }
+            }
+
+            double sum = 0;
+            for (int c = 0; c < windowWidth; c++) {
+                sum += columns[c];
+            }
+
+            for (int x = xStart, row = y * width; x < xEnd; x++) {
+                if (x > xStart) {
+                    sum += columns[x - xStart - 1 + windowWidth] - columns[x - xStart - 1];
+                }
+                destination[row + x] = (float) (sum / windowSize);
+            }
+        }
+    }
+
+    /**
+     * Applies the median filter to the region of the source plane of
+     * unsigned 8-bit samples and writes the results to the destination
+     * plane, using 16 coarse and 256 fine bins.
+     *
+     * @param source the row-major samples to read from
+     * @param destination the row-major samples to write to
+     * @param width the width of the plane
+     * @param windowWidth the width of the window to use for the filter
+     * @param xStart the first column to filter
+     * @param yStart the first row to filter
+     * @param xEnd the column after the last column to filter
+     * @param yEnd the row after the last row to filter
+     */
+    static void median(byte[] source, byte[] destination, int width, int windowWidth,
+            int xStart, int yStart, int xEnd, int yEnd) {
+        int neighbouringPixels = (windowWidth - 1) / 2;
+        int rank = windowWidth * windowWidth / 2;
+
+        if (xStart >= xEnd || yStart >= yEnd) {
+            return;
+        }
+
+        Scratch scratch = Scratch.get();
+        int[] coarse = scratch.ints(0, 1 << 4);
+        int[] fine = scratch.ints(1, 1 << 8);
+
+        for (int j = yStart - neighbouringPixels; j <= yStart + neighbouringPixels; j++) {
+            for (int i = xStart - neighbouringPixels; i <= xStart + neighbouringPixels; i++) {
+                int value = source[j * width + i] & 0xFF;
+                coarse[value >> 4]++;
+                fine[value]++;
+            }
+        }
+
+        // walk right along one row and left along the next
+        int x = xStart;
+        int direction = 1;
+
+        for (int y = yStart; y < yEnd; y++, direction = -direction) {
+            if (y > yStart) {
+                int leavingRow = (y - neighbouringPixels - 1) * width;
+                int enteringRow = (y + neighbouringPixels) * width;
+
+                for (int i = x - neighbouringPixels; i <= x + neighbouringPixels; i++) {
+                    int leaving = source[leavingRow + i] & 0xFF;
+                    int entering = source[enteringRow + i] & 0xFF;
+                    coarse[leaving >> 4]--;
+                    fine[leaving]--;
+                    coarse[entering >> 4]++;
+                    fine[entering]++;
+                }
+            }
+
+            while (true) {
+                destination[y * width + x] = (byte) select(coarse, fine, 4, rank);
+
+                int next = x + direction;
+                if (next < xStart || next >= xEnd) {
+                    break;
+                }
+
+                int leavingColumn = x - direction * neighbouringPixels;
+                int enteringColumn = next + direction * neighbouringPixels;
+
+                for (int j = y - neighbouringPixels; j <= y + neighbouringPixels; j++) {
+                    int leaving = source[j * width + leavingColumn] & 0xFF;
+                    int entering = source[j * width + enteringColumn] & 0xFF;
+                    coarse[leaving >> 4]--;
+                    fine[leaving]--;
+                    coarse[entering >> 4]++;
+                    fine[entering]++;
+                }
+                x = next;
+            }
+        }
+    }
+
+    /**
+     * Applies the median filter to the region of the source plane of
+     * unsigned 16-bit samples and writes the results to the destination
+     * plane, using a three-level histogram of 256, 4096 and 65536 bins.
+     *
+     * @param source the row-major samples to read from
+     * @param destination the row-major samples to write to
+     * @param width the width of the plane
+     * @param windowWidth the width of the window to use for the filter
+     * @param xStart the first column to filter
+     * @param yStart the first row to filter
+     * @param xEnd the column after the last column to filter
+     * @param yEnd the row after the last row to filter
+     */
+    static void median(short[] source, short[] destination, int width, int windowWidth,
+            int xStart, int yStart, int xEnd, int yEnd) {
+        int neighbouringPixels = (windowWidth - 1) / 2;
+
+        if (xStart >= xEnd || yStart >= yEnd) {
+            return;
+        }
+
+        WideHistogram window = new WideHistogram(windowWidth * windowWidth / 2);
+
+        for (int j = yStart - neighbouringPixels; j <= yStart + neighbouringPixels; j++) {
+            for (int i = xStart - neighbouringPixels; i <= xStart + neighbouringPixels; i++) {
+                window.add(source[j * width + i] & 0xFFFF);
+            }
+        }
+
+        int x = xStart;
+        int direction = 1;
+
+        for (int y = yStart; y < yEnd; y++, direction = -direction) {
+            if (y > yStart) {
+                int leavingRow = (y - neighbouringPixels - 1) * width;
+                int enteringRow = (y + neighbouringPixels) * width;
+
+                for (int i = x - neighbouringPixels; i <= x + neighbouringPixels; i++) {
+                    window.remove(source[leavingRow + i] & 0xFFFF);
+                    window.add(source[enteringRow + i] & 0xFFFF);
+                }
+            }
+
+            while (true) {
+                destination[y * width + x] = (short) window.median();
+
+                int next = x + direction;
+                if (next < xStart || next >= xEnd) {
+                    break;
+                }
+
+                int leavingColumn = x - direction * neighbouringPixels;
+                int enteringColumn = next + direction * neighbouringPixels;
+
+                for (int j = y - neighbouringPixels; j <= y + neighbouringPixels; j++) {
+                    window.remove(source[j * width + leavingColumn] & 0xFFFF);
+                    window.add(source[j * width + enteringColumn] & 0xFFFF);
+                }
+                x = next;
+            }
+        }
+    }
+
+    /**
+     * Applies the median filter to the region of the source plane of floats
+     * and writes the results to the destination plane. Each window is
+     * copied as ints that sort in the same order as the floats and its
+     * median selected by SelectionMedian.
+     *
+     * @param source the row-major samples to read from
+     * @param destination the row-major samples to write to
+     * @param width the width of the plane
+     * @param windowWidth the width of the window to use for the filter
+     * @param xStart the first column to filter
+     * @param yStart the first row to filter
+     * @param xEnd the column after the last column to filter
+     * @param yEnd the row after the last row to filter
+     */
+    static void median(float[] source, float[] destination, int width, int windowWidth,
+            int xStart, int yStart, int xEnd, int yEnd) {
+        int neighbouringPixels = (windowWidth - 1) / 2;
+        int[] keys = Scratch.get().window(0, windowWidth * windowWidth);
+
+        for (int y = yStart; y < yEnd; y++) {
+            for (int x = xStart; x < xEnd; x++) {
+                int index = 0;
+
+                for (int j = y - neighbouringPixels; j <= y + neighbouringPixels; j++) {
+                    for (int i = x - neighbouringPixels; i <= x + neighbouringPixels; i++) {
+                        int bits = Float.floatToIntBits(source[j * width + i]);
+                        // flip the magnitude of negative floats so they sort as ints
+                        keys[index++] = bits ^ (bits >> 31 & 0x7FFFFFFF);
+                    }
+                }
+
+                int key = SelectionMedian.median(keys);
+                destination[y * width + x] = Float.intBitsToFloat(key ^ (key >> 31 & 0x7FFFFFFF));
+            }
+        }
+    }
+
+    /**
+     * Returns the value at the specified rank of a window from its coarse
+     * bins, each covering 1 << shift values, and its fine bins.
+     */
+    private static int select(int[] coarse, int[] fine, int shift, int rank) {
+        int below = 0;
+        int bucket = 0;
+
+        while (below + coarse[bucket] <= rank) {
+            below += coarse[bucket];
+            bucket++;
+        }
+
+        int value = bucket << shift;
+        while (below + fine[value] <= rank) {
+            below += fine[value];
+            value++;
+        }
+        return value;
+    }
+
+    /**
+     * The histogram of a window of 16-bit samples at three levels: 256
+     * coarse bins for the top 8 bits, 16 middle bins under each for the
+     * next 4 bits and 16 fine bins under each of those for every value.
+     * The coarse bin holding the median is kept between windows along with
+     * the count of samples below it, since neighbouring windows have close
+     * medians, so finding the median scans a few coarse bins and at most 16
+     * middle and 16 fine ones.
+     */
+    private static final class WideHistogram {
+
+        private final int[] coarse;
+        private final int[] middle;
+        private final int[] fine;
+        private final int rank;
+        private int bucket; // the coarse bin the last median was in
+        private int below; // the number of samples in coarse bins before bucket
+
+        WideHistogram(int rank) {
+            Scratch scratch = Scratch.get();
+            this.coarse = scratch.ints(0, 1 << 8);
+            this.middle = scratch.ints(1, 1 << 12);
+            this.fine = scratch.ints(2, 1 << 16);
+            this.rank = rank;
+        }
+
+        void add(int value) {
+            coarse[value >> 8]++;
+            middle[value >> 4]++;
+            fine[value]++;
+            // one more below when the value is under the median's coarse bin, without a branch
+            below += (value >> 8) - bucket >>> 31;
+        }
+
+        void remove(int value) {
+            coarse[value >> 8]--;
+            middle[value >> 4]--;
+            fine[value]--;
+            below -= (value >> 8) - bucket >>> 31;
+        }
+
+        int median() {
+            // move the coarse bin up or down to the one holding the median
+            while (below + coarse[bucket] <= rank) {
+                below += coarse[bucket];
+                bucket++;
+            }
+            while (below > rank) {
+                bucket--;
+                below -= coarse[bucket];
+            }
+
+            int count = below;
+            int bin = bucket << 4;
+            while (count + middle[bin] <= rank) {
+                count += middle[bin];
+                bin++;
+            }
+
+            int value = bin << 4;
+            while (count + fine[value] <= rank) {
+                count += fine[value];
+                value++;
+            }
+            return value;
+        }
+    }
+}
@@ -0,0 +1,33 @@
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+
+/**
+ * Receives the partial results of a ProgressiveSmoother: a coarse preview
+ * of the whole smoothed image first, then each tile once its pixels are
+ * final.
+ *
+ * @author Jordy Kafwe
+ */
+@FunctionalInterface
+public interface ProgressListener {
+
+    /**
+     * Called once the image holds a coarse preview of the smoothed image,
+     * on the thread that called smooth, before any tile is refined.
+     * Does nothing by default.
+     *
+     * @param image the image being smoothed, holding the preview
+     */
+    default void previewReady(BufferedImage image) {
+    }
+
+    /**
+     * Called as soon as a tile of the image holds its final smoothed
+     * pixels, on the pool thread that filtered it. Tiles arrive in priority
+     * order but may overlap in time, so this must be thread-safe.
+     *
+     * @param image the image being smoothed
+     * @param tile the region of the image that is now final
+     */
+    void tileReady(BufferedImage image, Rectangle tile);
+}
@@ -0,0 +1,255 @@
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Smooths an image progressively for interactive use. A coarse preview
+ * comes first: the image is shrunk by PREVIEW_SCALE in each direction,
+ * smoothed with a window shrunk to match and scaled back up, which costs a
+ * small fraction of the full filter. The full filter then refines the
+ * image tile by tile, starting with the tiles in the viewport and moving
+ * outwards from its centre, and hands each tile to a listener as soon as
+ * it is final.
+ *
+ * Every pool thread takes the next tile in priority order when it is
+ * free, rather than splitting the image in halves, so the viewport is
+ * refined before the rest of the image. The finished image is identical
+ * to the one the parallel filters produce.
+ *
+ * @author Jordy Kafwe
+ */
+public final class ProgressiveSmoother {
+
+    /** How many times smaller the preview is than the image in each direction. */
+    static final int PREVIEW_SCALE = 4;
+
+    private final MeanEngine meanEngine; // null for a median filter
+    private final MedianEngine medianEngine; // null for a mean filter
+    private final int windowWidth;
+    private final BorderMode borderMode;
+    private final ForkJoinPool pool;
+
+    /**
+     * Constructs a new ProgressiveSmoother that applies a mean filter.
+     *
+     * @param engine the engine to use for computing the mean of each window
+     * @param windowWidth the width of the window to use for the filter
+     * @param borderMode how to filter the pixels whose window reaches past the edges
+     * @param pool the pool to run the tasks on, which is not shut down
+     * @throws IllegalArgumentException if the window width is not odd or
+     * if it is less than 3, or if the engine, border mode or pool is null
+     */
+    public ProgressiveSmoother(MeanEngine engine, int windowWidth, BorderMode borderMode,
+    ForkJoinPool pool) {
+        this(engine, null, windowWidth, borderMode, pool);
+        if (engine == null) {
+            throw new IllegalArgumentException("Mean engine must not be null");
+        }
+    }
+
+    /**
+     * Constructs a new ProgressiveSmoother that applies a median filter.
+     *
+     * @param engine the engine to use for finding the median of each window
+     * @param windowWidth the width of the window to use for the filter
+     * @param borderMode how to filter the pixels whose window reaches past the edges
+     * @param pool the pool to run the tasks on, which is not shut down
+     * @throws IllegalArgumentException if the window width is not odd or
+     * if it is less than 3, or if the engine, border mode or pool is null
+     */
+    public ProgressiveSmoother(MedianEngine engine, int windowWidth, BorderMode borderMode,
+    ForkJoinPool pool) {
+        this(null, engine, windowWidth, borderMode, pool);
+        if (engine == null) {
+            throw new IllegalArgumentException("Median engine must not be null");
+        }
+    }
+
+    private ProgressiveSmoother(MeanEngine meanEngine, MedianEngine medianEngine,
+            int windowWidth, BorderMode borderMode, ForkJoinPool pool) {
+        if (windowWidth % 2 == 0 || windowWidth < 3) {
+            throw new IllegalArgumentException(
+                "Window width must be odd and greater than 2");
+        }
+        if (borderMode == null) {
+            throw new IllegalArgumentException("Border mode must not be null");
+        }
+        if (pool == null) {
+            throw new IllegalArgumentException("Pool must not be null");
+        }
+
+        this.meanEngine = meanEngine;
+        this.medianEngine = medianEngine;
+        this.windowWidth = windowWidth;
+        this.borderMode = borderMode;
+        this.pool = pool;
+    }
+
+    /**
+     * Smooths the specified image, passing the listener a preview of the
+     * whole image first and then every tile as it is refined, viewport first.
+     * Returns once every tile has been refined.
+     *
+     * @param image the image to smooth
+     * @param viewport the region of the image to refine first, or null for
+     * the centre of the image
+     * @param listener the listener to pass the preview and the tiles to
+     * @return the smoothed image, the same image the listener was given
+     * @throws IllegalArgumentException if listener is null
+     */
+    public BufferedImage smooth(BufferedImage image, Rectangle viewport,
+    ProgressListener listener) {
+        if (listener == null) {
+            throw new IllegalArgumentException("Listener must not be null");
+        }
+
+        int width = image.getWidth();
+        int height = image.getHeight();
+        BufferedImage filteredImage = new BufferedImage(width, height, image.getType());
+        int[] destination = RasterAccess.pixelsForWriting(filteredImage);
+        int[] source = RasterAccess.readPixels(image);
+        boolean backed = RasterAccess.isBacking(filteredImage, destination);
+
+        preview(source, destination, width, height);
+        RasterAccess.writePixels(filteredImage, destination);
+        listener.previewReady(filteredImage);
+
+        Rectangle[] tiles = tiles(width, height, viewport != null ? viewport
+            : new Rectangle(width / 2, height / 2, 1, 1));
+        AtomicInteger next = new AtomicInteger();
+        List<ForkJoinTask<?>> workers = new ArrayList<>();
+
+        // each worker takes the next tile in priority order until none are left
+        for (int w = 0; w < pool.getParallelism(); w++) {
+            workers.add(ForkJoinTask.adapt(() -> {
+                for (int t = next.getAndIncrement(); t < tiles.length; t = next.getAndIncrement()) {
+                    Rectangle tile = tiles[t];
+                    refine(source, destination, width, height, tile);
+
+                    if (!backed) {
+                        synchronized (filteredImage) {
+                            filteredImage.setRGB(tile.x, tile.y, tile.width, tile.height,
+                                destination, tile.y * width + tile.x, width);
+                        }
+                    }
+                    listener.tileReady(filteredImage, tile);
+                }
+            }));
+        }
+
+        pool.invoke(ForkJoinTask.adapt(() -> ForkJoinTask.invokeAll(workers)));
+
+        // the tiles went straight into the image, which may still need its alpha set
+        if (backed) {
+            RasterAccess.writePixels(filteredImage, destination);
+        }
+        return filteredImage;
+    }
+
+    /**
+     * Fills the destination with the image shrunk by PREVIEW_SCALE, smoothed
+     * with a window shrunk to match and scaled back up to full size.
+     */
+    private void preview(int[] source, int[] destination, int width, int height) {
+        int scale = PREVIEW_SCALE;
+        int smallWidth = (width + scale - 1) / scale;
+        int smallHeight = (height + scale - 1) / scale;
+        int[] small = new int[smallWidth * smallHeight];
+        int[] smoothed = new int[small.length];
+
+        // average each block of scale x scale pixels, smaller at the right and bottom edges
+        for (int sy = 0; sy < smallHeight; sy++) {
+            for (int sx = 0; sx < smallWidth; sx++) {
+                int red = 0;
+                int green = 0;
+                int blue = 0;
+                int count = 0;
+
+                for (int y = sy * scale; y < Math.min(height, (sy + 1) * scale); y++) {
+                    for (int x = sx * scale; x < Math.min(width, (sx + 1) * scale); x++) {
+                        int pixel = source[y * width + x];
+                        red += pixel >> 16 & 0xFF;
+                        green += pixel >> 8 & 0xFF;
+                        blue += pixel & 0xFF;
+                        count++;
+                    }
+                }
+                small[sy * smallWidth + sx] = red / count << 16 | green / count << 8 | blue / count;
+            }
+        }
+
+        // the smallest odd window that covers about the same part of the image
+        int smallWindow = Math.max(3, windowWidth / scale | 1);
+        int tileSize = Tiling.defaultTileSize(smallWidth, smallHeight, smallWindow,
+            pool.getParallelism());
+
+        if (meanEngine != null) {
+            MeanFilterParallel.smooth(small, smallWidth, smallHeight, smoothed, smallWindow,
+                tileSize, meanEngine, borderMode, pool);
+        } else {
+            MedianFilterParallel.smooth(small, smallWidth, smallHeight, smoothed, smallWindow,
+                tileSize, medianEngine, borderMode, pool);
+        }
+
+        for (int y = 0; y < height; y++) {
+            int smallRow = y / scale * smallWidth;
+
+            for (int x = 0; x < width; x++) {
+                destination[y * width + x] = smoothed[smallRow + x / scale];
+            }
+        }
+    }
+
+    /**
+     * Replaces the preview in the tile with the fully smoothed pixels, in
+     * the calling thread.
+     */
+    private void refine(int[] source, int[] destination, int width, int height,
+            Rectangle tile) {
+        // clear the preview first, as CROP leaves the pixels near the edges alone
+        for (int y = tile.y; y < tile.y + tile.height; y++) {
+            Arrays.fill(destination, y * width + tile.x, y * width + tile.x + tile.width, 0);
+        }
+
+        // filtered right here, as this already runs on a pool thread
+        if (meanEngine != null) {
+            MeanFilterParallel.filterRegion(source, width, height, destination, windowWidth,
+                meanEngine, borderMode, tile);
+        } else {
+            MedianFilterParallel.filterRegion(source, width, height, destination, windowWidth,
+                medianEngine, borderMode, tile);
+        }
+    }
+
+    /**
+     * Returns the tiles covering the image in the order to refine them: the
+     * tiles that overlap the viewport first, then the rest by their distance
+     * from the centre of the viewport.
+     */
+    private Rectangle[] tiles(int width, int height, Rectangle viewport) {
+        int tileSize = Tiling.defaultTileSize(width, height, windowWidth,
+            pool.getParallelism());
+        List<Rectangle> tiles = new ArrayList<>();
+
+        for (int y = 0; y < height; y += tileSize) {
+            for (int x = 0; x < width; x += tileSize) {
+                tiles.add(new Rectangle(x, y, Math.min(tileSize, width - x),
+                    Math.min(tileSize, height - y)));
+            }
+        }
+
+        double centreX = viewport.getCenterX();
+        double centreY = viewport.getCenterY();
+
+        // stable, so tiles in the viewport keep their row order
+        tiles.sort(Comparator.comparingDouble(tile -> tile.intersects(viewport) ? 0
+            : Math.hypot(tile.getCenterX() - centreX, tile.getCenterY() - centreY)));
+        return tiles.toArray(new Rectangle[0]);
+    }
+}
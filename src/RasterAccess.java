@@ -0,0 +1,269 @@
+import java.awt.image.BufferedImage;
+import java.awt.image.ComponentSampleModel;
+import java.awt.image.DataBuffer;
+import java.awt.image.DataBufferByte;
+import java.awt.image.DataBufferInt;
+import java.awt.image.Raster;
+import java.awt.image.SampleModel;
+import java.awt.image.SinglePixelPackedSampleModel;
+import java.util.Arrays;
+
+/**
+ * Bulk access to the pixels of an image as a flat, row-major array of
+ * packed RGB ints (red << 16 | green << 8 | blue), so the filters can run
+ * their kernels on primitive arrays instead of calling getRGB and setRGB
+ * for every pixel.
+ *
+ * Images backed by an int per pixel (TYPE_INT_RGB and TYPE_INT_ARGB) are
+ * used without copying. Images backed by interleaved bytes
+ * (TYPE_3BYTE_BGR and TYPE_4BYTE_ABGR) are unpacked straight from the
+ * backing array. Every other type goes through a single bulk getRGB or
+ * setRGB call, which gives the same values as per-pixel access.
+ *
+ * @author Jordy Kafwe
+ */
+final class RasterAccess {
+
+    private RasterAccess() {
+    }
+
+    /**
+     * Returns the pixels of the specified image as packed RGB ints.
+     * The returned array may be the backing array of the image, so it
+     * must only be read from.
+     *
+     * @param image the image to read the pixels of
+     * @return the row-major array of packed RGB ints
+     */
+    static int[] readPixels(BufferedImage image) {
+        return readPixels(image, null);
+    }
+
+    /**
+     * Returns the pixels of the specified image as packed RGB ints, taking
+     * the array from the specified pool when the image has no backing int
+     * array. The returned array may be the backing array of the image, so it
+     * must only be read from.
+     *
+     * @param image the image to read the pixels of
+     * @param images the pool to take the array from, or null to allocate it
+     * @return the row-major array of packed RGB ints
+     */
+    static int[] readPixels(BufferedImage image, ImagePool images) {
+        int[] backing = backingInts(image);
+
+        if (backing != null) {
+            return backing;
+        }
+
+        byte[] bytes = backingBytes(image);
+
+        if (bytes != null) {
+            int width = image.getWidth();
+            int height = image.getHeight();
+            int pixelStride = image.getType() == BufferedImage.TYPE_3BYTE_BGR ? 3 : 4;
+            int offset = pixelStride - 3; // skips the alpha byte of ABGR pixels
+            int[] pixels = newPixels(width * height, images);
+
+            for (int p = 0, b = offset; p < pixels.length; p++, b += pixelStride) {
+                pixels[p] = (bytes[b + 2] & 0xFF) << 16
+                    | (bytes[b + 1] & 0xFF) << 8 | bytes[b] & 0xFF;
+            }
+            return pixels;
+        }
+
+        return image.getRGB(0, 0, image.getWidth(), image.getHeight(),
+            images == null ? null : images.pixels(image.getWidth() * image.getHeight()), 
+            0, image.getWidth());
+    }
+
+    /**
+     * Returns an array that the filtered pixels of the specified image can
+     * be written to. The array is the backing array of the image when it
+     * has one, otherwise a new array that must be passed to
+     * {@link #writePixels(BufferedImage, int[])} once it is complete.
+     *
+     * @param image the image that will hold the filtered pixels
+     * @return the row-major array to write packed RGB ints to
+     */
+    static int[] pixelsForWriting(BufferedImage image) {
+        return pixelsForWriting(image, null);
+    }
+
+    /**
+     * Returns an array that the filtered pixels of the specified image can
+     * be written to, taking it from the specified pool when the image has
+     * no backing int array. Every element of the array is zero.
+     *
+     * @param image the image that will hold the filtered pixels, which must 
+     * be black if it has a backing int array
+     * @param images the pool to take the array from, or null to allocate it
+     * @return the row-major array to write packed RGB ints to
+     */
+    static int[] pixelsForWriting(BufferedImage image, ImagePool images) {
+        int[] backing = backingInts(image);
+
+        if (backing != null) {
+            return backing;
+        }
+
+        return newPixels(image.getWidth() * image.getHeight(), images);
+    }
+
+    /**
+     * Writes the specified packed RGB ints to the image in bulk. The packed
+     * ints carry no alpha, so an image with alpha is made fully opaque
+     * rather than left transparent, setting the alpha bits of the array
+     * itself when it is the backing array of the image or when the image
+     * has no backing array.
+     *
+     * @param image the image to write the pixels to
+     * @param pixels the row-major array of packed RGB ints
+     */
+    static void writePixels(BufferedImage image, int[] pixels) {
+        if (pixels == backingInts(image)) {
+            if (image.getType() == BufferedImage.TYPE_INT_ARGB) {
+                makeOpaque(pixels);
+            }
+            return;
+        }
+
+        byte[] bytes = backingBytes(image);
+
+        if (bytes != null) {
+            boolean hasAlpha = image.getType() == BufferedImage.TYPE_4BYTE_ABGR;
+            int pixelStride = hasAlpha ? 4 : 3;
+
+            for (int p = 0, b = 0; p < pixels.length; p++, b += pixelStride) {
+                int pixel = pixels[p];
+                int sample = b;
+
+                if (hasAlpha) {
+                    bytes[sample++] = (byte) 0xFF;
+                }
+                bytes[sample] = (byte) pixel;
+                bytes[sample + 1] = (byte) (pixel >> 8);
+                bytes[sample + 2] = (byte) (pixel >> 16);
+            }
+            return;
+        }
+
+        // setRGB stores the alpha of the packed ints, which the filters leave at 0
+        if (image.getColorModel().hasAlpha()) {
+            makeOpaque(pixels);
+        }
+        image.setRGB(0, 0, image.getWidth(), image.getHeight(),
+            pixels, 0, image.getWidth());
+    }
+
+    private static void makeOpaque(int[] pixels) {
+        for (int p = 0; p < pixels.length; p++) {
+            pixels[p] |= 0xFF000000;
+        }
+    }
+
+    /**
+     * Sets every pixel of the specified image to zero in bulk, if it is
+     * backed by a plain int or byte array.
+     *
+     * @param image the image to clear
+     * @return true if the image was cleared, false if it has no such array
+     */
+    static boolean clear(BufferedImage image) {
+        int[] ints = backingInts(image);
+
+        if (ints != null) {
+            Arrays.fill(ints, 0);
+            return true;
+        }
+
+        byte[] bytes = backingBytes(image);
+
+        if (bytes != null) {
+            Arrays.fill(bytes, (byte) 0);
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Returns true if the specified array is the backing array of the image,
+     * as returned by readPixels or pixelsForWriting for int backed images.
+     *
+     * @param image the image to check
+     * @param pixels the array to check
+     * @return true if the array holds the pixels of the image itself
+     */
+    static boolean isBacking(BufferedImage image, int[] pixels) {
+        return pixels == backingInts(image);
+    }
+
+    private static int[] newPixels(int length, ImagePool images) {
+        return images == null ? new int[length] : images.pixels(length);
+    }
+
+    /**
+     * Returns the backing int array of an image that stores one packed
+     * sRGB pixel per int with no padding, or null if it has none.
+     */
+    private static int[] backingInts(BufferedImage image) {
+        int type = image.getType();
+
+        if (type != BufferedImage.TYPE_INT_RGB && type != BufferedImage.TYPE_INT_ARGB) {
+            return null;
+        }
+
+        Raster raster = image.getRaster();
+        SampleModel model = raster.getSampleModel();
+        DataBuffer buffer = raster.getDataBuffer();
+
+        if (!(buffer instanceof DataBufferInt) || !isUnpadded(image)
+                || !(model instanceof SinglePixelPackedSampleModel)
+                || ((SinglePixelPackedSampleModel) model).getScanlineStride() != image.getWidth()
+                || buffer.getNumBanks() != 1 || buffer.getOffset() != 0) {
+            return null;
+        }
+
+        return ((DataBufferInt) buffer).getData();
+    }
+
+    /**
+     * Returns the backing byte array of a BGR or ABGR image that stores
+     * interleaved sRGB samples with no padding, or null if it has none.
+     */
+    private static byte[] backingBytes(BufferedImage image) {
+        int type = image.getType();
+
+        if (type != BufferedImage.TYPE_3BYTE_BGR && type != BufferedImage.TYPE_4BYTE_ABGR) {
+            return null;
+        }
+
+        Raster raster = image.getRaster();
+        SampleModel model = raster.getSampleModel();
+        DataBuffer buffer = raster.getDataBuffer();
+        int pixelStride = type == BufferedImage.TYPE_3BYTE_BGR ? 3 : 4;
+
+        if (!(buffer instanceof DataBufferByte) || !isUnpadded(image)
+                || !(model instanceof ComponentSampleModel)
+                || ((ComponentSampleModel) model).getPixelStride() != pixelStride
+                || ((ComponentSampleModel) model).getScanlineStride() != image.getWidth() * pixelStride
+                || buffer.getNumBanks() != 1 || buffer.getOffset() != 0) {
+            return null;
+        }
+
+        return ((DataBufferByte) buffer).getData();
+    }
+
+    /**
+     * Checks that the raster of the image is not a child of a larger raster
+     * and that its colours are plain sRGB, so its samples can be read as is.
+     */
+    private static boolean isUnpadded(BufferedImage image) {
+        Raster raster = image.getRaster();
+
+        return raster.getParent() == null
+            && raster.getSampleModelTranslateX() == 0
+            && raster.getSampleModelTranslateY() == 0
+            && image.getColorModel().getColorSpace().isCS_sRGB();
+    }
+}
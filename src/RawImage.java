@@ -0,0 +1,134 @@
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Reads and writes images in a simple uncompressed container, so that
+ * intermediate results can pass between filter passes without JPEG or
+ * PNG codec work and without losing quality.
+ *
+ * A file holds a 16 byte big-endian header (the magic bytes RGBP, the
+ * width, the height and the number of channels, which is 3) followed by
+ * the red, green and blue planes, each width * height bytes in row-major
+ * order. The planes are accessed through FileChannel.map, so reading and
+ * writing is a single pass over the mapped pages with no stream buffering.
+ *
+ * Reading copies the planes into a packed TYPE_INT_RGB image rather than
+ * wrapping the mapped buffer, as the filters work on packed RGB ints and
+ * an image over the planes would fall back to per-pixel getRGB access.
+ *
+ * Files use the .rgbp extension, as recognised by ImageFiles.
+ *
+ * @author Jordy Kafwe
+ */
+final class RawImage {
+
+    /** The extension of raw image files. */
+    static final String EXTENSION = "rgbp";
+
+    /** The magic bytes RGBP at the start of every file. */
+    private static final int MAGIC = 0x52474250;
+    private static final int HEADER_SIZE = 16;
+    private static final int CHANNELS = 3;
+
+    private RawImage() {
+    }
+
+    /**
+     * Reads the specified raw image into a TYPE_INT_RGB image.
+     *
+     * @param file the raw image file to read
+     * @return the image
+     * @throws IOException if the file cannot be read or is not a raw image
+     */
+    static BufferedImage read(File file) throws IOException {
+        try (RandomAccessFile in = new RandomAccessFile(file, "r");
+                FileChannel channel = in.getChannel()) {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+
+            while (header.hasRemaining() && channel.read(header) >= 0) {
+                // read until the header is complete or the file ends
+            }
+            header.flip();
+
+            if (header.remaining() < HEADER_SIZE || header.getInt() != MAGIC) {
+                throw new IOException(file + " is not a raw RGB image");
+            }
+
+            int width = header.getInt();
+            int height = header.getInt();
+            int channels = header.getInt();
+            long planeSize = (long) width * height;
+
+            if (width < 1 || height < 1 || channels != CHANNELS || planeSize > Integer.MAX_VALUE
+                    || channel.size() < HEADER_SIZE + CHANNELS * planeSize) {
+                throw new IOException(file + " has an invalid raw RGB header");
+            }
+
+            BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+            int[] pixels = RasterAccess.pixelsForWriting(image);
+            byte[] row = new byte[width];
+
+            // OR each plane into its byte of the packed pixels, red first
+            for (int c = 0; c < CHANNELS; c++) {
+                MappedByteBuffer plane = channel.map(FileChannel.MapMode.READ_ONLY,
+                    HEADER_SIZE + c * planeSize, planeSize);
+                int shift = 16 - 8 * c;
+
+                for (int y = 0, p = 0; y < height; y++) {
+                    plane.get(row);
+
+                    for (int x = 0; x < width; x++, p++) {
+                        pixels[p] |= (row[x] & 0xFF) << shift;
+                    }
+                }
+            }
+
+            RasterAccess.writePixels(image, pixels);
+            return image;
+        }
+    }
+
+    /**
+     * Writes the RGB values of the specified image to a raw image file,
+     * replacing any existing file. Alpha is not stored.
+     *
+     * @param image the image to write
+     * @param file the file to write to
+     * @throws IOException if the file cannot be written
+     */
+    static void write(BufferedImage image, File file) throws IOException {
+        int width = image.getWidth();
+        int height = image.getHeight();
+        long planeSize = (long) width * height;
+        int[] pixels = RasterAccess.readPixels(image);
+
+        try (RandomAccessFile out = new RandomAccessFile(file, "rw");
+                FileChannel channel = out.getChannel()) {
+            out.setLength(HEADER_SIZE + CHANNELS * planeSize);
+
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            header.putInt(MAGIC).putInt(width).putInt(height).putInt(CHANNELS).flip();
+            channel.write(header, 0);
+
+            byte[] row = new byte[width];
+
+            for (int c = 0; c < CHANNELS; c++) {
+                MappedByteBuffer plane = channel.map(FileChannel.MapMode.READ_WRITE,
+                    HEADER_SIZE + c * planeSize, planeSize);
+                int shift = 16 - 8 * c;
+
+                for (int y = 0, p = 0; y < height; y++) {
+                    for (int x = 0; x < width; x++, p++) {
+                        row[x] = (byte) (pixels[p] >> shift);
+                    }
+                    plane.put(row);
+                }
+            }
+        }
+    }
+}
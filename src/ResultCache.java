@@ -0,0 +1,294 @@
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.lang.System.Logger;
+import java.lang.System.Logger.Level;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.UnaryOperator;
+
+/**
+ * A content-addressed cache of smoothed images, so smoothing the same
+ * pixels with the same filter again skips the filter entirely.
+ *
+ * Results are keyed by the SHA-256 hash of the RGB values and size of the
+ * source image together with the filter, window width and border mode.
+ * The engine is left out of the key, since every engine of a filter gives
+ * the same pixels. Recently used results are kept in memory up to a number
+ * of bytes, evicting the least recently used first, and every result can
+ * also be kept on disk as a raw image named after its key, where later
+ * JVMs find it.
+ *
+ * The cache used by the command line programs is configured with system
+ * properties: smoother.cache names the directory of the disk tier and
+ * smoother.cache.memory the size of the memory tier in megabytes. Without
+ * either, the shared cache simply runs the filter.
+ *
+ * @author Jordy Kafwe
+ */
+public final class ResultCache {
+
+    private static final Logger LOGGER = System.getLogger(ResultCache.class.getName());
+    private static final ResultCache SHARED = new ResultCache(
+        Long.getLong("smoother.cache.memory", 0) * 1024 * 1024,
+        System.getProperty("smoother.cache") == null 
+            ? null : new File(System.getProperty("smoother.cache")));
+
+    /** The number of pixels hashed at a time. */
+    private static final int HASH_CHUNK = 16 * 1024;
+
+    private final long maxMemoryBytes;
+    private final File directory;
+    private final Map<String, int[]> memory = new LinkedHashMap<>(16, 0.75f, true);
+    private long memoryBytes;
+    private long hits;
+    private long misses;
+
+    /**
+     * Constructs a new ResultCache with the specified tiers.
+     *
+     * @param maxMemoryBytes the most bytes of pixels to keep in memory, or 0
+     * for no memory tier
+     * @param directory the directory to keep results in, or null for no disk tier
+     * @throws IllegalArgumentException if maxMemoryBytes is negative
+     */
+    public ResultCache(long maxMemoryBytes, File directory) {
+        if (maxMemoryBytes < 0) {
+            throw new IllegalArgumentException("Cache memory must not be negative");
+        }
+
+        this.maxMemoryBytes = maxMemoryBytes;
+        this.directory = directory;
+    }
+
+    /**
+     * Returns the cache configured by the smoother.cache and 
+     * smoother.cache.memory system properties.
+     *
+     * @return the shared cache, which may have no tiers
+     */
+    public static ResultCache shared() {
+        return SHARED;
+    }
+
+    /**
+     * Returns the smoothed image from the cache, or runs the filter and 
+     * caches its result. The returned image is never shared with the cache,
+     * so it may be modified.
+     *
+     * @param image the image to smooth
+     * @param filterName the name of the filter, e.g. mean
+     * @param windowWidth the width of the window of the filter
+     * @param borderMode the border mode of the filter
+     * @param filter runs the filter on the image when the result is not cached
+     * @return the smoothed image, of the same type as the source image
+     */
+    public BufferedImage apply(BufferedImage image, String filterName, int windowWidth, 
+            BorderMode borderMode, UnaryOperator<BufferedImage> filter) {
+        if (maxMemoryBytes == 0 && directory == null) {
+            return filter.apply(image);
+        }
+
+        int width = image.getWidth();
+        int height = image.getHeight();
+        String key = hash(RasterAccess.readPixels(image), width, height) 
+            + "-" + filterName.replaceAll("[^A-Za-z0-9._-]", "_") 
+            + "-w" + windowWidth + "-" + borderMode;
+        int[] pixels = lookUp(key, width, height);
+
+        if (pixels != null) {
+            return toImage(pixels, width, height, image.getType());
+        }
+
+        BufferedImage filteredImage = filter.apply(image);
+        int[] filtered = RasterAccess.readPixels(filteredImage);
+        pixels = new int[filtered.length];
+
+        // the filters leave alpha at zero, which a raw image would not store anyway
+        for (int p = 0; p < pixels.length; p++) {
+            pixels[p] = filtered[p] & 0xFFFFFF;
+        }
+
+        store(key, pixels, width, height);
+        return filteredImage;
+    }
+
+    /**
+     * Returns the number of results found in either tier.
+     *
+     * @return the number of cache hits
+     */
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    /**
+     * Returns the number of results that had to be filtered.
+     *
+     * @return the number of cache misses
+     */
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    /**
+     * Returns the number of bytes of pixels held in memory.
+     *
+     * @return the size of the memory tier
+     */
+    public synchronized long getMemoryBytes() {
+        return memoryBytes;
+    }
+
+    /**
+     * Returns the cached pixels for the key, from memory or else from disk,
+     * or null if neither tier has them.
+     */
+    private int[] lookUp(String key, int width, int height) {
+        synchronized (this) {
+            int[] pixels = memory.get(key);
+
+            if (pixels != null) {
+                hits++;
+                return pixels;
+            }
+        }
+
+        File file = file(key);
+
+        if (file != null && file.isFile()) {
+            try {
+                BufferedImage cached = RawImage.read(file);
+
+                if (cached.getWidth() == width && cached.getHeight() == height) {
+                    int[] pixels = RasterAccess.readPixels(cached);
+
+                    synchronized (this) {
+                        hits++;
+                        remember(key, pixels);
+                    }
+                    return pixels;
+                }
+            } catch (IOException e) {
+                LOGGER.log(Level.WARNING, "Could not read cached result {0}: {1}", 
+                    file, e.getMessage());
+            }
+        }
+
+        synchronized (this) {
+            misses++;
+        }
+        return null;
+    }
+
+    /**
+     * Keeps the pixels in memory and writes them to disk. Each file is 
+     * written under a temporary name and then renamed, so another JVM never 
+     * reads a partly written result.
+     */
+    private void store(String key, int[] pixels, int width, int height) {
+        synchronized (this) {
+            remember(key, pixels);
+        }
+
+        File file = file(key);
+
+        if (file == null) {
+            return;
+        }
+
+        try {
+            directory.mkdirs();
+            File temporary = File.createTempFile(key, ".tmp", directory);
+
+            try {
+                RawImage.write(toImage(pixels, width, height, BufferedImage.TYPE_INT_RGB), 
+                    temporary);
+                Files.move(temporary.toPath(), file.toPath(), StandardCopyOption.ATOMIC_MOVE, 
+                    StandardCopyOption.REPLACE_EXISTING);
+            } finally {
+                temporary.delete();
+            }
+        } catch (IOException e) {
+            // the disk tier is only a cache, so the result is simply filtered again next time
+            LOGGER.log(Level.WARNING, "Could not cache result {0}: {1}", file, e.getMessage());
+        }
+    }
+
+    /**
+     * Adds the pixels to the memory tier, evicting the least recently used 
+     * results until it fits. Results larger than the whole tier are not kept.
+     */
+    private void remember(String key, int[] pixels) {
+        long bytes = 4L * pixels.length;
+
+        if (bytes > maxMemoryBytes) {
+            return;
+        }
+
+        int[] previous = memory.put(key, pixels);
+        memoryBytes += bytes - (previous == null ? 0 : 4L * previous.length);
+
+        Iterator<int[]> eldest = memory.values().iterator();
+        while (memoryBytes > maxMemoryBytes) {
+            memoryBytes -= 4L * eldest.next().length;
+            eldest.remove();
+        }
+    }
+
+    private File file(String key) {
+        return directory == null ? null : new File(directory, key + "." + RawImage.EXTENSION);
+    }
+
+    private static BufferedImage toImage(int[] pixels, int width, int height, int type) {
+        BufferedImage image = new BufferedImage(width, height, type);
+        int[] destination = RasterAccess.pixelsForWriting(image);
+        System.arraycopy(pixels, 0, destination, 0, pixels.length);
+        RasterAccess.writePixels(image, destination);
+        return image;
+    }
+
+    /**
+     * Returns the SHA-256 hash of the size and RGB values of the pixels in hex.
+     */
+    private static String hash(int[] pixels, int width, int height) {
+        MessageDigest digest;
+
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            // every Java platform is required to support SHA-256
+            throw new IllegalStateException(e);
+        }
+
+        ByteBuffer bytes = ByteBuffer.allocate(4 * HASH_CHUNK);
+        IntBuffer ints = bytes.asIntBuffer();
+        bytes.putInt(width).putInt(height).flip();
+        digest.update(bytes);
+
+        for (int start = 0; start < pixels.length; start += HASH_CHUNK) {
+            int end = Math.min(start + HASH_CHUNK, pixels.length);
+            ints.clear();
+
+            // alpha does not change the result, so it is left out of the key
+            for (int p = start; p < end; p++) {
+                ints.put(pixels[p] & 0xFFFFFF);
+            }
+            bytes.clear().limit(4 * (end - start));
+            digest.update(bytes);
+        }
+
+        StringBuilder hex = new StringBuilder();
+        for (byte b : digest.digest()) {
+            hex.append(String.format("%02x", b));
+        }
+        return hex.toString();
+    }
+}
@@ -0,0 +1,136 @@
+import java.util.Arrays;
+
+/**
+ * The working arrays of the filter kernels, kept per thread so a leaf task
+ * reuses the arrays of the previous leaf on its worker instead of
+ * allocating its own. The Fork/Join workers live as long as their pool, so
+ * in steady state filtering allocates nothing on the hot path.
+ *
+ * Arrays are handed out by slot, with separate slots for each kind of
+ * array. An array is only valid until the same slot is asked for again on
+ * the same thread, so the region kernels use slots 0 to 5 among themselves
+ * and FilterPipeline keeps int slots 6 and 7 for the tile buffers that
+ * outlive the kernels it calls. Arrays of more than MAX_POOLED elements,
+ * e.g. the column histograms of a serial filter on a huge image, are
+ * allocated each time rather than held forever.
+ *
+ * @author Jordy Kafwe
+ */
+final class Scratch {
+
+    /** The number of slots of each array type. */
+    private static final int SLOTS = 8;
+
+    /** The largest array kept per slot, 4 MB of ints or floats and 8 MB of doubles. */
+    private static final int MAX_POOLED = 1 << 20;
+
+    private static final ThreadLocal<Scratch> BUFFERS = ThreadLocal.withInitial(Scratch::new);
+
+    private final int[][] ints = new int[SLOTS][];
+    private final int[][] windows = new int[SLOTS][];
+    private final float[][] floats = new float[SLOTS][];
+    private final double[][] doubles = new double[SLOTS][];
+
+    private Scratch() {
+    }
+
+    /**
+     * Returns the working arrays of the calling thread.
+     *
+     * @return the scratch buffers of the thread
+     */
+    static Scratch get() {
+        return BUFFERS.get();
+    }
+
+    /**
+     * Returns an int array of at least the specified length whose first
+     * length elements are zero.
+     *
+     * @param slot the slot of the array, from 0 to 7
+     * @param length the number of elements needed
+     * @return the zeroed array
+     */
+    int[] ints(int slot, int length) {
+        int[] array = ints[slot];
+
+        if (array == null || array.length < length) {
+            array = new int[length];
+
+            if (length <= MAX_POOLED) {
+                ints[slot] = array;
+            }
+            return array;
+        }
+
+        Arrays.fill(array, 0, length, 0);
+        return array;
+    }
+
+    /**
+     * Returns an int array of exactly the specified length, holding
+     * whatever the previous user left in it. Suits window buffers whose
+     * length is part of their meaning and which are overwritten before use.
+     *
+     * @param slot the slot of the array, from 0 to 7
+     * @param length the length of the array
+     * @return the array, not cleared
+     */
+    int[] window(int slot, int length) {
+        int[] array = windows[slot];
+
+        if (array == null || array.length != length) {
+            array = new int[length];
+
+            if (length <= MAX_POOLED) {
+                windows[slot] = array;
+            }
+        }
+        return array;
+    }
+
+    /**
+     * Returns a float array of at least the specified length, holding
+     * whatever the previous user left in it.
+     *
+     * @param slot the slot of the array, from 0 to 7
+     * @param length the number of elements needed
+     * @return the array, not cleared
+     */
+    float[] floats(int slot, int length) {
+        float[] array = floats[slot];
+
+        if (array == null || array.length < length) {
+            array = new float[length];
+
+            if (length <= MAX_POOLED) {
+                floats[slot] = array;
+            }
+        }
+        return array;
+    }
+
+    /**
+     * Returns a double array of at least the specified length whose first
+     * length elements are zero.
+     *
+     * @param slot the slot of the array, from 0 to 7
+     * @param length the number of elements needed
+     * @return the zeroed array
+     */
+    double[] doubles(int slot, int length) {
+        double[] array = doubles[slot];
+
+        if (array == null || array.length < length) {
+            array = new double[length];
+
+            if (length <= MAX_POOLED) {
+                doubles[slot] = array;
+            }
+            return array;
+        }
+
+        Arrays.fill(array, 0, length, 0);
+        return array;
+    }
+}
@@ -0,0 +1,182 @@
+/**
+ * Finds the median of a window without sorting it. The 9 values of a
+ * 3x3 window and the 25 values of a 5x5 window go through fixed median
+ * networks of min/max exchanges, which the JIT compiles to branch-free
+ * conditional moves. Larger windows use quickselect, which only
+ * partitions the side of the window that holds the median.
+ *
+ * The median is the value at index length / 2 of the sorted window,
+ * exactly as the sorting filters pick it.
+ *
+ * @author Jordy Kafwe
+ */
+final class SelectionMedian {
+
+    /**
+     * The exchanges of the median network for 9 values (Paeth, as listed
+     * by Devillard). Each pair of indices is put in ascending order and the
+     * median ends up at index 4.
+     */
+    private static final int[] NETWORK_9 = {
+        1, 2, 4, 5, 7, 8, 0, 1, 3, 4, 6, 7, 1, 2, 4, 5, 7, 8,
+        0, 3, 5, 8, 4, 7, 3, 6, 1, 4, 2, 5, 4, 7, 4, 2, 6, 4,
+        4, 2
+    };
+
+    /**
+     * The exchanges of the median network for 25 values (as listed by
+     * Devillard). Each pair of indices is put in ascending order and the
+     * median ends up at index 12.
+     */
+    private static final int[] NETWORK_25 = {
+        0, 1, 3, 4, 2, 4, 2, 3, 6, 7, 5, 7, 5, 6, 9, 10, 8, 10,
+        8, 9, 12, 13, 11, 13, 11, 12, 15, 16, 14, 16, 14, 15, 18, 19, 17, 19,
+        17, 18, 21, 22, 20, 22, 20, 21, 23, 24, 2, 5, 3, 6, 0, 6,
+        0, 3, 4, 7, 1, 7, 1, 4, 11, 14, 8, 14, 8, 11, 12, 15, 9, 15,
+        9, 12, 13, 16, 10, 16, 10, 13, 20, 23, 17, 23, 17, 20, 21, 24, 18, 24,
+        18, 21, 19, 22, 8, 17, 9, 18, 0, 18, 0, 9, 10, 19, 1, 19, 1, 10,
+        11, 20, 2, 20, 2, 11, 12, 21, 3, 21, 3, 12, 13, 22, 4, 22, 4, 13,
+        14, 23, 5, 23, 5, 14, 15, 24, 6, 24, 6, 15, 7, 16, 7, 19, 13, 21,
+        15, 23, 7, 13, 7, 15, 1, 9, 3, 11, 5, 17, 11, 17, 9, 17, 4, 10,
+        6, 12, 7, 14, 4, 6, 4, 7, 12, 14, 10, 14, 6, 7, 10, 12, 6, 10,
+        6, 17, 12, 17, 7, 17, 7, 10, 12, 18, 7, 12, 10, 18, 12, 20, 10, 20,
+        10, 12
+    };
+
+    private SelectionMedian() {
+    }
+
+    /**
+     * Returns the median of the specified values, reordering them in the
+     * process.
+     *
+     * @param values the values of the window
+     * @return the value at index values.length / 2 of the sorted window
+     */
+    static int median(int[] values) {
+        switch (values.length) {
+            case 9:
+                return network(values, NETWORK_9);
+            case 25:
+                return network(values, NETWORK_25);
+            default:
+                return quickselect(values, values.length / 2);
+        }
+    }
+
+    /**
+     * Applies the median filter to the region from (xStart, yStart) inclusive
+     * to (xEnd, yEnd) exclusive of the source pixels and writes the results
+     * to the destination pixels. The region must lie at least
+     * (windowWidth - 1) / 2 pixels away from the edges of the image.
+     *
+     * @param source the row-major packed RGB pixels to read from
+     * @param destination the row-major packed RGB pixels to write to
+     * @param width the width of the image
+     * @param windowWidth the width of the window to use for the filter
+     * @param xStart the first column to filter
+     * @param yStart the first row to filter
+     * @param xEnd the column after the last column to filter
+     * @param yEnd the row after the last row to filter
+     */
+    static void filter(int[] source, int[] destination, int width, int windowWidth, 
+            int xStart, int yStart, int xEnd, int yEnd) {
+        int neighbouringPixels = (windowWidth - 1) / 2;
+        int windowSize = windowWidth * windowWidth;
+        Scratch scratch = Scratch.get();
+        int[] redValues = scratch.window(0, windowSize);
+        int[] greenValues = scratch.window(1, windowSize);
+        int[] blueValues = scratch.window(2, windowSize);
+
+        for (int y = yStart; y < yEnd; y++) {
+            for (int x = xStart; x < xEnd; x++) {
+                int index = 0;
+
+                for (int j = y - neighbouringPixels; j <= y + neighbouringPixels; j++) {
+                    for (int i = x - neighbouringPixels; i <= x + neighbouringPixels; i++) {
+                        int pixel = source[j * width + i];
+                        redValues[index] = pixel >> 16 & 0xFF;
+                        greenValues[index] = pixel >> 8 & 0xFF;
+                        blueValues[index] = pixel & 0xFF;
+                        index++;
+                    }
+                }
+
+                destination[y * width + x] = median(redValues) << 16
+                    | median(greenValues) << 8 | median(blueValues);
+            }
+        }
+    }
+
+    /**
+     * Runs the values through the specified median network and returns
+     * the value left in the middle.
+     */
+    private static int network(int[] values, int[] exchanges) {
+        for (int e = 0; e < exchanges.length; e += 2) {
+            int low = exchanges[e];
+            int high = exchanges[e + 1];
+            int a = values[low];
+            int b = values[high];
+            values[low] = Math.min(a, b);
+            values[high] = Math.max(a, b);
+        }
+        return values[values.length / 2];
+    }
+
+    /**
+     * Returns the value at index k of the sorted values using Hoare's
+     * quickselect with a median-of-three pivot.
+     */
+    private static int quickselect(int[] values, int k) {
+        int low = 0;
+        int high = values.length - 1;
+
+        while (low < high) {
+            // order the first, middle and last values and pivot on the middle one
+            int mid = (low + high) >>> 1;
+            if (values[mid] < values[low]) {
+                swap(values, mid, low);
+            }
+            if (values[high] < values[low]) {
+                swap(values, high, low);
+            }
+            if (values[high] < values[mid]) {
+                swap(values, high, mid);
+            }
+            int pivot = values[mid];
+
+            int i = low;
+            int j = high;
+            while (i <= j) {
+                while (values[i] < pivot) {
+                    i++;
+                }
+                while (values[j] > pivot) {
+                    j--;
+                }
+                if (i <= j) {
+                    swap(values, i, j);
+                    i++;
+                    j--;
+                }
+            }
+
+            // keep only the side that holds index k
+            if (k <= j) {
+                high = j;
+            } else if (k >= i) {
+                low = i;
+            } else {
+                break;
+            }
+        }
+        return values[k];
+    }
+
+    private static void swap(int[] values, int i, int j) {
+        int value = values[i];
+        values[i] = values[j];
+        values[j] = value;
+    }
+}
@@ -0,0 +1,345 @@
+import java.awt.image.BufferedImage;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Smooths an image on several ShardWorker processes, which may run on
+ * this machine or on others, so one image can use more cores than a
+ * single JVM has.
+ *
+ * The image is split into bands of whole rows, several per worker, which
+ * are kept in one shared queue. Each worker has its own sender that takes
+ * the next band from the queue as soon as the worker has answered, so fast
+ * workers filter more of the image and a slow worker holds up only the
+ * band it is working on. Each shard is padded with a
+ * halo of (windowWidth - 1) / 2 pixels on every side, taken from the
+ * neighbouring rows or, past the edges of the image, filled as the border
+ * mode says, so the workers only ever filter the interior of a shard and
+ * the stitched image matches the one the parallel filters produce.
+ *
+ * A worker that cannot be reached, drops the connection or does not
+ * answer within the timeout is skipped for the rest of the image and its
+ * shard goes back in the queue for the other workers, so the image is
+ * still smoothed as long as one worker is left.
+ *
+ * @author Jordy Kafwe
+ */
+public class ShardCoordinator {
+
+    private final List<InetSocketAddress> workers;
+    private final int shardsPerWorker;
+    private final int timeoutMillis;
+
+    /**
+     * Constructs a new ShardCoordinator that sends shards to the specified
+     * workers.
+     *
+     * @param workers the addresses of the workers
+     * @param shardsPerWorker the number of shards to split the image into per worker
+     * @param timeoutMillis the longest time to wait for a worker to connect or
+     * to answer before sending its shard elsewhere
+     * @throws IllegalArgumentException if there are no workers, or if
+     * shardsPerWorker or timeoutMillis is less than 1
+     */
+    public ShardCoordinator(List<InetSocketAddress> workers, int shardsPerWorker,
+    int timeoutMillis) {
+        if (workers == null || workers.isEmpty()) {
+            throw new IllegalArgumentException("At least one worker is needed");
+        }
+        if (shardsPerWorker < 1 || timeoutMillis < 1) {
+            throw new IllegalArgumentException(
+                "Shards per worker and timeout must be at least 1");
+        }
+
+        this.workers = List.copyOf(workers);
+        this.shardsPerWorker = shardsPerWorker;
+        this.timeoutMillis = timeoutMillis;
+    }
+
+    /**
+     * Smooths the specified image on the workers using the mean or median
+     * filter with the specified window width, engine and border mode.
+     *
+     * @param image the image to smooth
+     * @param filterName mean or median
+     * @param windowWidth the width of the window to use for the filter
+     * @param engineName the name of the mean or median engine to use
+     * @param borderMode how to filter the pixels whose window reaches past the edges
+     * @return the smoothed image
+     * @throws IOException if a shard could not be filtered by any worker
+     * @throws IllegalArgumentException if the filter or engine is unknown, if
+     * the window width is not odd or if it is less than 3, or if the border
+     * mode is null
+     */
+    public BufferedImage smooth(BufferedImage image, String filterName, int windowWidth,
+    String engineName, BorderMode borderMode) throws IOException {
+        // check the settings here rather than once for every shard on the workers
+        if (filterName.equals("mean")) {
+            MeanEngine.fromName(engineName);
+        } else if (filterName.equals("median")) {
+            MedianEngine.fromName(engineName);
+        } else {
+            throw new IllegalArgumentException("Filter must be mean or median");
+        }
+        if (windowWidth % 2 == 0 || windowWidth < 3) {
+            throw new IllegalArgumentException("Window width must be odd and greater than 2");
+        }
+        if (borderMode == null) {
+            throw new IllegalArgumentException("Border mode must not be null");
+        }
+
+        int width = image.getWidth();
+        int height = image.getHeight();
+        int neighbouringPixels = (windowWidth - 1) / 2;
+        BufferedImage filteredImage = new BufferedImage(width, height, image.getType());
+        int[] destination = RasterAccess.pixelsForWriting(filteredImage);
+        int[] source = RasterAccess.readPixels(image);
+
+        // CROP and SOURCE leave the edges to the coordinator, the other modes
+        // fill a halo past the edges so every pixel is filtered on a worker
+        boolean padded = borderMode != BorderMode.CROP && borderMode != BorderMode.SOURCE;
+        int padding = padded ? neighbouringPixels : 0;
+        int top = neighbouringPixels - padding;
+        int bottom = height - top;
+        int shardWidth = width + 2 * padding;
+
+        if (bottom > top && shardWidth > 2 * neighbouringPixels) {
+            int shards = Math.min(bottom - top, workers.size() * shardsPerWorker);
+            Queue<Integer> queue = new ConcurrentLinkedQueue<>();
+            Set<InetSocketAddress> failed = ConcurrentHashMap.newKeySet();
+            AtomicReference<IOException> lastFailure = new AtomicReference<>();
+            ExecutorService senders = Executors.newFixedThreadPool(workers.size());
+
+            for (int s = 0; s < shards; s++) {
+                queue.add(s);
+            }
+
+            try {
+                // a shard given back by a failing worker after the others ran out
+                // of shards is picked up by another round of the remaining workers
+                while (!queue.isEmpty()) {
+                    List<Future<?>> results = new ArrayList<>();
+
+                    for (InetSocketAddress worker : workers) {
+                        if (failed.contains(worker)) {
+                            continue;
+                        }
+
+                        // each worker takes the next shard as soon as it is free
+                        results.add(senders.submit(() -> {
+                            for (Integer shard = queue.poll(); shard != null; 
+                                    shard = queue.poll()) {
+                                int yStart = top + (int) ((long) (bottom - top) * shard / shards);
+                                int yEnd = top + (int) ((long) (bottom - top) * (shard + 1) 
+                                    / shards);
+                                int[] pixels = pad(source, width, height, borderMode, padding,
+                                    neighbouringPixels, yStart, yEnd);
+                                int[] filtered;
+
+                                try {
+                                    filtered = send(worker, pixels, shardWidth,
+                                        yEnd - yStart + 2 * neighbouringPixels, filterName,
+                                        engineName, windowWidth);
+                                } catch (IOException e) {
+                                    // give the shard back and stop using this worker
+                                    failed.add(worker);
+                                    lastFailure.set(e);
+                                    queue.add(shard);
+                                    return null;
+                                }
+
+                                int innerWidth = shardWidth - 2 * neighbouringPixels;
+
+                                for (int y = yStart; y < yEnd; y++) {
+                                    System.arraycopy(filtered, (y - yStart) * innerWidth, 
+                                        destination, y * width + neighbouringPixels - padding, 
+                                        innerWidth);
+                                }
+                            }
+                            return null;
+                        }));
+                    }
+
+                    if (results.isEmpty()) {
+                        throw new IOException("No worker could filter shard " + queue.peek(),
+                            lastFailure.get());
+                    }
+
+                    for (Future<?> result : results) {
+                        result.get();
+                    }
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted while waiting for the workers", e);
+            } catch (ExecutionException e) {
+                if (e.getCause() instanceof RuntimeException) {
+                    throw (RuntimeException) e.getCause();
+                }
+                throw new IOException(e.getCause());
+            } finally {
+                senders.shutdownNow();
+            }
+        }
+
+        if (borderMode == BorderMode.SOURCE) {
+            for (int y = 0; y < height; y++) {
+                for (int x = 0; x < width; x++) {
+                    if (y < neighbouringPixels || y >= height - neighbouringPixels
+                            || x < neighbouringPixels || x >= width - neighbouringPixels) {
+                        destination[y * width + x] = source[y * width + x];
+                    }
+                }
+            }
+        }
+
+        RasterAccess.writePixels(filteredImage, destination);
+        return filteredImage;
+    }
+
+    /**
+     * Copies rows yStart to yEnd of the image into a new shard with a halo
+     * of neighbouringPixels rows above and below and padding columns either
+     * side, filling the halo past the edges as the border mode says.
+     */
+    private static int[] pad(int[] source, int width, int height, BorderMode borderMode,
+            int padding, int neighbouringPixels, int yStart, int yEnd) {
+        int shardWidth = width + 2 * padding;
+        int shardHeight = yEnd - yStart + 2 * neighbouringPixels;
+        int[] shard = new int[shardWidth * shardHeight];
+        int[] columns = new int[shardWidth];
+
+        for (int c = 0; c < shardWidth; c++) {
+            columns[c] = padding > 0 ? Borders.map(borderMode, c - padding, width) : c;
+        }
+
+        for (int j = 0; j < shardHeight; j++) {
+            int y = yStart - neighbouringPixels + j;
+            int row = (padding > 0 ? Borders.map(borderMode, y, height) : y) * width;
+
+            for (int c = 0; c < shardWidth; c++) {
+                shard[j * shardWidth + c] = source[row + columns[c]];
+            }
+        }
+        return shard;
+    }
+
+    /**
+     * Sends the shard to the worker and returns the interior it filtered.
+     */
+    private int[] send(InetSocketAddress worker, int[] pixels, int shardWidth, int shardHeight,
+            String filterName, String engineName, int windowWidth) throws IOException {
+        try (Socket socket = new Socket()) {
+            socket.connect(worker, timeoutMillis);
+            socket.setSoTimeout(timeoutMillis);
+            DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(socket.getOutputStream()));
+            DataInputStream in = new DataInputStream(
+                new BufferedInputStream(socket.getInputStream()));
+
+            out.writeInt(ShardWorker.MAGIC);
+            out.writeUTF(filterName);
+            out.writeUTF(engineName);
+            out.writeInt(windowWidth);
+            out.writeInt(shardWidth);
+            out.writeInt(shardHeight);
+            ShardWorker.writePixels(out, pixels);
+            out.flush();
+
+            int status = in.readUnsignedByte();
+
+            if (status == ShardWorker.ERROR) {
+                // every worker would reject the shard the same way
+                throw new IllegalArgumentException(in.readUTF());
+            }
+
+            int innerWidth = in.readInt();
+            int innerHeight = in.readInt();
+
+            if (status != ShardWorker.OK || innerWidth != shardWidth - (windowWidth - 1)
+                    || innerHeight != shardHeight - (windowWidth - 1)) {
+                throw new IOException("Unexpected answer from worker " + worker);
+            }
+            return ShardWorker.readPixels(in, innerWidth * innerHeight);
+        }
+    }
+
+    /**
+     * Returns the worker addresses in a comma separated list of host:port.
+     *
+     * @param list the workers, e.g. localhost:7001,localhost:7002
+     * @return the addresses of the workers
+     * @throws IllegalArgumentException if an address has no port or the port
+     * is not a number
+     */
+    public static List<InetSocketAddress> parseWorkers(String list) {
+        List<InetSocketAddress> workers = new ArrayList<>();
+
+        for (String worker : list.split(",")) {
+            int colon = worker.lastIndexOf(':');
+
+            if (colon <= 0) {
+                throw new IllegalArgumentException("Worker must be host:port: " + worker);
+            }
+            workers.add(new InetSocketAddress(worker.substring(0, colon).trim(),
+                Integer.parseInt(worker.substring(colon + 1).trim())));
+        }
+        return workers;
+    }
+
+    public static void main(String[] args) {
+        try {
+            File inputFile = new File(args[0]);
+            File outputFile = new File(args[1]);
+            String filterName = args[2].toLowerCase(Locale.ROOT);
+            int windowWidth = Integer.parseInt(args[3]);
+            List<InetSocketAddress> workers = parseWorkers(args[4]);
+            String engineName = args.length > 5 ? args[5]
+                : filterName.equals("mean") ? "sliding" : "select";
+            BorderMode borderMode = args.length > 6
+                ? BorderMode.fromName(args[6]) : BorderMode.CROP;
+
+            ShardCoordinator coordinator = new ShardCoordinator(workers, 4, 60000);
+            BufferedImage inputImage = ImageFiles.read(inputFile);
+
+            // time the execution of the filter, including sending the shards
+            long startTime = System.currentTimeMillis();
+            BufferedImage filteredImage = coordinator.smooth(inputImage, filterName,
+                windowWidth, engineName, borderMode);
+            long endTime = System.currentTimeMillis();
+
+            ImageFiles.write(filteredImage, outputFile);
+            System.out.println(endTime - startTime);
+
+        } catch (FileNotFoundException e) {
+            System.out.println("File not found or could not be read");
+        } catch (IOException e) {
+            System.out.println("Image could not be smoothed or written: " + e.getMessage());
+        } catch (IllegalArgumentException e) {
+            System.out.println(e.getMessage());
+        } catch (ArrayIndexOutOfBoundsException e) {
+            System.out.println("Missing arguments\n" +
+            "Usage: java ShardCoordinator <inputImageName> <outputImageName> <mean|median> " +
+            "<windowWidth> <host:port[,host:port...]> [engine] [border]");
+        }
+    }
+}
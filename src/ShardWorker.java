@@ -0,0 +1,257 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.lang.System.Logger;
+import java.lang.System.Logger.Level;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.net.SocketTimeoutException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Filters shards of an image sent by a ShardCoordinator over a socket.
+ * Each connection carries one shard: the rows and columns to filter plus
+ * a halo of (windowWidth - 1) / 2 pixels on every side, already filled by
+ * the coordinator. The worker filters the shard on its own Fork/Join pool
+ * and sends back the pixels inside the halo, which are exactly the pixels
+ * the coordinator keeps.
+ *
+ * A worker holds no state between shards, so any number of workers can
+ * run on one machine or on several, and a shard can be sent to any of
+ * them again if one fails.
+ *
+ * @author Jordy Kafwe
+ */
+public class ShardWorker {
+
+    private static final Logger LOGGER = System.getLogger(ShardWorker.class.getName());
+
+    /** The first int of every shard, so stray connections are rejected. */
+    static final int MAGIC = 0x53485244; // "SHRD"
+
+    /** The status byte of a filtered shard, followed by its pixels. */
+    static final int OK = 0;
+
+    /** The status byte of a rejected shard, followed by the reason. */
+    static final int ERROR = 1;
+
+    /** The most pixels a shard may hold, so a bad header cannot exhaust the heap. */
+    static final int MAX_PIXELS = 1 << 28;
+
+    /** The longest wait for the next bytes of a shard, so a stalled coordinator frees its thread. */
+    static final int READ_TIMEOUT_MILLIS = 60000;
+
+    private final ServerSocket serverSocket;
+    private final ExecutorService connections;
+    private final ForkJoinPool pool;
+    private final Thread acceptor;
+
+    /**
+     * Constructs a new ShardWorker bound to the specified address. The
+     * worker does not accept shards until it is started.
+     *
+     * @param address the address to listen on, with port 0 for any free port
+     * @param pool the pool to filter on, which is not shut down
+     * @throws IOException if the address cannot be bound
+     * @throws IllegalArgumentException if pool is null
+     */
+    public ShardWorker(InetSocketAddress address, ForkJoinPool pool) throws IOException {
+        if (pool == null) {
+            throw new IllegalArgumentException("Pool must not be null");
+        }
+
+        this.pool = pool;
+        this.serverSocket = new ServerSocket();
+        this.serverSocket.bind(address);
+        this.connections = Executors.newCachedThreadPool();
+        this.acceptor = new Thread(this::accept, "ShardWorker-" + serverSocket.getLocalPort());
+    }
+
+    /**
+     * Starts accepting shards in the background.
+     */
+    public void start() {
+        acceptor.start();
+    }
+
+    /**
+     * Stops accepting shards and closes the socket. Shards being filtered
+     * are abandoned, so their coordinators send them to another worker.
+     */
+    public void stop() {
+        try {
+            serverSocket.close();
+        } catch (IOException e) {
+            // the socket is closed either way
+        }
+        connections.shutdownNow();
+    }
+
+    /**
+     * Returns the address the worker listens on, with the actual port.
+     *
+     * @return the address of the worker
+     */
+    public InetSocketAddress getAddress() {
+        return (InetSocketAddress) serverSocket.getLocalSocketAddress();
+    }
+
+    private void accept() {
+        while (!serverSocket.isClosed()) {
+            try {
+                Socket socket = serverSocket.accept();
+                connections.execute(() -> handle(socket));
+            } catch (SocketException e) {
+                // closed by stop
+                return;
+            } catch (IOException e) {
+                LOGGER.log(Level.WARNING, "Shard connection failed: {0}", e.getMessage());
+            }
+        }
+    }
+
+    private void handle(Socket socket) {
+        try (socket) {
+            socket.setSoTimeout(READ_TIMEOUT_MILLIS);
+            DataInputStream in = new DataInputStream(
+                new BufferedInputStream(socket.getInputStream()));
+            DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(socket.getOutputStream()));
+
+            if (in.readInt() != MAGIC) {
+                return;
+            }
+
+            String filterName = in.readUTF();
+            String engineName = in.readUTF();
+            int windowWidth = in.readInt();
+            int width = in.readInt();
+            int height = in.readInt();
+
+            try {
+                if (width < 1 || height < 1 || (long) width * height > MAX_PIXELS) {
+                    throw new IllegalArgumentException("Shard size " + width + "x" + height
+                        + " is out of range");
+                }
+
+                int[] source = readPixels(in, width * height);
+                int[] destination = new int[source.length];
+                filter(source, width, height, destination, filterName, engineName, windowWidth);
+
+                // send back only the pixels whose window lies inside the shard
+                int neighbouringPixels = (windowWidth - 1) / 2;
+                int innerWidth = Math.max(0, width - 2 * neighbouringPixels);
+                int innerHeight = Math.max(0, height - 2 * neighbouringPixels);
+                int[] inner = new int[innerWidth * innerHeight];
+
+                for (int y = 0; y < innerHeight; y++) {
+                    System.arraycopy(destination, (y + neighbouringPixels) * width
+                        + neighbouringPixels, inner, y * innerWidth, innerWidth);
+                }
+
+                out.writeByte(OK);
+                out.writeInt(innerWidth);
+                out.writeInt(innerHeight);
+                writePixels(out, inner);
+            } catch (IllegalArgumentException e) {
+                out.writeByte(ERROR);
+                out.writeUTF(String.valueOf(e.getMessage()));
+            }
+            out.flush();
+
+        } catch (EOFException e) {
+            // the coordinator gave up on the shard
+        } catch (SocketTimeoutException e) {
+            LOGGER.log(Level.WARNING, "Shard connection timed out");
+        } catch (IOException e) {
+            LOGGER.log(Level.WARNING, "Shard could not be filtered: {0}", e.getMessage());
+        }
+    }
+
+    /**
+     * Filters the shard with the CROP border mode, since the coordinator
+     * fills its halo from the image or as the image's border mode says.
+     */
+    private void filter(int[] source, int width, int height, int[] destination,
+            String filterName, String engineName, int windowWidth) {
+        if (filterName.equals("mean")) {
+            MeanFilterParallel.smooth(source, width, height, destination, windowWidth, 0,
+                MeanEngine.fromName(engineName), pool);
+        } else if (filterName.equals("median")) {
+            MedianFilterParallel.smooth(source, width, height, destination, windowWidth, 0,
+                MedianEngine.fromName(engineName), pool);
+        } else {
+            throw new IllegalArgumentException("Filter must be mean or median");
+        }
+    }
+
+    /**
+     * Reads the specified number of packed RGB pixels, sent as three bytes
+     * each in red, green, blue order.
+     *
+     * @param in the stream to read from
+     * @param count the number of pixels to read
+     * @return the pixels read
+     * @throws IOException if the stream ends early or cannot be read
+     */
+    static int[] readPixels(DataInputStream in, int count) throws IOException {
+        byte[] bytes = new byte[count * 3];
+        in.readFully(bytes);
+        int[] pixels = new int[count];
+
+        for (int p = 0, b = 0; p < count; p++, b += 3) {
+            pixels[p] = (bytes[b] & 0xFF) << 16 | (bytes[b + 1] & 0xFF) << 8 | bytes[b + 2] & 0xFF;
+        }
+        return pixels;
+    }
+
+    /**
+     * Writes the specified packed RGB pixels as three bytes each in red,
+     * green, blue order.
+     *
+     * @param out the stream to write to
+     * @param pixels the pixels to write
+     * @throws IOException if the stream cannot be written
+     */
+    static void writePixels(DataOutputStream out, int[] pixels) throws IOException {
+        byte[] bytes = new byte[pixels.length * 3];
+
+        for (int p = 0, b = 0; p < pixels.length; p++, b += 3) {
+            int pixel = pixels[p];
+            bytes[b] = (byte) (pixel >> 16);
+            bytes[b + 1] = (byte) (pixel >> 8);
+            bytes[b + 2] = (byte) pixel;
+        }
+        out.write(bytes);
+    }
+
+    public static void main(String[] args) {
+        try {
+            int port = args.length > 0 ? Integer.parseInt(args[0]) : 0;
+
+            // only local coordinators can reach the worker unless an address is given
+            InetAddress host = args.length > 1
+                ? InetAddress.getByName(args[1]) : InetAddress.getLoopbackAddress();
+            ShardWorker worker = new ShardWorker(new InetSocketAddress(host, port),
+                ForkJoinPool.commonPool());
+            Runtime.getRuntime().addShutdownHook(new Thread(worker::stop));
+            worker.start();
+
+            System.out.println("Listening on " + host.getHostAddress() + ":"
+                + worker.getAddress().getPort());
+
+        } catch (IOException e) {
+            System.out.println("Worker could not be started: " + e.getMessage());
+        } catch (IllegalArgumentException e) {
+            System.out.println(e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,127 @@
+/**
+ * A sliding window mean that keeps a running sum for every column of the
+ * window and a running sum across those columns. Moving the window by one
+ * pixel only adds the pixels entering it and subtracts the ones leaving it,
+ * so each output pixel costs the same whatever the window width.
+ *
+ * The sums are exact, so dividing them by the window size gives the same
+ * values as re-summing the whole window.
+ *
+ * @author Jordy Kafwe
+ */
+final class SlidingMean {
+
+    private SlidingMean() {
+    }
+
+    /**
+     * Applies the mean filter to the region from (xStart, yStart) inclusive
+     * to (xEnd, yEnd) exclusive of the source pixels and writes the results
+     * to the destination pixels. The region must lie at least
+     * (windowWidth - 1) / 2 pixels away from the edges of the image.
+     *
+     * @param source the row-major packed RGB pixels to read from
+     * @param destination the row-major packed RGB pixels to write to
+     * @param width the width of the image
+     * @param windowWidth the width of the window to use for the filter
+     * @param xStart the first column to filter
+     * @param yStart the first row to filter
+     * @param xEnd the column after the last column to filter
+     * @param yEnd the row after the last row to filter
+     */
+    static void filter(int[] source, int[] destination, int width, int windowWidth, 
+            int xStart, int yStart, int xEnd, int yEnd) {
+        filter(source, destination, width, windowWidth, windowWidth, xStart, yStart, xEnd, yEnd);
+    }
+
+    /**
+     * Applies the mean filter with a rectangular window to the region from
+     * (xStart, yStart) inclusive to (xEnd, yEnd) exclusive of the source
+     * pixels and writes the results to the destination pixels. The region
+     * must lie at least (windowWidth - 1) / 2 columns and
+     * (windowHeight - 1) / 2 rows away from the edges of the image.
+     *
+     * @param source the row-major packed RGB pixels to read from
+     * @param destination the row-major packed RGB pixels to write to
+     * @param width the width of the image
+     * @param windowWidth the odd width of the window
+     * @param windowHeight the odd height of the window
+     * @param xStart the first column to filter
+     * @param yStart the first row to filter
+     * @param xEnd the column after the last column to filter
+     * @param yEnd the row after the last row to filter
+     */
+    static void filter(int[] source, int[] destination, int width, int windowWidth, 
+            int windowHeight, int xStart, int yStart, int xEnd, int yEnd) {
+        int neighbouringPixels = (windowWidth - 1) / 2;
+        int neighbouringRows = (windowHeight - 1) / 2;
+        int windowSize = windowWidth * windowHeight;
+
+        if (xStart >= xEnd || yStart >= yEnd) {
+            return;
+        }
+
+        // running sums of each column of the window, offset by left
+        int left = xStart - neighbouringPixels;
+        int columns = xEnd - xStart + windowWidth - 1;
+        Scratch scratch = Scratch.get();
+        int[] redColumns = scratch.ints(0, columns);
+        int[] greenColumns = scratch.ints(1, columns);
+        int[] blueColumns = scratch.ints(2, columns);
+
+        // sum the rows of the first window of every column
+        for (int j = yStart - neighbouringRows; j <= yStart + neighbouringRows; j++) {
+            int row = j * width + left;
+
+            for (int c = 0; c < columns; c++) {
+                int pixel = source[row + c];
+                redColumns[c] += pixel >> 16 & 0xFF;
+                greenColumns[c] += pixel >> 8 & 0xFF;
+                blueColumns[c] += pixel & 0xFF;
+            }
+        }
+
+        for (int y = yStart; y < yEnd; y++) {
+            // slide the column sums down by one row
+            if (y > yStart) {
+                int leavingRow = (y - neighbouringRows - 1) * width + left;
+                int enteringRow = (y + neighbouringRows) * width + left;
+
+                for (int c = 0; c < columns; c++) {
+                    int oldPixel = source[leavingRow + c];
+                    int newPixel = source[enteringRow + c];
+                    redColumns[c] += (newPixel >> 16 & 0xFF) - (oldPixel >> 16 & 0xFF);
+                    greenColumns[c] += (newPixel >> 8 & 0xFF) - (oldPixel >> 8 & 0xFF);
+                    blueColumns[c] += (newPixel & 0xFF) - (oldPixel & 0xFF);
+                }
+            }
+
+            // sum the columns of the first window in the row
+            int red = 0;
+            int green = 0;
+            int blue = 0;
+
+            for (int c = 0; c < windowWidth; c++) {
+                red += redColumns[c];
+                green += greenColumns[c];
+                blue += blueColumns[c];
+            }
+
+            // slide the window across the row
+            int row = y * width;
+
+            for (int x = xStart; x < xEnd; x++) {
+                if (x > xStart) {
+                    int leaving = x - xStart - 1;
+                    int entering = leaving + windowWidth;
+                    red += redColumns[entering] - redColumns[leaving];
+                    green += greenColumns[entering] - greenColumns[leaving];
+                    blue += blueColumns[entering] - blueColumns[leaving];
+                }
+
+                destination[row + x] = (red / windowSize) << 16
+                    | (green / windowSize) << 8 | blue / windowSize;
+            }
+        }
+    }
+}
@@ -0,0 +1,93 @@
+/**
+ * The metrics of the smoother as exposed over JMX: the latest run and
+ * totals since the JVM started.
+ *
+ * @author Jordy Kafwe
+ */
+public interface SmootherMetricsMXBean {
+
+    /**
+     * Returns the number of images smoothed.
+     *
+     * @return the number of images smoothed
+     */
+    long getRuns();
+
+    /**
+     * Returns the megapixels smoothed in total.
+     *
+     * @return the megapixels smoothed in total
+     */
+    double getTotalMegapixels();
+
+    /**
+     * Returns the time spent filtering in total, in milliseconds.
+     *
+     * @return the time spent filtering in total, in milliseconds
+     */
+    double getTotalFilterMillis();
+
+    /**
+     * Returns the filter of the latest run.
+     *
+     * @return the filter of the latest run
+     */
+    String getLastFilterName();
+
+    /**
+     * Returns the decode time of the latest run, in milliseconds.
+     *
+     * @return the decode time of the latest run, in milliseconds
+     */
+    double getLastDecodeMillis();
+
+    /**
+     * Returns the filter time of the latest run, in milliseconds.
+     *
+     * @return the filter time of the latest run, in milliseconds
+     */
+    double getLastFilterMillis();
+
+    /**
+     * Returns the encode time of the latest run, in milliseconds.
+     *
+     * @return the encode time of the latest run, in milliseconds
+     */
+    double getLastEncodeMillis();
+
+    /**
+     * Returns the total time of the latest run, in milliseconds.
+     *
+     * @return the total time of the latest run, in milliseconds
+     */
+    double getLastTotalMillis();
+
+    /**
+     * Returns the filter throughput of the latest run, in megapixels per second.
+     *
+     * @return the filter throughput of the latest run, in megapixels per second
+     */
+    double getLastMegapixelsPerSecond();
+
+    /**
+     * Returns the Fork/Join steals during the latest run.
+     *
+     * @return the Fork/Join steals during the latest run
+     */
+    long getLastSteals();
+
+    /**
+     * Returns the pool parallelism of the latest run.
+     *
+     * @return the pool parallelism of the latest run
+     */
+    int getLastParallelism();
+
+    /**
+     * Returns the peak heap use during the latest run, in bytes, or -1 if
+     * another run started during it.
+     *
+     * @return the peak heap use during the latest run, in bytes
+     */
+    long getLastPeakHeapBytes();
+}
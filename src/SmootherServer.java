@@ -0,0 +1,299 @@
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.System.Logger;
+import java.lang.System.Logger.Level;
+import java.lang.reflect.Method;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Semaphore;
+import java.util.function.UnaryOperator;
+import javax.imageio.ImageIO;
+
+/**
+ * A long-lived HTTP server that smooths images sent to it, so each image
+ * costs a request instead of a JVM start and a JIT warm-up.
+ *
+ * Clients POST the encoded image to /smooth with the filter in the query,
+ * e.g. /smooth?filter=median&amp;width=5&amp;engine=select&amp;border=clamp,
+ * or /smooth?filter=convolution&amp;kernel=gaussian:2, and get the smoothed
+ * image back as PNG, or in the format named by the format parameter.
+ *
+ * Each connection is handled on its own virtual thread when the JVM has
+ * them (JDK 21 and later) and on a cached platform thread otherwise, while
+ * the filtering itself runs on the Fork/Join pool given to the server.
+ * Only a few images are filtered at once, since each one already uses the
+ * whole pool; later requests wait their turn in arrival order, and once
+ * the queue is full further requests are turned away with 503 so bursts
+ * cannot pile up without bound. The mean and median filters smooth into
+ * images from an ImagePool that are returned to it once sent, so serving
+ * images of the same size does not churn the heap.
+ *
+ * @author Jordy Kafwe
+ */
+public class SmootherServer {
+
+    private static final Logger LOGGER = System.getLogger(SmootherServer.class.getName());
+
+    private final HttpServer server;
+    private final ExecutorService connections;
+    private final ForkJoinPool pool;
+    private final Semaphore admitted; // requests filtering or waiting to
+    private final Semaphore filtering; // requests filtering, in arrival order
+    private final ImagePool images; // smoothed images, reused once sent
+
+    /**
+     * Constructs a new SmootherServer bound to the specified address. The 
+     * server does not accept requests until it is started.
+     * 
+     * @param address the address to listen on, with port 0 for any free port
+     * @param pool the pool to filter on, which is not shut down
+     * @param maxFiltering the largest number of images filtered at once
+     * @param maxQueued the largest number of requests waiting to be filtered
+     * @throws IOException if the address cannot be bound
+     * @throws IllegalArgumentException if pool is null, maxFiltering is less 
+     * than 1 or maxQueued is negative
+     */
+    public SmootherServer(InetSocketAddress address, ForkJoinPool pool, int maxFiltering, 
+    int maxQueued) throws IOException {
+        if (pool == null) {
+            throw new IllegalArgumentException("Pool must not be null");
+        }
+        if (maxFiltering < 1 || maxQueued < 0) {
+            throw new IllegalArgumentException(
+                "Images filtered at once must be at least 1 and queued at least 0");
+        }
+
+        this.pool = pool;
+        this.images = new ImagePool(maxFiltering + maxQueued);
+        this.admitted = new Semaphore(maxFiltering + maxQueued);
+        this.filtering = new Semaphore(maxFiltering, true);
+        this.connections = connectionThreads();
+        this.server = HttpServer.create(address, 0);
+        this.server.createContext("/smooth", this::handle);
+        this.server.setExecutor(connections);
+    }
+
+    /**
+     * Starts accepting requests in the background.
+     */
+    public void start() {
+        server.start();
+    }
+
+    /**
+     * Stops accepting requests, waits up to the specified delay for the 
+     * requests being handled to finish, then closes every connection.
+     * 
+     * @param delaySeconds the longest time to wait for requests to finish
+     */
+    public void stop(int delaySeconds) {
+        server.stop(delaySeconds);
+        connections.shutdown();
+    }
+
+    /**
+     * Returns the address the server listens on, with the actual port.
+     * 
+     * @return the address of the server
+     */
+    public InetSocketAddress getAddress() {
+        return server.getAddress();
+    }
+
+    /**
+     * Returns an executor that starts a virtual thread for each connection,
+     * or a cached pool of platform threads on JVMs without virtual threads.
+     */
+    private static ExecutorService connectionThreads() {
+        try {
+            Method factory = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (ExecutorService) factory.invoke(null);
+        } catch (ReflectiveOperationException e) {
+            // before JDK 21, or a preview JDK without --enable-preview
+            return Executors.newCachedThreadPool();
+        }
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        try {
+            if (!exchange.getRequestMethod().equals("POST")) {
+                send(exchange, 405, "Images must be sent with POST");
+                return;
+            }
+
+            // turn the request away rather than queue it behind a full queue
+            if (!admitted.tryAcquire()) {
+                exchange.getResponseHeaders().set("Retry-After", "1");
+                send(exchange, 503, "Too many requests, try again later");
+                return;
+            }
+
+            try {
+                smooth(exchange);
+            } finally {
+                admitted.release();
+            }
+        } finally {
+            exchange.close();
+        }
+    }
+
+    private void smooth(HttpExchange exchange) throws IOException {
+        Map<String, String> query = parseQuery(exchange.getRequestURI().getRawQuery());
+        byte[] body;
+
+        try (InputStream in = exchange.getRequestBody()) {
+            body = in.readAllBytes();
+        }
+
+        String format = query.getOrDefault("format", "png");
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+        try {
+            String filterName = query.getOrDefault("filter", "mean").toLowerCase(Locale.ROOT);
+            int windowWidth = Integer.parseInt(query.getOrDefault("width", "3"));
+            BorderMode borderMode = BorderMode.fromName(query.getOrDefault("border", "crop"));
+            Kernel kernel = filterName.equals("convolution") 
+                ? ConvolutionFilter.parseKernel(query.getOrDefault("kernel", "gaussian:1")) : null;
+
+            FilterMetrics.Recorder recorder = new FilterMetrics.Recorder(
+                "SmootherServer-" + filterName, windowWidth, pool);
+            BufferedImage image;
+
+            try {
+                image = ImageIO.read(new ByteArrayInputStream(body));
+            } catch (IOException e) {
+                // a truncated or corrupt upload is the client's fault
+                throw new IllegalArgumentException("Image could not be read: " + e.getMessage());
+            }
+
+            if (image == null) {
+                throw new IllegalArgumentException("Image could not be read");
+            }
+            recorder.decoded(image.getWidth(), image.getHeight());
+
+            UnaryOperator<BufferedImage> filter;
+            String cacheName;
+
+            if (filterName.equals("mean")) {
+                MeanEngine engine = MeanEngine.fromName(query.getOrDefault("engine", "sliding"));
+                filter = source -> MeanFilterParallel.smooth(source, windowWidth, 0, engine, 
+                    borderMode, pool, images);
+                cacheName = "mean";
+            } else if (filterName.equals("median")) {
+                MedianEngine engine = MedianEngine.fromName(query.getOrDefault("engine", "select"));
+                filter = source -> MedianFilterParallel.smooth(source, windowWidth, 0, engine, 
+                    borderMode, pool, images);
+                cacheName = "median";
+            } else if (kernel != null) {
+                filter = source -> new ConvolutionFilter(kernel).apply(source, pool);
+                cacheName = "convolution-" + kernel;
+            } else {
+                throw new IllegalArgumentException("Filter must be mean, median or convolution");
+            }
+
+            // cached results skip the queue, the rest wait for a turn on the pool 
+            // in the order the requests arrived
+            BufferedImage filteredImage = ResultCache.shared().apply(image, cacheName, 
+                kernel != null ? 0 : windowWidth, kernel != null ? BorderMode.CROP : borderMode, 
+                source -> {
+                    filtering.acquireUninterruptibly();
+                    recorder.queued();
+                    try {
+                        return filter.apply(source);
+                    } finally {
+                        filtering.release();
+                    }
+                });
+            recorder.filtered();
+
+            try {
+                if (!ImageIO.write(filteredImage, format, out)) {
+                    throw new IllegalArgumentException("Unknown image format: " + format);
+                }
+            } finally {
+                images.release(filteredImage);
+            }
+            recorder.encoded();
+
+        } catch (IllegalArgumentException e) {
+            // also covers a width that is not a number and an unreadable upload
+            send(exchange, 400, e.getMessage());
+            return;
+        } catch (IOException | RuntimeException e) {
+            LOGGER.log(Level.ERROR, "Could not smooth image", e);
+            send(exchange, 500, "Image could not be smoothed");
+            return;
+        }
+
+        exchange.getResponseHeaders().set("Content-Type", "image/" + format);
+        exchange.sendResponseHeaders(200, out.size());
+        try (OutputStream response = exchange.getResponseBody()) {
+            out.writeTo(response);
+        }
+    }
+
+    private static Map<String, String> parseQuery(String rawQuery) {
+        Map<String, String> query = new HashMap<>();
+
+        if (rawQuery == null) {
+            return query;
+        }
+
+        for (String pair : rawQuery.split("&")) {
+            int equals = pair.indexOf('=');
+
+            if (equals > 0) {
+                query.put(URLDecoder.decode(pair.substring(0, equals), StandardCharsets.UTF_8),
+                    URLDecoder.decode(pair.substring(equals + 1), StandardCharsets.UTF_8));
+            }
+        }
+        return query;
+    }
+
+    private static void send(HttpExchange exchange, int status, String message) throws IOException {
+        byte[] bytes = (message + "\n").getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=utf-8");
+        exchange.sendResponseHeaders(status, bytes.length);
+
+        try (OutputStream response = exchange.getResponseBody()) {
+            response.write(bytes);
+        }
+    }
+
+    public static void main(String[] args) {
+        try {
+            int port = args.length > 0 ? Integer.parseInt(args[0]) : 8080;
+            int maxQueued = args.length > 1 ? Integer.parseInt(args[1]) : 16;
+
+            // only local clients can reach the server
+            InetSocketAddress address = new InetSocketAddress(InetAddress.getLoopbackAddress(), port);
+            SmootherServer server = new SmootherServer(address, ForkJoinPool.commonPool(), 
+                1, maxQueued);
+            Runtime.getRuntime().addShutdownHook(new Thread(() -> server.stop(5)));
+            server.start();
+
+            System.out.println("Listening on http://" + address.getHostString() + ":" 
+                + server.getAddress().getPort() + "/smooth");
+
+        } catch (IOException e) {
+            System.out.println("Server could not be started: " + e.getMessage());
+        } catch (IllegalArgumentException e) {
+            System.out.println(e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,240 @@
+import java.awt.Point;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Locale;
+import java.util.concurrent.ForkJoinPool;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.ImageTypeSpecifier;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageInputStream;
+import javax.imageio.stream.ImageOutputStream;
+
+/**
+ * Smooths images too large to hold in memory by streaming them through
+ * the filter in horizontal bands.
+ *
+ * Each band of rows is read with ImageReadParam.setSourceRegion, filtered
+ * together with the windowWidth - 1 rows kept from the band above it, and
+ * written straight into the output file with ImageWriter.replacePixels.
+ * Only the current band and its halo are ever held, so the memory used is
+ * proportional to the image width times the band height plus the window
+ * width, whatever the image height. The output is the same as smoothing the
+ * whole image at once.
+ *
+ * The output format must support writing an empty image and then
+ * replacing its pixels, as TIFF does. Any readable format works as input,
+ * but readers of compressed formats such as JPEG and PNG decode from the
+ * top of the image for every band, so TIFF input is much faster for
+ * very tall images.
+ *
+ * @author Jordy Kafwe
+ */
+public class StreamingSmoother {
+
+    private final PixelFilter filter;
+    private final int windowWidth;
+    private final int bandHeight;
+
+    /**
+     * Constructs a new StreamingSmoother that applies the specified filter
+     * band by band.
+     *
+     * @param filter the filter to apply to each band
+     * @param windowWidth the width of the window of the filter
+     * @param bandHeight the number of new rows to read and filter at a time
+     * @throws IllegalArgumentException if the window width is not odd or is 
+     * less than 3, or if the band height is less than 1
+     */
+    public StreamingSmoother(PixelFilter filter, int windowWidth, int bandHeight) {
+        if (windowWidth % 2 == 0 || windowWidth < 3) {
+            throw new IllegalArgumentException(
+                "Window width must be odd and greater than 2");
+        }
+        if (bandHeight < 1) {
+            throw new IllegalArgumentException("Band height must be at least 1");
+        }
+
+        this.filter = filter;
+        this.windowWidth = windowWidth;
+        this.bandHeight = bandHeight;
+    }
+
+    /**
+     * Smooths the input image band by band and writes it to the output file,
+     * in the format given by the output file's extension.
+     *
+     * @param input the image file to smooth
+     * @param output the file to write the smoothed image to
+     * @throws IOException if the input cannot be read, or the output cannot be
+     * written or its format cannot be written band by band
+     */
+    public void smooth(File input, File output) throws IOException {
+        if (!input.isFile()) {
+            throw new FileNotFoundException(input.toString());
+        }
+
+        try (ImageInputStream in = ImageIO.createImageInputStream(input)) {
+            ImageReader reader = first(ImageIO.getImageReaders(in), "read", input);
+
+            try {
+                reader.setInput(in);
+                // FileImageOutputStream does not truncate, so clear any old output first
+                output.delete();
+
+                try (ImageOutputStream out = ImageIO.createImageOutputStream(output)) {
+                    String name = output.getName();
+                    String suffix = name.substring(name.lastIndexOf('.') + 1).toLowerCase(Locale.ROOT);
+                    ImageWriter writer = first(ImageIO.getImageWritersBySuffix(suffix), "write", output);
+
+                    try {
+                        writer.setOutput(out);
+                        stream(reader, writer);
+                    } finally {
+                        writer.dispose();
+                    }
+                }
+            } finally {
+                reader.dispose();
+            }
+        }
+    }
+
+    /**
+     * Reads, filters and writes the image one band at a time.
+     */
+    private void stream(ImageReader reader, ImageWriter writer) throws IOException {
+        int width = reader.getWidth(0);
+        int height = reader.getHeight(0);
+        int neighbouringPixels = (windowWidth - 1) / 2;
+        int halo = windowWidth - 1;
+        int capacity = bandHeight + halo;
+
+        // the rows of the image from top to top + rows, and their filtered values
+        int[] source = new int[width * capacity];
+        int[] destination = new int[width * capacity];
+        int top = 0;
+        int rows = 0;
+        int written = 0;
+
+        BufferedImage band = new BufferedImage(width, capacity, BufferedImage.TYPE_INT_RGB);
+        int[] bandPixels = RasterAccess.pixelsForWriting(band);
+        ImageWriteParam param = writer.getDefaultWriteParam();
+
+        if (!writer.canWriteEmpty()) {
+            throw new IOException("Output format cannot be written band by band");
+        }
+        writer.prepareWriteEmpty(null, ImageTypeSpecifier.createFromRenderedImage(band),
+            width, height, null, null, param);
+        writer.endWriteEmpty();
+
+        if (!writer.canReplacePixels(0)) {
+            throw new IOException("Output format cannot be written band by band");
+        }
+        writer.prepareReplacePixels(0, new Rectangle(0, 0, width, height));
+
+        while (written < height) {
+            // read the next rows below the ones already held
+            int next = top + rows;
+            int count = Math.min(capacity - rows, height - next);
+            readRows(reader, next, count, source, rows * width);
+            rows += count;
+            boolean last = top + rows == height;
+
+            // rows too close to the top or bottom of the image stay 0
+            Arrays.fill(destination, 0);
+            filter.filter(source, width, rows, destination);
+
+            // the rows whose whole window has been read are now final
+            int end = last ? height : top + rows - neighbouringPixels;
+            System.arraycopy(destination, (written - top) * width, bandPixels, 0,
+                (end - written) * width);
+            param.setDestinationOffset(new Point(0, written));
+            writer.replacePixels(band.getRaster().createChild(0, 0, width, end - written,
+                0, 0, null), param);
+            written = end;
+
+            // keep the rows the windows of the next band reach up into
+            if (!last) {
+                System.arraycopy(source, (rows - halo) * width, source, 0, halo * width);
+                top += rows - halo;
+                rows = halo;
+            }
+        }
+
+        writer.endReplacePixels();
+    }
+
+    /**
+     * Reads count rows of the image starting at the specified row into the
+     * pixels at the specified offset.
+     */
+    private static void readRows(ImageReader reader, int row, int count, int[] pixels,
+            int offset) throws IOException {
+        if (count == 0) {
+            return;
+        }
+
+        int width = reader.getWidth(0);
+        ImageReadParam param = reader.getDefaultReadParam();
+        param.setSourceRegion(new Rectangle(0, row, width, count));
+        BufferedImage rows = reader.read(0, param);
+        System.arraycopy(RasterAccess.readPixels(rows), 0, pixels, offset, width * count);
+    }
+
+    private static <T> T first(Iterator<T> plugins, String action, File file) throws IOException {
+        if (!plugins.hasNext()) {
+            throw new IOException("No image plugin can " + action + " " + file);
+        }
+        return plugins.next();
+    }
+
+    public static void main(String[] args) {
+        try {
+            String filterName = args[0].toLowerCase(Locale.ROOT);
+            File inputFile = new File(args[1]);
+            File outputFile = new File(args[2]);
+            int windowWidth = Integer.parseInt(args[3]);
+            int bandHeight = args.length > 4 ? Integer.parseInt(args[4]) : 512;
+            ForkJoinPool pool = ForkJoinPool.commonPool();
+            PixelFilter filter;
+
+            if (filterName.equals("mean")) {
+                filter = (source, width, height, destination) -> MeanFilterParallel.smooth(
+                    source, width, height, destination, windowWidth, 0, MeanEngine.SLIDING, pool);
+            } else if (filterName.equals("median")) {
+                filter = (source, width, height, destination) -> MedianFilterParallel.smooth(
+                    source, width, height, destination, windowWidth, 0, MedianEngine.SELECT, pool);
+            } else {
+                throw new IllegalArgumentException("Filter must be mean or median");
+            }
+
+            StreamingSmoother smoother = new StreamingSmoother(filter, windowWidth, bandHeight);
+
+            // time the execution of the whole stream
+            long startTime = System.currentTimeMillis();
+            smoother.smooth(inputFile, outputFile);
+            long endTime = System.currentTimeMillis();
+
+            System.out.println(endTime - startTime);
+
+        } catch (FileNotFoundException e) {
+            System.out.println("File not found or could not be read");
+        } catch (IOException e) {
+            System.out.println(e.getMessage());
+        } catch (IllegalArgumentException e) {
+            System.out.println(e.getMessage());
+        } catch (ArrayIndexOutOfBoundsException e) {
+            System.out.println("Missing arguments\n" +
+            "Usage: java StreamingSmoother <mean|median> <inputImageName> <outputImageName.tif> " +
+            "<windowWidth> [bandHeight]");
+        }
+    }
+}
@@ -0,0 +1,53 @@
+/**
+ * Chooses the size of the square tiles that the parallel filters split
+ * an image into before filtering each tile sequentially.
+ *
+ * @author Jordy Kafwe
+ */
+final class Tiling {
+
+    /** The bytes of source pixels a tile should fit in, about one core's L2 cache. */
+    private static final int CACHE_BYTES = 256 * 1024;
+
+    /** The smallest tile side, below which forking costs more than it saves. */
+    static final int MIN_TILE_SIZE = 32;
+
+    /** The tiles each worker thread should get, so stealing can even out the load. */
+    private static final int TILES_PER_THREAD = 4;
+
+    private Tiling() {
+    }
+
+    /**
+     * Returns the default tile side for filtering an image: the largest
+     * tile whose pixels, together with the halo its windows reach into,
+     * fit in cache, made smaller when needed so that every worker thread
+     * gets several tiles.
+     *
+     * @param width the width of the image
+     * @param height the height of the image
+     * @param windowWidth the width of the window of the filter
+     * @param parallelism the number of worker threads of the pool
+     * @return the largest tile width and height to filter sequentially
+     */
+    static int defaultTileSize(int width, int height, int windowWidth, int parallelism) {
+        int cacheSize = (int) Math.sqrt(CACHE_BYTES / Integer.BYTES) - (windowWidth - 1);
+
+        return Math.max(MIN_TILE_SIZE, 
+            Math.min(cacheSize, balancedTileSize(width, height, parallelism)));
+    }
+
+    /**
+     * Returns the largest tile side that still gives every worker thread
+     * several tiles of the image.
+     *
+     * @param width the width of the image
+     * @param height the height of the image
+     * @param parallelism the number of worker threads of the pool
+     * @return the largest tile side that keeps the load balanced
+     */
+    static int balancedTileSize(int width, int height, int parallelism) {
+        return (int) Math.sqrt(
+            (double) width * height / ((double) parallelism * TILES_PER_THREAD));
+    }
+}
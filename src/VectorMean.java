@@ -0,0 +1,45 @@
+/**
+ * Runs the mean filter with the Vector API kernel when the JVM was
+ * started with --add-modules jdk.incubator.vector, and with the scalar
+ * SlidingMean otherwise. Either way the output is the same.
+ *
+ * The kernel is only loaded once the module is known to be present, so
+ * the filters still run on a JVM without it.
+ *
+ * @author Jordy Kafwe
+ */
+final class VectorMean {
+
+    /** Whether the incubating Vector API module is in the boot layer. */
+    static final boolean AVAILABLE =
+        ModuleLayer.boot().findModule("jdk.incubator.vector").isPresent();
+
+    private VectorMean() {
+    }
+
+    /**
+     * Applies the mean filter to the region from (xStart, yStart) inclusive
+     * to (xEnd, yEnd) exclusive of the source pixels and writes the results
+     * to the destination pixels. The region must lie at least
+     * (windowWidth - 1) / 2 pixels away from the edges of the image.
+     *
+     * @param source the row-major packed RGB pixels to read from
+     * @param destination the row-major packed RGB pixels to write to
+     * @param width the width of the image
+     * @param windowWidth the width of the window to use for the filter
+     * @param xStart the first column to filter
+     * @param yStart the first row to filter
+     * @param xEnd the column after the last column to filter
+     * @param yEnd the row after the last row to filter
+     */
+    static void filter(int[] source, int[] destination, int width, int windowWidth, 
+            int xStart, int yStart, int xEnd, int yEnd) {
+        if (AVAILABLE && VectorMeanKernel.supports(windowWidth)) {
+            VectorMeanKernel.filter(source, destination, width, windowWidth, 
+                xStart, yStart, xEnd, yEnd);
+        } else {
+            SlidingMean.filter(source, destination, width, windowWidth, 
+                xStart, yStart, xEnd, yEnd);
+        }
+    }
+}
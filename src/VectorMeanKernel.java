@@ -0,0 +1,212 @@
+import jdk.incubator.vector.FloatVector;
+import jdk.incubator.vector.IntVector;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * The sliding window mean written with the Vector API, so it works on as
+ * many pixels per instruction as the CPU's widest vectors hold (8 with
+ * AVX2, 16 with AVX-512).
+ *
+ * The column sums are slid down a row by unpacking whole vectors of
+ * entering and leaving pixels with shifts and masks. Each row then gets
+ * prefix sums of its column sums, so every window sum is the difference of
+ * two prefix sums, and whole vectors of window sums are divided at once and
+ * packed back into RGB ints.
+ *
+ * Integer division has no vector instruction, and the float conversions
+ * are not compiled to vector instructions on every JDK, so the sums are
+ * moved in and out of floats through the mantissa of 2^23 instead, then
+ * multiplied by the reciprocal of the window size and rounded, and the
+ * few quotients that round up past the exact one are corrected. This is
+ * exact as long as the sums stay below 2^23, which holds for windows up
+ * to 181 pixels wide; wider windows are left to SlidingMean.
+ *
+ * Only VectorMean may refer to this class, after checking that the
+ * jdk.incubator.vector module is present.
+ *
+ * @author Jordy Kafwe
+ */
+final class VectorMeanKernel {
+
+    private static final VectorSpecies<Integer> INTS = IntVector.SPECIES_PREFERRED;
+    private static final VectorSpecies<Float> FLOATS =
+        VectorSpecies.of(float.class, INTS.vectorShape());
+
+    /** The bits of the float 2^23, whose mantissa holds integers below 2^23 exactly. */
+    private static final int FLOAT_BIAS = 0x4B000000;
+    private static final float TWO_TO_23 = 0x1p23f;
+
+    private VectorMeanKernel() {
+    }
+
+    /**
+     * Returns true if the window sums of the specified window width are
+     * small enough for the kernel to divide exactly.
+     *
+     * @param windowWidth the width of the window
+     * @return true if the kernel can filter with the window width
+     */
+    static boolean supports(int windowWidth) {
+        return (long) windowWidth * windowWidth * 255 < 1 << 23;
+    }
+
+    /**
+     * Applies the mean filter to the region from (xStart, yStart) inclusive
+     * to (xEnd, yEnd) exclusive, exactly as SlidingMean.filter does.
+     *
+     * @param source the row-major packed RGB pixels to read from
+     * @param destination the row-major packed RGB pixels to write to
+     * @param width the width of the image
+     * @param windowWidth the width of the window to use for the filter
+     * @param xStart the first column to filter
+     * @param yStart the first row to filter
+     * @param xEnd the column after the last column to filter
+     * @param yEnd the row after the last row to filter
+     */
+    static void filter(int[] source, int[] destination, int width, int windowWidth, 
+            int xStart, int yStart, int xEnd, int yEnd) {
+        int neighbouringPixels = (windowWidth - 1) / 2;
+        int windowSize = windowWidth * windowWidth;
+
+        if (xStart >= xEnd || yStart >= yEnd) {
+            return;
+        }
+
+        // running sums of each column of the window, offset by left
+        int left = xStart - neighbouringPixels;
+        int columns = xEnd - xStart + windowWidth - 1;
+        Scratch scratch = Scratch.get();
+        int[] redColumns = scratch.ints(0, columns);
+        int[] greenColumns = scratch.ints(1, columns);
+        int[] blueColumns = scratch.ints(2, columns);
+
+        // prefix sums of the column sums, so a window sum is one subtraction
+        int[] redPrefix = scratch.ints(3, columns + 1);
+        int[] greenPrefix = scratch.ints(4, columns + 1);
+        int[] bluePrefix = scratch.ints(5, columns + 1);
+        FloatVector reciprocal = FloatVector.broadcast(FLOATS, 1.0f / windowSize);
+
+        // sum the rows of the first window of every column
+        for (int j = yStart - neighbouringPixels; j <= yStart + neighbouringPixels; j++) {
+            accumulate(source, j * width + left, columns, true, 
+                redColumns, greenColumns, blueColumns);
+        }
+
+        for (int y = yStart; y < yEnd; y++) {
+            // slide the column sums down by one row
+            if (y > yStart) {
+                accumulate(source, (y - neighbouringPixels - 1) * width + left, 
+                    columns, false, redColumns, greenColumns, blueColumns);
+                accumulate(source, (y + neighbouringPixels) * width + left, 
+                    columns, true, redColumns, greenColumns, blueColumns);
+            }
+
+            int red = 0;
+            int green = 0;
+            int blue = 0;
+
+            for (int c = 0; c < columns; c++) {
+                red += redColumns[c];
+                green += greenColumns[c];
+                blue += blueColumns[c];
+                redPrefix[c + 1] = red;
+                greenPrefix[c + 1] = green;
+                bluePrefix[c + 1] = blue;
+            }
+
+            // divide and pack whole vectors of window sums
+            int row = y * width + xStart;
+            int outputs = xEnd - xStart;
+            int bound = INTS.loopBound(outputs);
+            int i = 0;
+
+            for (; i < bound; i += INTS.length()) {
+                IntVector r = mean(redPrefix, i, windowWidth, windowSize, reciprocal);
+                IntVector g = mean(greenPrefix, i, windowWidth, windowSize, reciprocal);
+                IntVector b = mean(bluePrefix, i, windowWidth, windowSize, reciprocal);
+
+                r.lanewise(VectorOperators.LSHL, 16)
+                    .or(g.lanewise(VectorOperators.LSHL, 8))
+                    .or(b)
+                    .intoArray(destination, row + i);
+            }
+
+            for (; i < outputs; i++) {
+                destination[row + i] = 
+                    (redPrefix[i + windowWidth] - redPrefix[i]) / windowSize << 16
+                    | (greenPrefix[i + windowWidth] - greenPrefix[i]) / windowSize << 8
+                    | (bluePrefix[i + windowWidth] - bluePrefix[i]) / windowSize;
+            }
+        }
+    }
+
+    /**
+     * Adds the channels of a row of pixels to the column sums, or subtracts
+     * them, a vector of columns at a time.
+     */
+    private static void accumulate(int[] source, int row, int columns, boolean add, 
+            int[] redColumns, int[] greenColumns, int[] blueColumns) {
+        int bound = INTS.loopBound(columns);
+        int c = 0;
+
+        // the operator must be a constant in each loop for the JIT to vectorize it
+        if (add) {
+            for (; c < bound; c += INTS.length()) {
+                IntVector pixels = IntVector.fromArray(INTS, source, row + c);
+                IntVector.fromArray(INTS, redColumns, c)
+                    .add(pixels.lanewise(VectorOperators.LSHR, 16).and(0xFF))
+                    .intoArray(redColumns, c);
+                IntVector.fromArray(INTS, greenColumns, c)
+                    .add(pixels.lanewise(VectorOperators.LSHR, 8).and(0xFF))
+                    .intoArray(greenColumns, c);
+                IntVector.fromArray(INTS, blueColumns, c)
+                    .add(pixels.and(0xFF))
+                    .intoArray(blueColumns, c);
+            }
+        } else {
+            for (; c < bound; c += INTS.length()) {
+                IntVector pixels = IntVector.fromArray(INTS, source, row + c);
+                IntVector.fromArray(INTS, redColumns, c)
+                    .sub(pixels.lanewise(VectorOperators.LSHR, 16).and(0xFF))
+                    .intoArray(redColumns, c);
+                IntVector.fromArray(INTS, greenColumns, c)
+                    .sub(pixels.lanewise(VectorOperators.LSHR, 8).and(0xFF))
+                    .intoArray(greenColumns, c);
+                IntVector.fromArray(INTS, blueColumns, c)
+                    .sub(pixels.and(0xFF))
+                    .intoArray(blueColumns, c);
+            }
+        }
+
+        int sign = add ? 1 : -1;
+
+        for (; c < columns; c++) {
+            int pixel = source[row + c];
+            redColumns[c] += sign * (pixel >> 16 & 0xFF);
+            greenColumns[c] += sign * (pixel >> 8 & 0xFF);
+            blueColumns[c] += sign * (pixel & 0xFF);
+        }
+    }
+
+    /**
+     * Returns the means of the windows starting at columns i onwards, from
+     * the prefix sums of one channel.
+     */
+    private static IntVector mean(int[] prefix, int i, int windowWidth, int windowSize, 
+            FloatVector reciprocal) {
+        IntVector sums = IntVector.fromArray(INTS, prefix, i + windowWidth)
+            .sub(IntVector.fromArray(INTS, prefix, i));
+
+        // a sum below 2^23 in the mantissa of 2^23 is exact once 2^23 is taken off
+        FloatVector values = sums.or(FLOAT_BIAS).reinterpretAsFloats().sub(TWO_TO_23);
+
+        // adding 2^23 rounds the quotient to the nearest integer in the mantissa
+        IntVector quotients = values.mul(reciprocal).add(TWO_TO_23)
+            .reinterpretAsInts().sub(FLOAT_BIAS);
+
+        // rounding up goes at most one past the exact quotient, so step back there
+        return quotients.blend(quotients.sub(1), 
+            quotients.mul(windowSize).compare(VectorOperators.GT, sums));
+    }
+}
@@ -3,10 +3,30 @@ import org.junit.jupiter.api.DisplayName;
 import org.junit.jupiter.params.ParameterizedTest;
 import org.junit.jupiter.params.provider.ValueSource;
 import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import java.awt.Rectangle;
 import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import javax.imageio.ImageIO;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.UnaryOperator;
 
 class FilterTests {
     @ParameterizedTest
@@ -50,4 +70,743 @@ class FilterTests {
 
         assertArrayEquals(serialImagePixels, parallelImagePixels);
     }
-}
\ No newline at end of file
+
+    @ParameterizedTest
+    @ValueSource(ints = {3, 5, 11, 15})
+    @DisplayName("Sliding Mean Engine Test")
+    void testSlidingMeanEngine(int windowWidth) {
+        BufferedImage image = randomImage(97, 61);
+        BufferedImage direct = new MeanFilterSerial(windowWidth, MeanEngine.DIRECT).apply(image);
+        BufferedImage sliding = new MeanFilterSerial(windowWidth, MeanEngine.SLIDING).apply(image);
+
+        assertArrayEquals(pixels(direct), pixels(sliding));
+    }
+
+    @ParameterizedTest
+    @ValueSource(ints = {3, 5, 11, 15, 129})
+    @DisplayName("Vector Mean Engine Test")
+    void testVectorMeanEngine(int windowWidth) {
+        BufferedImage image = randomImage(197, 161);
+        BufferedImage sliding = new MeanFilterSerial(windowWidth, MeanEngine.SLIDING).apply(image);
+        BufferedImage vector = new MeanFilterSerial(windowWidth, MeanEngine.VECTOR).apply(image);
+
+        assertArrayEquals(pixels(sliding), pixels(vector));
+    }
+
+    @ParameterizedTest
+    @ValueSource(ints = {3, 5, 11, 15})
+    @DisplayName("Histogram Median Engine Test")
+    void testHistogramMedianEngine(int windowWidth) {
+        BufferedImage image = randomImage(97, 61);
+        BufferedImage sorted = new MedianFilterSerial(windowWidth, MedianEngine.SORT).apply(image);
+        BufferedImage histogram = new MedianFilterSerial(windowWidth, MedianEngine.HISTOGRAM)
+        .apply(image);
+
+        assertArrayEquals(pixels(sorted), pixels(histogram));
+    }
+
+    @ParameterizedTest
+    @ValueSource(ints = {3, 5, 15, 31, 51})
+    @DisplayName("Coarse Fine Median Engine Test")
+    void testCoarseFineMedianEngine(int windowWidth) {
+        BufferedImage image = randomImage(157, 113);
+        BufferedImage histogram = new MedianFilterSerial(windowWidth, MedianEngine.HISTOGRAM)
+        .apply(image);
+        BufferedImage coarseFine = new MedianFilterSerial(windowWidth, MedianEngine.COARSE_FINE)
+        .apply(image);
+
+        assertArrayEquals(pixels(histogram), pixels(coarseFine));
+        assertArrayEquals(pixels(histogram), pixels(MedianFilterParallel.smooth(image, 
+        windowWidth, 32, MedianEngine.COARSE_FINE, ForkJoinPool.commonPool())));
+    }
+
+    @ParameterizedTest
+    @ValueSource(ints = {3, 5, 7, 11})
+    @DisplayName("Selection Median Engine Test")
+    void testSelectionMedianEngine(int windowWidth) {
+        BufferedImage image = randomImage(97, 61);
+        BufferedImage sorted = new MedianFilterSerial(windowWidth, MedianEngine.SORT).apply(image);
+        BufferedImage selected = new MedianFilterSerial(windowWidth, MedianEngine.SELECT)
+        .apply(image);
+
+        assertArrayEquals(pixels(sorted), pixels(selected));
+    }
+
+    @ParameterizedTest
+    @ValueSource(ints = {16, 0})
+    @DisplayName("Concurrent Parallel Filter Test")
+    void testConcurrentParallelFilters(int sequentialCutoff) {
+        BufferedImage image = randomImage(97, 61);
+        ForkJoinPool pool = new ForkJoinPool(4);
+
+        try {
+            CompletableFuture<BufferedImage> mean = CompletableFuture.supplyAsync(() -> 
+            MeanFilterParallel.smooth(image, 3, sequentialCutoff, MeanEngine.SLIDING, pool));
+            CompletableFuture<BufferedImage> median = CompletableFuture.supplyAsync(() -> 
+            MedianFilterParallel.smooth(image, 7, sequentialCutoff, MedianEngine.SELECT, pool));
+
+            assertArrayEquals(pixels(new MeanFilterSerial(3).apply(image)), pixels(mean.join()));
+            assertArrayEquals(pixels(new MedianFilterSerial(7).apply(image)), 
+            pixels(median.join()));
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @ParameterizedTest
+    @ValueSource(ints = {1, 2, 3})
+    @DisplayName("Raw images keep every pixel through a write and read")
+    void testRawImageRoundTrip(int imageNum) throws IOException {
+        BufferedImage image = randomImage(50 * imageNum + 1, 40 * imageNum + 3);
+        File file = File.createTempFile("raw", ".rgbp");
+
+        try {
+            ImageFiles.write(image, file);
+            assertArrayEquals(pixels(image), pixels(ImageFiles.read(file)));
+        } finally {
+            file.delete();
+        }
+    }
+
+    @ParameterizedTest
+    @ValueSource(ints = {BufferedImage.TYPE_INT_ARGB, BufferedImage.TYPE_4BYTE_ABGR, 
+    BufferedImage.TYPE_INT_ARGB_PRE})
+    @DisplayName("Alpha images are smoothed opaque")
+    void testAlphaImagesOpaque(int imageType) throws IOException {
+        BufferedImage image = new BufferedImage(40, 30, imageType);
+        image.createGraphics().drawImage(randomImage(40, 30), 0, 0, null);
+        File file = File.createTempFile("opaque", ".png");
+
+        try {
+            ImageFiles.write(MeanFilterParallel.smooth(image, 3, 16, MeanEngine.SLIDING, 
+            ForkJoinPool.commonPool()), file);
+
+            for (int pixel : pixels(ImageFiles.read(file))) {
+                assertEquals(0xFF, pixel >>> 24);
+            }
+        } finally {
+            file.delete();
+        }
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = {"clamp", "reflect", "wrap"})
+    @DisplayName("Border modes match filtering a padded image")
+    void testBorderModes(String name) {
+        BorderMode mode = BorderMode.fromName(name);
+        BufferedImage image = randomImage(23, 17);
+        int windowWidth = 7;
+        int neighbouringPixels = (windowWidth - 1) / 2;
+
+        // pad the image by hand, filter it and crop the padding off again
+        BufferedImage padded = new BufferedImage(23 + 2 * neighbouringPixels, 
+        17 + 2 * neighbouringPixels, BufferedImage.TYPE_3BYTE_BGR);
+        for (int y = 0; y < padded.getHeight(); y++) {
+            for (int x = 0; x < padded.getWidth(); x++) {
+                padded.setRGB(x, y, image.getRGB(padIndex(mode, x - neighbouringPixels, 23), 
+                padIndex(mode, y - neighbouringPixels, 17)));
+            }
+        }
+        BufferedImage mean = new MeanFilterSerial(windowWidth).apply(padded)
+        .getSubimage(neighbouringPixels, neighbouringPixels, 23, 17);
+        BufferedImage median = new MedianFilterSerial(windowWidth).apply(padded)
+        .getSubimage(neighbouringPixels, neighbouringPixels, 23, 17);
+
+        assertArrayEquals(pixels(mean), pixels(new MeanFilterSerial(windowWidth, 
+        MeanEngine.SLIDING, mode).apply(image)));
+        assertArrayEquals(pixels(mean), pixels(MeanFilterParallel.smooth(image, windowWidth, 
+        4, MeanEngine.SLIDING, mode, ForkJoinPool.commonPool())));
+        assertArrayEquals(pixels(median), pixels(new MedianFilterSerial(windowWidth, 
+        MedianEngine.HISTOGRAM, mode).apply(image)));
+        assertArrayEquals(pixels(median), pixels(MedianFilterParallel.smooth(image, windowWidth, 
+        4, MedianEngine.SELECT, mode, ForkJoinPool.commonPool())));
+    }
+
+    private static int padIndex(BorderMode mode, int coordinate, int size) {
+        if (mode == BorderMode.CLAMP) {
+            return Math.max(0, Math.min(size - 1, coordinate));
+        } else if (mode == BorderMode.WRAP) {
+            return (coordinate + size) % size;
+        }
+        // reflect about the edge pixel, which the test image is wide enough for
+        if (coordinate < 0) {
+            return -coordinate;
+        }
+        return coordinate >= size ? 2 * (size - 1) - coordinate : coordinate;
+    }
+
+    @ParameterizedTest
+    @ValueSource(ints = {3, 7})
+    @DisplayName("Metrics listeners receive every recorded run")
+    void testMetricsListener(int windowWidth) {
+        List<FilterMetrics> received = new CopyOnWriteArrayList<>();
+        MetricsListener listener = received::add;
+        Metrics.addListener(listener);
+
+        try {
+            ForkJoinPool pool = ForkJoinPool.commonPool();
+            FilterMetrics.Recorder recorder = 
+            new FilterMetrics.Recorder("MeanFilterParallel", windowWidth, pool);
+            BufferedImage image = randomImage(64, 48);
+            recorder.decoded(image.getWidth(), image.getHeight());
+            MeanFilterParallel.smooth(image, windowWidth, 16, MeanEngine.SLIDING, pool);
+            recorder.filtered();
+            FilterMetrics metrics = recorder.encoded();
+
+            assertEquals(List.of(metrics), received);
+            assertEquals(64 * 48, metrics.getWidth() * metrics.getHeight());
+            assertEquals(pool.getParallelism(), metrics.getParallelism());
+            assertEquals(0, metrics.getQueueNanos());
+            assertEquals(metrics.getTotalNanos(), metrics.getDecodeNanos() 
+            + metrics.getFilterNanos() + metrics.getEncodeNanos());
+            assertTrue(metrics.toJson().startsWith("{\"filter\":\"MeanFilterParallel\""));
+            assertTrue(metrics.getPeakHeapBytes() > 0);
+
+            // a run that another run started during cannot know its peak heap use
+            FilterMetrics.Recorder first = new FilterMetrics.Recorder("first", windowWidth, pool);
+            FilterMetrics.Recorder second = new FilterMetrics.Recorder("second", windowWidth, pool);
+            first.decoded(1, 1);
+            first.filtered();
+            assertEquals(-1, first.encoded().getPeakHeapBytes());
+            second.decoded(1, 1);
+            second.filtered();
+            assertTrue(second.encoded().getPeakHeapBytes() > 0);
+        } finally {
+            Metrics.removeListener(listener);
+        }
+    }
+
+    @ParameterizedTest
+    @ValueSource(ints = {3, 5, 9})
+    @DisplayName("Fused Pipeline Test")
+    void testFilterPipeline(int windowWidth) {
+        BufferedImage image = randomImage(131, 97);
+        BufferedImage separate = new MeanFilterSerial(3).apply(
+        new MedianFilterSerial(windowWidth).apply(image));
+        BufferedImage fused = new FilterPipeline().median(windowWidth, MedianEngine.SELECT)
+        .mean(3, MeanEngine.SLIDING).apply(image, ForkJoinPool.commonPool());
+
+        assertArrayEquals(pixels(separate), pixels(fused));
+    }
+
+    @ParameterizedTest
+    @ValueSource(ints = {3, 5, 7})
+    @DisplayName("Convolution Test")
+    void testConvolution(int windowWidth) {
+        BufferedImage image = randomImage(117, 83);
+        ForkJoinPool pool = ForkJoinPool.commonPool();
+
+        // a square box kernel is the mean filter
+        BufferedImage box = new ConvolutionFilter(Kernel.box(windowWidth, windowWidth)).apply(image);
+        assertArrayEquals(pixels(new MeanFilterSerial(windowWidth).apply(image)), pixels(box));
+
+        // a separable kernel matches its weights applied directly, up to rounding
+        Kernel gaussian = Kernel.gaussian(windowWidth / 3.0, windowWidth / 6.0);
+        double[] weights = new double[gaussian.getWidth() * gaussian.getHeight()];
+        for (int i = 0; i < weights.length; i++) {
+            weights[i] = gaussian.getWeight(i % gaussian.getWidth(), i / gaussian.getWidth());
+        }
+        Kernel direct = Kernel.of(gaussian.getWidth(), gaussian.getHeight(), weights);
+        int[] separable = pixels(new ConvolutionFilter(gaussian).apply(image));
+        int[] unseparated = pixels(new ConvolutionFilter(direct).apply(image));
+        for (int p = 0; p < separable.length; p++) {
+            for (int shift = 0; shift <= 16; shift += 8) {
+                assertTrue(Math.abs((separable[p] >> shift & 0xFF) 
+                - (unseparated[p] >> shift & 0xFF)) <= 1);
+            }
+        }
+
+        // tiles filtered in parallel give the same image
+        Kernel rectangle = Kernel.box(windowWidth, windowWidth + 2);
+        assertArrayEquals(pixels(new ConvolutionFilter(rectangle).apply(image)), 
+        pixels(new ConvolutionFilter(rectangle).apply(image, pool)));
+        assertArrayEquals(separable, pixels(new ConvolutionFilter(gaussian).apply(image, pool)));
+
+        // descriptions of the same kernel share one cache key
+        assertEquals(ConvolutionFilter.parseKernel("gaussian:" + windowWidth).toString(),
+        ConvolutionFilter.parseKernel("gaussian:" + windowWidth + ".0," + windowWidth).toString());
+        assertEquals(ConvolutionFilter.parseKernel("box:" + windowWidth).toString(),
+        ConvolutionFilter.parseKernel("BOX:" + windowWidth + "x" + windowWidth).toString());
+    }
+
+    @ParameterizedTest
+    @ValueSource(ints = {3, 5})
+    @DisplayName("Server Test")
+    void testSmootherServer(int windowWidth) throws IOException {
+        BufferedImage image = randomImage(90, 70);
+        ForkJoinPool pool = ForkJoinPool.commonPool();
+        SmootherServer server = new SmootherServer(
+        new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), pool, 1, 4);
+        server.start();
+
+        try {
+            String base = "http://localhost:" + server.getAddress().getPort() + "/smooth";
+            HttpURLConnection connection = (HttpURLConnection) new URL(
+            base + "?filter=median&width=" + windowWidth + "&border=clamp").openConnection();
+            connection.setRequestMethod("POST");
+            connection.setDoOutput(true);
+            try (OutputStream out = connection.getOutputStream()) {
+                ImageIO.write(image, "png", out);
+            }
+
+            assertEquals(200, connection.getResponseCode());
+            BufferedImage smoothed;
+            try (InputStream in = connection.getInputStream()) {
+                smoothed = ImageIO.read(in);
+            }
+            assertArrayEquals(pixels(MedianFilterParallel.smooth(image, windowWidth, 0, 
+            MedianEngine.SELECT, BorderMode.CLAMP, pool)), pixels(smoothed));
+
+            // an even window width is rejected as a bad request
+            HttpURLConnection bad = (HttpURLConnection) new URL(
+            base + "?filter=mean&width=" + (windowWidth + 1)).openConnection();
+            bad.setRequestMethod("POST");
+            bad.setDoOutput(true);
+            try (OutputStream out = bad.getOutputStream()) {
+                ImageIO.write(image, "png", out);
+            }
+            assertEquals(400, bad.getResponseCode());
+
+            // so is an upload cut off part way through
+            ByteArrayOutputStream encoded = new ByteArrayOutputStream();
+            ImageIO.write(image, "png", encoded);
+            HttpURLConnection truncated = (HttpURLConnection) new URL(
+            base + "?filter=mean&width=" + windowWidth).openConnection();
+            truncated.setRequestMethod("POST");
+            truncated.setDoOutput(true);
+            try (OutputStream out = truncated.getOutputStream()) {
+                out.write(encoded.toByteArray(), 0, encoded.size() / 2);
+            }
+            assertEquals(400, truncated.getResponseCode());
+        } finally {
+            server.stop(0);
+        }
+    }
+
+    @ParameterizedTest
+    @ValueSource(ints = {1, 2, 7, 64})
+    @DisplayName("Streaming Filter Test")
+    void testStreamingSmoother(int bandHeight) throws IOException {
+        BufferedImage image = randomImage(53, 41);
+        ForkJoinPool pool = ForkJoinPool.commonPool();
+        File input = File.createTempFile("streaming-in", ".tif");
+        File output = File.createTempFile("streaming-out", ".tif");
+
+        try {
+            ImageIO.write(image, "tif", input);
+
+            // band heights both smaller and larger than the window
+            for (int windowWidth : new int[] {3, 5, 9, 15}) {
+                int width = windowWidth;
+                new StreamingSmoother((source, w, h, destination) -> MeanFilterParallel.smooth(
+                source, w, h, destination, width, 16, MeanEngine.SLIDING, pool), windowWidth, 
+                bandHeight).smooth(input, output);
+                assertArrayEquals(pixels(MeanFilterParallel.smooth(image, windowWidth, 16, 
+                MeanEngine.SLIDING, pool)), pixels(ImageIO.read(output)));
+
+                new StreamingSmoother((source, w, h, destination) -> MedianFilterParallel.smooth(
+                source, w, h, destination, width, 16, MedianEngine.SELECT, pool), windowWidth, 
+                bandHeight).smooth(input, output);
+                assertArrayEquals(pixels(MedianFilterParallel.smooth(image, windowWidth, 16, 
+                MedianEngine.SELECT, pool)), pixels(ImageIO.read(output)));
+            }
+        } finally {
+            input.delete();
+            output.delete();
+        }
+    }
+
+    @ParameterizedTest
+    @ValueSource(ints = {3, 5, 11})
+    @DisplayName("Sharded Filter Test")
+    void testShardCoordinator(int windowWidth) throws IOException {
+        BufferedImage image = randomImage(97, 61);
+        ForkJoinPool pool = ForkJoinPool.commonPool();
+        InetSocketAddress local = new InetSocketAddress(InetAddress.getLoopbackAddress(), 0);
+        ShardWorker first = new ShardWorker(local, pool);
+        ShardWorker second = new ShardWorker(local, pool);
+        first.start();
+        second.start();
+
+        // a worker that is gone, whose shards must go to the others
+        ShardWorker stopped = new ShardWorker(local, pool);
+        stopped.stop();
+
+        try {
+            ShardCoordinator coordinator = new ShardCoordinator(List.of(first.getAddress(), 
+            stopped.getAddress(), second.getAddress()), 2, 5000);
+
+            for (BorderMode borderMode : BorderMode.values()) {
+                assertArrayEquals(pixels(MeanFilterParallel.smooth(image, windowWidth, 0, 
+                MeanEngine.SLIDING, borderMode, pool)), pixels(coordinator.smooth(image, 
+                "mean", windowWidth, "sliding", borderMode)));
+                assertArrayEquals(pixels(MedianFilterParallel.smooth(image, windowWidth, 0, 
+                MedianEngine.HISTOGRAM, borderMode, pool)), pixels(coordinator.smooth(image, 
+                "median", windowWidth, "histogram", borderMode)));
+            }
+
+            // with no worker left the shards cannot be filtered anywhere
+            ShardCoordinator stranded = new ShardCoordinator(List.of(stopped.getAddress()), 2, 
+            5000);
+            assertThrows(IOException.class, () -> stranded.smooth(image, "mean", windowWidth, 
+            "sliding", BorderMode.CROP));
+        } finally {
+            first.stop();
+            second.stop();
+        }
+    }
+
+    @ParameterizedTest
+    @ValueSource(ints = {3, 5, 11})
+    @DisplayName("Incremental Filter Test")
+    void testIncrementalSmoother(int windowWidth) {
+        ForkJoinPool pool = ForkJoinPool.commonPool();
+        BufferedImage previous = randomImage(150, 110);
+        BufferedImage current = randomImage(150, 110);
+        BufferedImage frame = new BufferedImage(150, 110, BufferedImage.TYPE_3BYTE_BGR);
+        frame.setData(previous.getData());
+
+        // change a block in the middle and a strip along the left and bottom edges
+        for (Rectangle changed : List.of(new Rectangle(60, 40, 9, 7), new Rectangle(0, 20, 2, 30), 
+        new Rectangle(100, 108, 40, 2))) {
+            frame.setRGB(changed.x, changed.y, changed.width, changed.height, pixels(current), 
+            0, 150);
+        }
+
+        for (BorderMode borderMode : BorderMode.values()) {
+            IncrementalSmoother mean = new IncrementalSmoother(MeanEngine.SLIDING, windowWidth, 
+            borderMode, pool);
+            assertArrayEquals(pixels(MeanFilterParallel.smooth(frame, windowWidth, 0, 
+            MeanEngine.SLIDING, borderMode, pool)), pixels(mean.smooth(previous, 
+            MeanFilterParallel.smooth(previous, windowWidth, 0, MeanEngine.SLIDING, borderMode, 
+            pool), frame)));
+
+            IncrementalSmoother median = new IncrementalSmoother(MedianEngine.HISTOGRAM, 
+            windowWidth, borderMode, pool);
+            assertArrayEquals(pixels(MedianFilterParallel.smooth(frame, windowWidth, 0, 
+            MedianEngine.HISTOGRAM, borderMode, pool)), pixels(median.smooth(previous, 
+            MedianFilterParallel.smooth(previous, windowWidth, 0, MedianEngine.HISTOGRAM, 
+            borderMode, pool), frame)));
+        }
+    }
+
+    @ParameterizedTest
+    @ValueSource(ints = {3, 5, 9})
+    @DisplayName("Planar Filter Test")
+    void testPlanarFilter(int windowWidth) {
+        ForkJoinPool pool = ForkJoinPool.commonPool();
+        BufferedImage image = randomImage(83, 67);
+
+        // 8-bit RGB bands filtered one by one match the packed RGB filters
+        for (BorderMode borderMode : BorderMode.values()) {
+            assertArrayEquals(pixels(MeanFilterParallel.smooth(image, windowWidth, 0, 
+            MeanEngine.SLIDING, borderMode, pool)), 
+            pixels(PlanarFilter.mean(windowWidth, borderMode).apply(image, pool)));
+            assertArrayEquals(pixels(MedianFilterParallel.smooth(image, windowWidth, 0, 
+            MedianEngine.SORT, borderMode, pool)), 
+            pixels(PlanarFilter.median(windowWidth, borderMode).apply(image, pool)));
+        }
+
+        // 16-bit samples keep their full depth
+        BufferedImage deep = new BufferedImage(83, 67, BufferedImage.TYPE_USHORT_GRAY);
+        Random random = new Random(windowWidth);
+        int[] samples = new int[83 * 67];
+        for (int p = 0; p < samples.length; p++) {
+            samples[p] = random.nextInt(1 << 16);
+        }
+        deep.getRaster().setSamples(0, 0, 83, 67, 0, samples);
+        int[] median = PlanarFilter.median(windowWidth, BorderMode.CLAMP).apply(deep, pool)
+        .getRaster().getSamples(0, 0, 83, 67, 0, (int[]) null);
+
+        int neighbouringPixels = (windowWidth - 1) / 2;
+        int[] window = new int[windowWidth * windowWidth];
+        for (int y = 0; y < 67; y++) {
+            for (int x = 0; x < 83; x++) {
+                int index = 0;
+                for (int j = y - neighbouringPixels; j <= y + neighbouringPixels; j++) {
+                    for (int i = x - neighbouringPixels; i <= x + neighbouringPixels; i++) {
+                        window[index++] = samples[Math.min(Math.max(j, 0), 66) * 83 
+                        + Math.min(Math.max(i, 0), 82)];
+                    }
+                }
+                Arrays.sort(window);
+                assertEquals(window[window.length / 2], median[y * 83 + x]);
+            }
+        }
+
+        // float medians pick a sample of the window, means stay close to the exact mean
+        float[] plane = new float[83 * 67];
+        for (int p = 0; p < plane.length; p++) {
+            plane[p] = (float) random.nextGaussian() * 1e-3f;
+        }
+        float[] floatMedian = new float[plane.length];
+        float[] floatMean = new float[plane.length];
+        PlanarFilter.median(windowWidth, BorderMode.CROP).apply(plane, floatMedian, 83, 67, pool);
+        PlanarFilter.mean(windowWidth, BorderMode.CROP).apply(plane, floatMean, 83, 67, pool);
+
+        float[] values = new float[windowWidth * windowWidth];
+        for (int y = neighbouringPixels; y < 67 - neighbouringPixels; y++) {
+            for (int x = neighbouringPixels; x < 83 - neighbouringPixels; x++) {
+                int index = 0;
+                double sum = 0;
+                for (int j = y - neighbouringPixels; j <= y + neighbouringPixels; j++) {
+                    for (int i = x - neighbouringPixels; i <= x + neighbouringPixels; i++) {
+                        values[index++] = plane[j * 83 + i];
+                        sum += plane[j * 83 + i];
+                    }
+                }
+                Arrays.sort(values);
+                assertEquals(values[values.length / 2], floatMedian[y * 83 + x]);
+                assertEquals(sum / values.length, floatMean[y * 83 + x], 1e-9);
+            }
+        }
+
+        // alpha is filtered with the colours instead of dropped
+        BufferedImage translucent = new BufferedImage(40, 30, BufferedImage.TYPE_INT_ARGB);
+        for (int p = 0; p < 40 * 30; p++) {
+            translucent.setRGB(p % 40, p / 40, 0x80000000 | random.nextInt(1 << 24));
+        }
+        BufferedImage smoothed = PlanarFilter.mean(windowWidth, BorderMode.REFLECT)
+        .apply(translucent, pool);
+        assertEquals(BufferedImage.TYPE_INT_ARGB, smoothed.getType());
+        for (int pixel : pixels(smoothed)) {
+            assertEquals(0x80, pixel >>> 24);
+        }
+    }
+
+    @ParameterizedTest
+    @ValueSource(ints = {3, 7, 13})
+    @DisplayName("Progressive Filter Test")
+    void testProgressiveSmoother(int windowWidth) {
+        ForkJoinPool pool = ForkJoinPool.commonPool();
+        BufferedImage image = randomImage(301, 203);
+        Rectangle viewport = new Rectangle(200, 120, 60, 40);
+
+        for (BorderMode borderMode : BorderMode.values()) {
+            int[] expected = pixels(MedianFilterParallel.smooth(image, windowWidth, 0, 
+            MedianEngine.HISTOGRAM, borderMode, pool));
+            List<Rectangle> tiles = new CopyOnWriteArrayList<>();
+            AtomicInteger previews = new AtomicInteger();
+
+            BufferedImage smoothed = new ProgressiveSmoother(MedianEngine.HISTOGRAM, windowWidth, 
+            borderMode, pool).smooth(image, viewport, new ProgressListener() {
+                @Override
+                public void previewReady(BufferedImage preview) {
+                    assertTrue(tiles.isEmpty());
+                    previews.incrementAndGet();
+                }
+
+                @Override
+                public void tileReady(BufferedImage partial, Rectangle tile) {
+                    // the pixels of the tile are final when it is published
+                    int[] pixels;
+                    synchronized (partial) {
+                        pixels = partial.getRGB(tile.x, tile.y, tile.width, tile.height, 
+                        null, 0, tile.width);
+                    }
+                    for (int y = 0; y < tile.height; y++) {
+                        for (int x = 0; x < tile.width; x++) {
+                            assertEquals(expected[(tile.y + y) * 301 + tile.x + x], 
+                            pixels[y * tile.width + x]);
+                        }
+                    }
+                    tiles.add(tile);
+                }
+            });
+
+            assertEquals(1, previews.get());
+            // the viewport comes first, give or take the tiles already taken by other threads
+            long inViewport = tiles.stream().filter(tile -> tile.intersects(viewport)).count();
+            for (int t = 0; t < tiles.size(); t++) {
+                assertTrue(!tiles.get(t).intersects(viewport) 
+                || t < inViewport + pool.getParallelism() - 1);
+            }
+            assertEquals(301 * 203, tiles.stream().mapToInt(tile -> tile.width * tile.height).sum());
+            assertArrayEquals(expected, pixels(smoothed));
+        }
+    }
+
+    @ParameterizedTest
+    @ValueSource(ints = {3, 5})
+    @DisplayName("Result Cache Test")
+    void testResultCache(int windowWidth) throws IOException {
+        BufferedImage image = randomImage(64, 48);
+        File directory = Files.createTempDirectory("result-cache").toFile();
+
+        try {
+            AtomicInteger filtered = new AtomicInteger();
+            UnaryOperator<BufferedImage> filter = source -> {
+                filtered.incrementAndGet();
+                return new MedianFilterSerial(windowWidth).apply(source);
+            };
+            int[] expected = pixels(new MedianFilterSerial(windowWidth).apply(image));
+
+            ResultCache cache = new ResultCache(1 << 20, directory);
+            assertArrayEquals(expected, pixels(cache.apply(image, "median", windowWidth, 
+            BorderMode.CROP, filter)));
+            assertArrayEquals(expected, pixels(cache.apply(image, "median", windowWidth, 
+            BorderMode.CROP, filter)));
+            assertEquals(1, filtered.get());
+            assertEquals(1, cache.getHits());
+
+            // a new cache finds the result on disk
+            ResultCache reopened = new ResultCache(0, directory);
+            assertArrayEquals(expected, pixels(reopened.apply(image, "median", windowWidth, 
+            BorderMode.CROP, filter)));
+            assertEquals(1, filtered.get());
+
+            // another border mode is another result
+            reopened.apply(image, "median", windowWidth, BorderMode.CLAMP, filter);
+            assertEquals(2, filtered.get());
+        } finally {
+            deleteDirectory(directory);
+        }
+    }
+
+    @ParameterizedTest
+    @ValueSource(ints = {3, 5, 7})
+    @DisplayName("Image Pool Test")
+    void testImagePool(int windowWidth) {
+        ForkJoinPool pool = ForkJoinPool.commonPool();
+        ImagePool images = new ImagePool(2);
+
+        // reused images and arrays must not leak pixels from the previous image, 
+        // e.g. in the wider border of a wider window
+        BufferedImage image = randomImage(73, 59);
+        for (int width : new int[] {windowWidth, windowWidth + 4, windowWidth}) {
+            BufferedImage pooled = MeanFilterParallel.smooth(image, width, 16, 
+            MeanEngine.SLIDING, BorderMode.CROP, pool, images);
+            assertArrayEquals(pixels(MeanFilterParallel.smooth(image, width, 16, 
+            MeanEngine.SLIDING, pool)), pixels(pooled));
+            images.release(pooled);
+
+            pooled = MedianFilterParallel.smooth(image, width, 16, 
+            MedianEngine.HISTOGRAM, BorderMode.CROP, pool, images);
+            assertArrayEquals(pixels(new MedianFilterSerial(width).apply(image)), 
+            pixels(pooled));
+            images.release(pooled);
+        }
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = {"crop", "clamp", "reflect", "wrap"})
+    @DisplayName("Integral Image Test")
+    void testIntegralImage(String border) {
+        BufferedImage image = randomImage(151, 67);
+        BorderMode borderMode = BorderMode.fromName(border);
+        IntegralImage integral = IntegralImage.build(image, ForkJoinPool.commonPool());
+
+        // one table answers every window width
+        for (int windowWidth : new int[] {3, 5, 11, 15}) {
+            assertArrayEquals(pixels(new MeanFilterSerial(windowWidth, MeanEngine.SLIDING, 
+            borderMode).apply(image)), pixels(integral.mean(windowWidth, borderMode, 
+            ForkJoinPool.commonPool())));
+        }
+    }
+
+    @ParameterizedTest
+    @ValueSource(ints = {17, 19})
+    @DisplayName("Tile Size Profile Test")
+    void testTileSizeProfile(int windowWidth) throws IOException {
+        BufferedImage image = randomImage(200, 200);
+        File directory = Files.createTempDirectory("tile-sizes").toFile();
+        File profile = new File(directory, "tile-sizes.properties");
+        System.setProperty("smoother.profile", profile.getPath());
+
+        try {
+            // a window width no other test calibrates, so the size is not in memory yet
+            assertArrayEquals(pixels(new MeanFilterSerial(windowWidth).apply(image)), 
+            pixels(MeanFilterParallel.smooth(image, windowWidth, 0, MeanEngine.VECTOR, 
+            ForkJoinPool.commonPool())));
+
+            assertTrue(profile.isFile());
+            assertTrue(Files.readString(profile.toPath()).contains(
+            MeanFilterParallel.class.getName() + "-VECTOR.w" + windowWidth + ".b"));
+            assertEquals(1, directory.list().length);
+        } finally {
+            System.clearProperty("smoother.profile");
+            deleteDirectory(directory);
+        }
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = {"jpg", "png", "rgbp"})
+    @DisplayName("Batch Test")
+    void testBatch(String extension) throws IOException, InterruptedException {
+        File inputDirectory = Files.createTempDirectory("batch-in").toFile();
+        File outputDirectory = Files.createTempDirectory("batch-out").toFile();
+
+        try {
+            UnaryOperator<BufferedImage> filter = image -> MeanFilterParallel.smooth(image, 5, 
+            16, MeanEngine.SLIDING, ForkJoinPool.commonPool());
+
+            for (int i = 0; i < 4; i++) {
+                ImageFiles.write(randomImage(60 + i, 45), new File(inputDirectory, 
+                "image" + i + ".png"));
+            }
+            // an image that cannot be decoded is skipped without stopping the batch
+            Files.writeString(new File(inputDirectory, "broken.png").toPath(), "not an image");
+
+            List<File> inputs = BatchSmoother.listInputs(inputDirectory);
+            BatchSmoother batch = new BatchSmoother(filter, "MeanFilterParallel", extension, 
+            5, ForkJoinPool.commonPool(), 2, 2);
+            List<FilterMetrics> received = new CopyOnWriteArrayList<>();
+            MetricsListener listener = received::add;
+            Metrics.addListener(listener);
+
+            try {
+                assertEquals(4, batch.process(inputs, outputDirectory));
+            } finally {
+                Metrics.removeListener(listener);
+            }
+            // one run for each image written
+            assertEquals(4, received.size());
+
+            for (int i = 0; i < 4; i++) {
+                // encode the expected image the same way, as JPEG is lossy
+                File expected = File.createTempFile("expected", "." + extension);
+
+                try {
+                    ImageFiles.write(filter.apply(ImageFiles.read(new File(inputDirectory, 
+                    "image" + i + ".png"))), expected);
+                    assertArrayEquals(pixels(ImageFiles.read(expected)), pixels(ImageFiles.read(
+                    new File(outputDirectory, "image" + i + "-MeanFilterParallel." 
+                    + extension))));
+                } finally {
+                    expected.delete();
+                }
+            }
+        } finally {
+            deleteDirectory(inputDirectory);
+            deleteDirectory(outputDirectory);
+        }
+    }
+
+    private static void deleteDirectory(File directory) {
+        File[] files = directory.listFiles();
+
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        directory.delete();
+    }
+
+    private static BufferedImage randomImage(int width, int height) {
+        Random random = new Random(width * 31 + height);
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_3BYTE_BGR);
+
+        for (int x = 0; x < width; x++) {
+            for (int y = 0; y < height; y++) {
+                image.setRGB(x, y, random.nextInt(1 << 24));
+            }
+        }
+        return image;
+    }
+
+    private static int[] pixels(BufferedImage image) {
+        return image.getRGB(0, 0, image.getWidth(), image.getHeight(), 
+        null, 0, image.getWidth());
+    }
+}